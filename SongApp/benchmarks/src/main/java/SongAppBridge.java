@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import songbench.SongApp;
+
+/**Implements the benchmarks' view of SongApp by calling straight through to Main (see songbench.SongApp for why this class exists).
+ * It lives in the default package next to Main, so it can also set Main's library the same way main() does.
+*/
+public class SongAppBridge implements SongApp {
+    private final SongLineParser parser = new SongLineParser();
+
+    @Override
+    public void open(Path songPath) throws IOException {
+        Main.library = new SongLibrary(songPath);
+    }
+
+    @Override
+    public void close() throws IOException {
+        Main.library.close();
+        Main.library = null;
+    }
+
+    @Override
+    public List<?> getSongLines(Path path) throws IOException {
+        return Main.getSongLines(path);
+    }
+
+    @Override
+    public int findLineByName(String name) {
+        return Main.findLineByName(name);
+    }
+
+    @Override
+    public List<?> removeSong(String name) {
+        return Main.removeSong(name);
+    }
+
+    @Override
+    public void add(String line) throws IOException {
+        Main.library.add(Main.makeSongFromInput(line));
+    }
+
+    @Override
+    public void set(int index, String line) throws IOException {
+        Main.library.set(index, Main.makeSongFromInput(line));
+    }
+
+    @Override
+    public Object parseLineBySplit(String line) {
+        try {
+            String[] details = line.split(", ");
+            if(details.length != 3) throw new IOException();
+
+            int playCount = Integer.parseInt(details[2]);
+            if(playCount < 0) throw new NumberFormatException();
+            return new Song(details[0], details[1], playCount);
+        }
+        catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public Object parseLine(CharSequence line) {
+        return parser.parse(line);
+    }
+
+    @Override
+    public Object parseLine(byte[] bytes, int start, int end) {
+        return parser.parse(bytes, start, end);
+    }
+
+    @Override
+    public int recordPlays(String line) {
+        return Main.recordPlays(line);
+    }
+
+    @Override
+    public void mergePlays() throws IOException {
+        Main.library.mergePlays();
+    }
+
+    @Override
+    public void commit() throws IOException {
+        Main.library.commit();
+    }
+
+    @Override
+    public void compact() throws IOException {
+        Main.library.compact();
+    }
+
+    @Override
+    public void printSongsOverNum(int minPlays) {
+        Main.printSongsOverNum(minPlays);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void updateSongFile(List<?> songs, Path path) throws IOException {
+        Main.updateSongFile((List<Song>) songs, path);
+    }
+
+    @Override
+    public List<?> listAssignByVal(List<?> list) {
+        return Main.listAssignByVal(list);
+    }
+}
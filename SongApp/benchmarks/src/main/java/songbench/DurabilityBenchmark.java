@@ -0,0 +1,94 @@
+package songbench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**What each songapp.durability mode costs: saving a one song change from one thread and from several at once (as server clients do), and rewriting the whole song file.
+ * With several threads, group lets changes saved at the same time share a force to the disk, which is where it pulls ahead of fsync.
+ * The songs are written under java.io.tmpdir, which is often a RAM disk where forcing costs nothing, so point it at the disk being measured, e.g.
+ *     java -jar target/benchmarks.jar Durability -jvmArgsAppend -Djava.io.tmpdir=/path/on/that/disk
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DurabilityBenchmark {
+    @Param({"fsync", "group", "none"})
+    public String durability;
+
+    @Param({"1000", "100000"})
+    public int songCount;
+
+    private final SongApp app = SongApp.create();
+    private final AtomicInteger nextThread = new AtomicInteger();
+    private Path songFile;
+
+    /**The songs a benchmark thread changes, a different run of them for each thread*/
+    @State(Scope.Thread)
+    public static class Changes {
+        private int first;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void pickSongs(DurabilityBenchmark benchmark) {
+            first = benchmark.nextThread.getAndIncrement() * 100 % benchmark.songCount;
+        }
+
+        /**Returns the next song to change, going round the thread's 100 songs*/
+        int nextSong(int songCount) {
+            next = (next + 1) % 100;
+            return (first + next) % songCount;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        System.setProperty("songapp.durability", durability); //Read when the library is opened
+        songFile = SongFiles.generate(songCount);
+        app.open(songFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        app.close();
+        SongFiles.delete(songFile);
+        System.clearProperty("songapp.durability");
+    }
+
+    @Benchmark
+    public void saveChange(Changes changes) throws IOException {
+        int song = changes.nextSong(songCount);
+        app.set(song, SongFiles.line(song, songCount));
+        app.commit();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void saveChangeConcurrently(Changes changes) throws IOException {
+        saveChange(changes);
+    }
+
+    @Benchmark
+    public void compact() throws IOException {
+        app.compact();
+    }
+}
@@ -0,0 +1,56 @@
+package songbench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**Reading the song file: parsing it into a list with getSongLines() and loading it into a SongLibrary at startup*/
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LoadBenchmark {
+    @Param({"1000", "100000", "10000000"})
+    public int songCount;
+
+    private final SongApp app = SongApp.create();
+    private Path songFile;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        songFile = SongFiles.generate(songCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        SongFiles.delete(songFile);
+    }
+
+    @Benchmark
+    public List<?> getSongLines() throws IOException {
+        return app.getSongLines(songFile);
+    }
+
+    @Benchmark
+    public void openLibrary() throws IOException {
+        app.open(songFile);
+        app.close();
+    }
+}
@@ -0,0 +1,67 @@
+package songbench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**Commands that change the library, each followed by the commit that takeCommand() makes after them.
+ * removeSong() puts the song it removed back at the end of the list so the library stays the same size, which means the journal grows and gets compacted just as it would over a long session.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MutateBenchmark {
+    @Param({"1000", "100000", "10000000"})
+    public int songCount;
+
+    private final SongApp app = SongApp.create();
+    private Path songFile;
+    private int nextSong = 0;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        songFile = SongFiles.generate(songCount);
+        app.open(songFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        app.close();
+        SongFiles.delete(songFile);
+    }
+
+    @Benchmark
+    public List<?> removeSong() throws IOException {
+        nextSong = (nextSong + 7919) % songCount; //Steps through the songs in an order unrelated to where they are in the list
+        List<?> songs = app.removeSong(SongFiles.name(nextSong));
+        app.add(SongFiles.line(nextSong, songCount));
+        app.commit();
+        return songs;
+    }
+
+    @Benchmark
+    public void add() throws IOException {
+        app.add(SongFiles.line(songCount, songCount)); //One past the generated songs, so it doesn't clash with an existing name
+        app.commit();
+        app.removeSong(SongFiles.name(songCount));
+        app.commit();
+    }
+}
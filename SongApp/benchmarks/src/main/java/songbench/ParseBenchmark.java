@@ -0,0 +1,69 @@
+package songbench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**Parsing song file lines one at a time: with String.split() and exceptions as makeSongFromInput() used to, and with SongLineParser from Strings and straight from UTF-8 bytes.
+ * badPercent of the lines aren't songs (half with a bad play count, half with a missing field), which is where throwing an exception per line shows.
+ * Every benchmark parses the same LINES lines, so the scores are lines per millisecond divided by LINES.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class ParseBenchmark {
+    private static final int LINES = 1000;
+
+    @Param({"0", "50"})
+    public int badPercent;
+
+    private final SongApp app = SongApp.create();
+    private final String[] lines = new String[LINES];
+    private byte[] bytes; //Every line, one after the other
+    private final int[] starts = new int[LINES + 1];
+
+    @Setup(Level.Trial)
+    public void makeLines() {
+        StringBuilder all = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            String line = SongFiles.line(i, LINES);
+            if(i * 100 / LINES < badPercent) line = i % 2 == 0 ? line + "x" : line.substring(0, line.lastIndexOf(", "));
+            lines[i] = line;
+            all.append(line);
+        }
+
+        bytes = all.toString().getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < LINES; i++) starts[i + 1] = starts[i] + lines[i].getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    @Benchmark
+    public void split(Blackhole blackhole) {
+        for (String line : lines) blackhole.consume(app.parseLineBySplit(line));
+    }
+
+    @Benchmark
+    public void parser(Blackhole blackhole) {
+        for (String line : lines) blackhole.consume(app.parseLine(line));
+    }
+
+    @Benchmark
+    public void parserFromBytes(Blackhole blackhole) {
+        for (int i = 0; i < LINES; i++) blackhole.consume(app.parseLine(bytes, starts[i], starts[i + 1]));
+    }
+}
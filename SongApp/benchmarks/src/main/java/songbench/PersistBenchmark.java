@@ -0,0 +1,65 @@
+package songbench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**Writing the whole song list out: updateSongFile() and the library's compaction, which replaced it.
+ * updateSongFile() always writes to a file of that name in the working directory, so its output is left there until the trial ends.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PersistBenchmark {
+    @Param({"1000", "100000", "10000000"})
+    public int songCount;
+
+    private final SongApp app = SongApp.create();
+    private final Path updatePath = Paths.get("songbench-update.txt");
+    private Path songFile;
+    private List<?> songs;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        songFile = SongFiles.generate(songCount);
+        songs = app.getSongLines(songFile);
+        app.open(songFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        app.close();
+        SongFiles.delete(songFile);
+        Files.deleteIfExists(updatePath);
+    }
+
+    @Benchmark
+    public void updateSongFile() throws IOException {
+        app.updateSongFile(songs, updatePath);
+    }
+
+    @Benchmark
+    public void compact() throws IOException {
+        app.compact();
+    }
+}
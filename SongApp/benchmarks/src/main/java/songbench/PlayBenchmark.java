@@ -0,0 +1,98 @@
+package songbench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**Recording a play with the play command, which only counts it, against the old way of changing a play count: a new song in its place saved to the journal, as update does.
+ * The counted plays are merged into the songs every second in the background, and merging them is timed on its own too.
+ * A quarter of the threads' plays go to the same few songs, the way a popular song gets played on every player at once.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PlayBenchmark {
+    private static final int POPULAR_SONGS = 4;
+
+    @Param({"100000"})
+    public int songCount;
+
+    private final SongApp app = SongApp.create();
+    private final AtomicInteger nextThread = new AtomicInteger();
+    private Path songFile;
+
+    /**The songs a benchmark thread plays, going round a different run of them for each thread with every fourth play a popular song*/
+    @State(Scope.Thread)
+    public static class Plays {
+        private int first;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void pickSongs(PlayBenchmark benchmark) {
+            first = benchmark.nextThread.getAndIncrement() * 100 % benchmark.songCount;
+        }
+
+        /**Returns the next song to play*/
+        int nextSong(int songCount) {
+            next = (next + 1) % 100;
+            if(next % 4 == 0) return next / 4 % POPULAR_SONGS;
+            return (first + next) % songCount;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        songFile = SongFiles.generate(songCount);
+        app.open(songFile);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        app.close();
+        SongFiles.delete(songFile);
+    }
+
+    @Benchmark
+    public int play(Plays plays) {
+        return app.recordPlays(SongFiles.name(plays.nextSong(songCount)));
+    }
+
+    @Benchmark
+    @Threads(8)
+    public int playConcurrently(Plays plays) {
+        return play(plays);
+    }
+
+    @Benchmark
+    public void playByUpdate(Plays plays) throws IOException {
+        int song = plays.nextSong(songCount);
+        app.set(song, SongFiles.line(song, songCount));
+        app.commit();
+    }
+
+    /**Counts 100 plays then merges them, what the background merge does with a second's worth of plays from a quiet player*/
+    @Benchmark
+    public void playHundredThenMerge(Plays plays) throws IOException {
+        for (int i = 0; i < 100; i++) app.recordPlays(SongFiles.name(plays.nextSong(songCount)));
+        app.mergePlays();
+    }
+}
@@ -0,0 +1,82 @@
+package songbench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**Read-only commands against a loaded library.
+ * printSongsOverNum() prints around 1% of the songs, into a stream that throws the output away so the console isn't what gets measured.
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class QueryBenchmark {
+    private static final int NAMES = 1024; //Looked up in turn so every call isn't for the same song
+
+    @Param({"1000", "100000", "10000000"})
+    public int songCount;
+
+    private final SongApp app = SongApp.create();
+    private Path songFile;
+    private PrintStream console;
+    private List<?> songs;
+    private final String[] names = new String[NAMES];
+    private int nextName = 0;
+
+    @Setup(Level.Trial)
+    public void open() throws IOException {
+        songFile = SongFiles.generate(songCount);
+        app.open(songFile);
+        songs = app.getSongLines(songFile);
+
+        for (int i = 0; i < NAMES; i++) {
+            names[i] = SongFiles.name((int) ((long) i * songCount / NAMES));
+        }
+
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        System.setOut(console);
+        app.close();
+        SongFiles.delete(songFile);
+    }
+
+    @Benchmark
+    public int findLineByName() {
+        nextName = (nextName + 1) & (NAMES - 1);
+        return app.findLineByName(names[nextName]);
+    }
+
+    @Benchmark
+    public void printSongsOverNum() {
+        app.printSongsOverNum(SongFiles.MAX_PLAYS - SongFiles.MAX_PLAYS / 100);
+    }
+
+    @Benchmark
+    public List<?> listAssignByVal() {
+        return app.listAssignByVal(songs);
+    }
+}
@@ -0,0 +1,73 @@
+package songbench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**The parts of SongApp that the benchmarks call.
+ * All of SongApp's classes are in the default package, which can't be imported from a named package, and JMH refuses to generate benchmarks in the default package, so the benchmarks can't call Main directly.
+ * Instead they go through this interface, which SongAppBridge implements from inside the default package by calling straight through to Main. Only creating the bridge is reflective, every call after that is an ordinary interface call the JIT can inline.
+ * Songs are passed around as List<?> since Song can't be named here either.
+*/
+public interface SongApp {
+    /**Opens the song file as Main's library, the way the program does at startup*/
+    void open(Path songPath) throws IOException;
+
+    /**Closes Main's library, writing out anything left in its journal*/
+    void close() throws IOException;
+
+    /**Main.getSongLines()*/
+    List<?> getSongLines(Path path) throws IOException;
+
+    /**Main.findLineByName()*/
+    int findLineByName(String name);
+
+    /**Main.removeSong()*/
+    List<?> removeSong(String name);
+
+    /**Parses a line in the song file format and adds it to the library, as the add command does*/
+    void add(String line) throws IOException;
+
+    /**Parses a line in the song file format and puts it in place of the song at the index, as the update command does*/
+    void set(int index, String line) throws IOException;
+
+    /**Parses a song file line with String.split(), the way Main.makeSongFromInput() did before SongLineParser, returning null if it isn't a song*/
+    Object parseLineBySplit(String line);
+
+    /**Parses a song file line with a SongLineParser, returning null if it isn't a song. Not thread safe, the parser is reused*/
+    Object parseLine(CharSequence line);
+
+    /**Parses a song file line of UTF-8 bytes with a SongLineParser, returning null if it isn't a song. Not thread safe, the parser is reused*/
+    Object parseLine(byte[] bytes, int start, int end);
+
+    /**Main.recordPlays(), counts plays of a song without saving them yet*/
+    int recordPlays(String line);
+
+    /**Adds the plays counted by recordPlays() to the songs and saves them, as happens every second and before every other command*/
+    void mergePlays() throws IOException;
+
+    /**Writes the changes made since the last commit to the journal, as happens after every command that changes the songs*/
+    void commit() throws IOException;
+
+    /**Rewrites the song file from the library and empties its journal*/
+    void compact() throws IOException;
+
+    /**Main.printSongsOverNum()*/
+    void printSongsOverNum(int minPlays);
+
+    /**Main.updateSongFile(), songs must be a list returned by getSongLines()*/
+    void updateSongFile(List<?> songs, Path path) throws IOException;
+
+    /**Main.listAssignByVal()*/
+    List<?> listAssignByVal(List<?> list);
+
+    /**Creates the bridge into the default package*/
+    static SongApp create() {
+        try {
+            return (SongApp) Class.forName("SongAppBridge").getDeclaredConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("SongAppBridge is missing from the benchmark jar", e);
+        }
+    }
+}
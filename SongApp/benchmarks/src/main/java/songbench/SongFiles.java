@@ -0,0 +1,65 @@
+package songbench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+/**Generates song files for the benchmarks.
+ * Song i is always the same song, so a benchmark can work out the name or line of any song in a file without reading it.
+ * There is one artist per 20 songs and plays are spread evenly over 0 to MAX_PLAYS - 1.
+*/
+public final class SongFiles {
+    public static final int MAX_PLAYS = 1_000_000;
+    private static final int SONGS_PER_ARTIST = 20;
+
+    private SongFiles() {}
+
+    /**Returns the name of song i*/
+    public static String name(int i) {
+        return "Song number " + i;
+    }
+
+    /**Returns song i in the song file format*/
+    public static String line(int i, int songCount) {
+        int artists = Math.max(1, songCount / SONGS_PER_ARTIST);
+        return name(i) + ", Artist number " + (i % artists) + ", " + plays(i);
+    }
+
+    /**Returns the plays of song i, scattered so that plays aren't in the same order as the songs*/
+    public static int plays(int i) {
+        return (int) (i * 2_654_435_761L % MAX_PLAYS);
+    }
+
+    /**Creates a new temporary directory holding a songs.txt with songCount songs, and returns the path of the file*/
+    public static Path generate(int songCount) throws IOException {
+        Path file = Files.createTempDirectory("songbench").resolve("songs.txt");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < songCount; i++) {
+                if(i > 0) writer.write('\n'); //Song files have no return character after the last line
+                writer.write(line(i, songCount));
+            }
+        }
+        return file;
+    }
+
+    /**Deletes a file made by generate(), along with everything else the app put in its directory (journal, temporary files)*/
+    public static void delete(Path file) throws IOException {
+        Path directory = file.getParent();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(path -> {
+                try {
+                    Files.delete(path);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        Files.delete(directory);
+    }
+}
@@ -0,0 +1,201 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**Stores songs as columns of primitives rather than as one Song object per song.
+ * With a Song per song, every song costs an object header plus two String objects with their own headers and backing arrays, and every song by the same artist has its own copy of the artist (one per line of the song file). At hundreds of thousands of songs those overheads were most of the heap.
+ * Here:
+ *  - names are packed one after the other as UTF-8 in a single byte array, each slot storing an offset and a length
+ *  - artists are dictionary-encoded, each distinct artist is stored once and each slot stores its id
+ *  - plays are a plain int array
+ * Replacing or removing a song leaves its name bytes behind as garbage, the name heap is repacked once the garbage outgrows the live names.
+ * Song objects are only created when something asks for one through get().
+*/
+public class ColumnarSongStore implements SongStore {
+    private static final int EMPTY = -1; //Artist id of an empty slot
+    private static final int MIN_REPACK_BYTES = 1 << 20; //Small heaps aren't worth repacking
+
+    private int slotCount = 0;
+    private int[] nameOffsets;
+    private int[] nameLengths;
+    private int[] artistIds;
+    private int[] plays;
+
+    private byte[] nameHeap;
+    private int heapUsed = 0;
+    private int heapGarbage = 0;
+
+    //Artist dictionary, ids of artists with no songs left are reused
+    private String[] artistsById = new String[16];
+    private int[] artistSongCounts = new int[16];
+    private final Map<String, Integer> idsByArtist = new HashMap<>();
+    private int[] freeArtistIds = new int[16];
+    private int freeArtistCount = 0;
+    private int artistCount = 0;
+
+    /**Creates an empty store with room for the given number of songs*/
+    public ColumnarSongStore(int expectedSongs) {
+        int capacity = Math.max(16, expectedSongs);
+        nameOffsets = new int[capacity];
+        nameLengths = new int[capacity];
+        artistIds = new int[capacity];
+        plays = new int[capacity];
+        nameHeap = new byte[Math.max(1024, capacity * 16)]; //Roughly the length of a typical song name
+    }
+
+    /**Creates a copy of the store, with columns only as long as it has slots and a name heap only as long as the names in it*/
+    private ColumnarSongStore(ColumnarSongStore from) {
+        slotCount = from.slotCount;
+        int capacity = Math.max(16, slotCount);
+        nameOffsets = Arrays.copyOf(from.nameOffsets, capacity);
+        nameLengths = Arrays.copyOf(from.nameLengths, capacity);
+        artistIds = Arrays.copyOf(from.artistIds, capacity);
+        plays = Arrays.copyOf(from.plays, capacity);
+        nameHeap = Arrays.copyOf(from.nameHeap, Math.max(1024, from.heapUsed));
+        heapUsed = from.heapUsed;
+        heapGarbage = from.heapGarbage;
+
+        artistsById = from.artistsById.clone();
+        artistSongCounts = from.artistSongCounts.clone();
+        idsByArtist.putAll(from.idsByArtist);
+        freeArtistIds = from.freeArtistIds.clone();
+        freeArtistCount = from.freeArtistCount;
+        artistCount = from.artistCount;
+    }
+
+    @Override
+    public int slotCount() {
+        return slotCount;
+    }
+
+    @Override
+    public int append(Song song) {
+        if(slotCount == plays.length) growSlots();
+        int slot = slotCount++;
+        artistIds[slot] = EMPTY;
+        set(slot, song);
+        return slot;
+    }
+
+    @Override
+    public void set(int slot, Song song) {
+        if(artistIds[slot] != EMPTY) {
+            heapGarbage += nameLengths[slot];
+            releaseArtist(artistIds[slot]);
+            artistIds[slot] = EMPTY;
+        }
+        if(song == null) return;
+
+        byte[] name = song.getName().getBytes(StandardCharsets.UTF_8);
+        nameOffsets[slot] = appendName(name);
+        nameLengths[slot] = name.length;
+        artistIds[slot] = acquireArtist(song.getArtist());
+        plays[slot] = song.getPlays();
+
+        if(heapGarbage > MIN_REPACK_BYTES && heapGarbage > heapUsed - heapGarbage) repackNames();
+    }
+
+    @Override
+    public boolean isUsed(int slot) {
+        return artistIds[slot] != EMPTY;
+    }
+
+    @Override
+    public String getName(int slot) {
+        return new String(nameHeap, nameOffsets[slot], nameLengths[slot], StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String getArtist(int slot) {
+        return artistsById[artistIds[slot]];
+    }
+
+    @Override
+    public int getPlays(int slot) {
+        return plays[slot];
+    }
+
+    @Override
+    public Song get(int slot) {
+        if(!isUsed(slot)) return null;
+        return new Song(getName(slot), getArtist(slot), plays[slot]);
+    }
+
+    /**Copies the columns as they are, which is much quicker than going through a Song per song*/
+    @Override
+    public SongStore copy() {
+        return new ColumnarSongStore(this);
+    }
+
+    /**Returns the number of distinct artists currently stored */
+    public int getArtistCount() {
+        return idsByArtist.size();
+    }
+
+    /**Copies name bytes onto the end of the heap and returns where they start*/
+    private int appendName(byte[] name) {
+        if(heapUsed + name.length > nameHeap.length) {
+            long grown = Math.max((long) nameHeap.length * 3 / 2, (long) heapUsed + name.length);
+            if(grown > Integer.MAX_VALUE - 8) throw new IllegalStateException("Song names take up more than 2GB");
+            nameHeap = Arrays.copyOf(nameHeap, (int) grown);
+        }
+
+        System.arraycopy(name, 0, nameHeap, heapUsed, name.length);
+        heapUsed += name.length;
+        return heapUsed - name.length;
+    }
+
+    /**Rewrites the name heap with only the names of used slots, in slot order*/
+    private void repackNames() {
+        byte[] packed = new byte[Math.max(1024, (heapUsed - heapGarbage) * 3 / 2)];
+        int used = 0;
+
+        for (int slot = 0; slot < slotCount; slot++) {
+            if(artistIds[slot] == EMPTY) continue;
+            System.arraycopy(nameHeap, nameOffsets[slot], packed, used, nameLengths[slot]);
+            nameOffsets[slot] = used;
+            used += nameLengths[slot];
+        }
+
+        nameHeap = packed;
+        heapUsed = used;
+        heapGarbage = 0;
+    }
+
+    /**Returns the id of the artist, adding them to the dictionary if they're new*/
+    private int acquireArtist(String artist) {
+        Integer id = idsByArtist.get(artist);
+        if(id == null) {
+            id = freeArtistCount > 0 ? freeArtistIds[--freeArtistCount] : artistCount++;
+            if(id == artistsById.length) {
+                artistsById = Arrays.copyOf(artistsById, id * 2);
+                artistSongCounts = Arrays.copyOf(artistSongCounts, id * 2);
+            }
+            artistsById[id] = artist;
+            idsByArtist.put(artist, id);
+        }
+
+        artistSongCounts[id]++;
+        return id;
+    }
+
+    /**Drops a song's reference to an artist, removing the artist from the dictionary once they have no songs left*/
+    private void releaseArtist(int id) {
+        if(--artistSongCounts[id] > 0) return;
+
+        idsByArtist.remove(artistsById[id]);
+        artistsById[id] = null;
+        if(freeArtistCount == freeArtistIds.length) freeArtistIds = Arrays.copyOf(freeArtistIds, freeArtistCount * 2);
+        freeArtistIds[freeArtistCount++] = id;
+    }
+
+    /**Grows every column by half*/
+    private void growSlots() {
+        int capacity = plays.length + (plays.length >> 1);
+        nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+        nameLengths = Arrays.copyOf(nameLengths, capacity);
+        artistIds = Arrays.copyOf(artistIds, capacity);
+        plays = Arrays.copyOf(plays, capacity);
+    }
+}
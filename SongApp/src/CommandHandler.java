@@ -1,5 +1,3 @@
-import java.io.IOException;
-import java.nio.file.Path;
 import java.util.List;
 
 /**--Obligatory essay explaining why things are the way they are--
@@ -11,25 +9,21 @@ import java.util.List;
  * That index is used to access an element from the Command interface array, each interface has an abstract method that has been set to execute one of the commands.
  * In effect, this allows me to create an array of methods which can be called using the interface array and their index. Something which is reminiscent of what is possible in the functional programming paradigm (An example would be Kotlin, which would have made me much happier if it was the language we used for this module)
  * Unfortunately, as Java is Object-Oriented, it doesn't allow methods to be treated as first-class objects, hence the heavy-handed approach I've had to take here.
+ * The arrays and the CommandTrie built from them are made once when the program starts and shared by every command from then on, rather than being made again for every command that's entered.
+ * Searching the trie rather than the array lets a command be entered by an alias (e.g. "ls" for all_songs) or by just enough of its start to tell it apart from the others (e.g. "plays_o" for plays_over).
 */
 
 public class CommandHandler {
-    private final String[] acceptedInputs = {"all_songs", "plays_over", "add", "remove", "undo", "help", "history", "exit", "update", "debug"};
-    private final List<Song> lines;
-    private final Path historyPath;
-    private final List<String> historyLines;
-    private final Path songPath;
-    private final Path debugPath;
-
-    /**Applies values to attributes*/
-    public CommandHandler(List<Song> lines, Path historyPath, List<String> historyLines, Path songPath, Path debugPath) {
-        this.lines = lines;
-        this.historyPath = historyPath;
-        this.historyLines = historyLines;
-        this.songPath = songPath;
-        this.debugPath = debugPath;
-    }
+    private static final String[] acceptedInputs = {"all_songs", "plays_over", "add", "remove", "undo", "help", "history", "exit", "update", "debug", "find", "by_artist", "plays_between", "top", "redo", "import", "export", "convert", "complete", "search", "stats", "artist_totals", "top_artists", "plays_histogram", "plays_percentile", "check_stats", "metrics", "play"};
+
+    //Other names for commands, each alias followed by the command it stands for
+    private static final String[][] aliases = {{"ls", "all_songs"}, {"list", "all_songs"}, {"rm", "remove"}, {"delete", "remove"}, {"edit", "update"}, {"quit", "exit"}, {"?", "help"}, {"artist", "by_artist"}};
 
+    //The commands that can change the song list, which have to have the library to themselves while they run (see SongServer)
+    private static final String[] changingInputs = {"add", "remove", "undo", "update", "redo", "import"};
+
+    //The commands that don't look at the songs at all, so can run while the library is still loading at startup (see Main.awaitLibrary())
+    private static final String[] libraryFreeInputs = {"help", "history", "debug", "exit"};
     /**The Command interface serves as the first-class object vessel surrounding the abstract method which is altered with polymorphism*/
     private interface Command {
         //Empty abstract method to be overwritten
@@ -37,27 +31,93 @@ public class CommandHandler {
     }
 
     //interface array that stores the interfaces with unique method bodies
-    private final Command[] methods = {
-        new Command() { public List<Song> execute() { Main.printSongs(lines, historyLines, historyPath); return null; } }, //printSongs
-        new Command() { public List<Song> execute() { Main.playsOver(lines, historyLines, historyPath); return null; } }, //playsOver
-        new Command() { public List<Song> execute() { return Main.add(lines, historyLines, historyPath); } }, //add
-        new Command() { public List<Song> execute() { return Main.remove(lines, historyLines, historyPath); } }, //remove
-        new Command() { public List<Song> execute() { return Main.undo(historyLines, historyPath);} } , //undo
-        new Command() { public List<Song> execute() { Main.help(historyLines, historyPath); return null; } }, //help
-        new Command() { public List<Song> execute() { Main.printList(historyLines); return null; } }, //printList
+    private static final Command[] methods = {
+        new Command() { public List<Song> execute() { Main.printSongs(); return null; } }, //printSongs
+        new Command() { public List<Song> execute() { Main.playsOver(); return null; } }, //playsOver
+        new Command() { public List<Song> execute() { return Main.add(); } }, //add
+        new Command() { public List<Song> execute() { return Main.remove(); } }, //remove
+        new Command() { public List<Song> execute() { return Main.undo();} } , //undo
+        new Command() { public List<Song> execute() { Main.help(); return null; } }, //help
+        new Command() { public List<Song> execute() { Main.printList(Main.commandHistory.getLines()); return null; } }, //printList
         new Command() { public List<Song> execute() { return Main.exit(); } }, //exit
-        new Command() { public List<Song> execute() { try { return Main.update(songPath); } catch (IOException e){System.out.println(e.getMessage());} return null; } }, //update
-        new Command() { public List<Song> execute() { Main.printCompletionCodes(debugPath); return null; } }, //printCompletionCodes
+        new Command() { public List<Song> execute() { return Main.update(); } }, //update
+        new Command() { public List<Song> execute() { Main.printCompletionCodes(); return null; } }, //printCompletionCodes
+        new Command() { public List<Song> execute() { Main.find(); return null; } }, //find
+        new Command() { public List<Song> execute() { Main.byArtist(); return null; } }, //byArtist
+        new Command() { public List<Song> execute() { Main.playsBetween(); return null; } }, //playsBetween
+        new Command() { public List<Song> execute() { Main.top(); return null; } }, //top
+        new Command() { public List<Song> execute() { return Main.redo(); } }, //redo
+        new Command() { public List<Song> execute() { return Main.importSongs(); } }, //importSongs
+        new Command() { public List<Song> execute() { Main.exportSongs(); return null; } }, //exportSongs
+        new Command() { public List<Song> execute() { Main.convert(); return null; } }, //convert
+        new Command() { public List<Song> execute() { Main.complete(); return null; } }, //complete
+        new Command() { public List<Song> execute() { Main.search(); return null; } }, //search
+        new Command() { public List<Song> execute() { Main.stats(); return null; } }, //stats
+        new Command() { public List<Song> execute() { Main.artistTotals(); return null; } }, //artistTotals
+        new Command() { public List<Song> execute() { Main.topArtists(); return null; } }, //topArtists
+        new Command() { public List<Song> execute() { Main.playsHistogram(); return null; } }, //playsHistogram
+        new Command() { public List<Song> execute() { Main.playsPercentile(); return null; } }, //playsPercentile
+        new Command() { public List<Song> execute() { Main.checkStats(); return null; } }, //checkStats
+        new Command() { public List<Song> execute() { Main.metrics(); return null; } }, //metrics
+        new Command() { public List<Song> execute() { Main.play(); return null; } }, //play
     };
 
-    /**Searches through the accepted inputs to see if any match the input. Relevant method is then called from the methods array*/
-    public List<Song> handleCommand(String input) {
-        for (int i = 0; i < acceptedInputs.length; i++) {
-            if(input.equalsIgnoreCase(acceptedInputs[i])) return methods[i].execute(); //Executes relevant command if recognised
+    //Every command name and alias, pointing at the command's index in the arrays above
+    private static final CommandTrie commands = new CommandTrie();
+    static {
+        for (int i = 0; i < acceptedInputs.length; i++) commands.add(acceptedInputs[i], i);
+        for (String[] alias : aliases) commands.add(alias[0], List.of(acceptedInputs).indexOf(alias[1]));
+    }
+
+    /**Returns true if the command can change the song list, anything else only reads it*/
+    public static boolean changesSongs(String input) {
+        int command = commands.find(input); //Resolved the same way as handleCommand() does, so an alias or shortened command gets the same answer as the full name
+        if(command < 0) return false;
+        for (String changingInput : changingInputs) {
+            if(acceptedInputs[command].equals(changingInput)) return true;
+        }
+        return false;
+    }
+
+    /**Returns true if the command needs the song library, i.e. has to wait for it to load at startup. Unrecognised commands don't, they only say so*/
+    public static boolean needsLibrary(String input) {
+        int command = commands.find(input);
+        if(command < 0) return false;
+        for (String libraryFreeInput : libraryFreeInputs) {
+            if(acceptedInputs[command].equals(libraryFreeInput)) return false;
+        }
+        return true;
+    }
+
+    /**Returns true if the command is play, which only counts plays, so doesn't need them merged into the songs before it runs (see Main.mergePlaysBefore())*/
+    public static boolean recordsPlays(String input) {
+        int command = commands.find(input);
+        return command >= 0 && acceptedInputs[command].equals("play");
+    }
+
+    /**Returns every command name and alias starting with the input, ignoring case, in alphabetical order*/
+    public static List<String> completeCommand(String input) {
+        return commands.complete(input);
+    }
+
+    /**Looks the input up in the command trie. Relevant method is then called from the methods array*/
+    public static List<Song> handleCommand(String input) {
+        int command = commands.find(input);
+        if(command >= 0) { //Executes relevant command if recognised, timing it for the metrics command
+            Session session = Main.session();
+            long start = System.nanoTime();
+            long waited = session.inputWaitNanos;
+            try {
+                return methods[command].execute();
+            }
+            finally {
+                Metrics.recordCommand(acceptedInputs[command], System.nanoTime() - start - (session.inputWaitNanos - waited)); //Time spent waiting for the user to type isn't the command being slow
+            }
         }
 
         //Reached if input not accepted
-        Main.unrecognisedCommand();
+        if(command == CommandTrie.AMBIGUOUS) Main.ambiguousCommand(commands.complete(input));
+        else Main.unrecognisedCommand();
         return null;
     }
 }
\ No newline at end of file
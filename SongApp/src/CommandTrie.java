@@ -0,0 +1,76 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**Looks up commands by name, by an alias, or by any start of a name that only one command begins with (e.g. "pl_o" is not one, but "plays_o" is plays_over).
+ * Each name is stored one character at a time down a tree, ignoring case, so a lookup costs one step per character typed no matter how many commands there are.
+ * Every node also remembers which command can be reached from it, or that more than one can, so a prefix is resolved in the same walk as a whole name without looking at the names below it.
+ * The tree is built once (see CommandHandler) and only read after that, so any number of threads can use it at once.
+*/
+public class CommandTrie {
+    public static final int NOT_FOUND = -1;
+    public static final int AMBIGUOUS = -2;
+
+    private final Node root = new Node();
+
+    /**One character of a name*/
+    private static class Node {
+        final Map<Character, Node> children = new TreeMap<>(); //Sorted so completions come out in alphabetical order
+        String name; //The name ending here, if one does
+        int command = NOT_FOUND; //The command that name belongs to
+        int reachable = NOT_FOUND; //The one command every name below here belongs to, or AMBIGUOUS
+    }
+
+    /**Adds a name (a command or one of its aliases) for the command with the given index*/
+    public void add(String name, int command) {
+        Node node = root;
+        mark(node, command);
+        for (char character : name.toLowerCase().toCharArray()) {
+            node = node.children.computeIfAbsent(character, key -> new Node());
+            mark(node, command);
+        }
+        node.name = name;
+        node.command = command;
+    }
+
+    /**Returns the index of the command with the given name or alias, or that is the only command starting with the input, ignoring case.
+     * A whole name always wins over longer names it is the start of (e.g. "top" when there is also "top_artists").
+     * Returns NOT_FOUND if no name starts with the input, and AMBIGUOUS if names of more than one command do.
+    */
+    public int find(String input) {
+        if(input.isEmpty()) return NOT_FOUND;
+        Node node = walk(input);
+        if(node == null) return NOT_FOUND;
+        return node.command != NOT_FOUND ? node.command : node.reachable;
+    }
+
+    /**Returns every name (commands and aliases) starting with the input, ignoring case, in alphabetical order*/
+    public List<String> complete(String input) {
+        List<String> names = new ArrayList<>();
+        Node node = walk(input);
+        if(node != null) collect(node, names);
+        return names;
+    }
+
+    /**Returns the node reached by following the input from the root, or null if no name starts with it*/
+    private Node walk(String input) {
+        Node node = root;
+        for (int i = 0; i < input.length() && node != null; i++) {
+            node = node.children.get(Character.toLowerCase(input.charAt(i)));
+        }
+        return node;
+    }
+
+    /**Notes that the command can be reached from the node*/
+    private static void mark(Node node, int command) {
+        if(node.reachable == NOT_FOUND) node.reachable = command;
+        else if(node.reachable != command) node.reachable = AMBIGUOUS;
+    }
+
+    /**Adds every name at or below the node to the list, depth first so they stay in alphabetical order*/
+    private static void collect(Node node, List<String> names) {
+        if(node.name != null) names.add(node.name);
+        for (Node child : node.children.values()) collect(child, names);
+    }
+}
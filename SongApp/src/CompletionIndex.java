@@ -0,0 +1,238 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+/**Keeps slots sorted by a song field (name or artist), ignoring case, so the values starting with some text can be listed for completion.
+ * Like SongIndex it only stores slots and reads the values back from the song store through valueOfSlot, and like PlayCountIndex the sorted slots are split into blocks of at most MAX_BLOCK_SIZE so adding or removing a song only shifts one block.
+ * Songs with the same value (ignoring case) are kept in slot order, which gives every slot a single place in the order and lets it be found again to be removed.
+ * All the values starting with some text sit next to each other in this order, so completing costs a binary search plus one step per match.
+ * Listing from a rank finds its block in a Fenwick tree over the sizes of the blocks, as PlayCountIndex does, so a page from part way through is found in O(log n) rather than by stepping through every block before it.
+*/
+public class CompletionIndex {
+    private static final int MAX_BLOCK_SIZE = 1024; //Blocks are split in half once they reach this size
+
+    private IntFunction<String> valueOfSlot;
+    private final List<Block> blocks = new ArrayList<>();
+    private int[] blockSizes = new int[2]; //1-based Fenwick tree over the blocks' sizes, blockSizes[i] holds the slots in blocks (i - lowestBit(i), i]
+    private int sizeCapacity = 1; //Always a power of two so blockAtRank() can walk down the tree
+
+    /**A sorted run of slots*/
+    private static class Block {
+        int[] slots;
+        int size;
+
+        Block(int[] slots, int size) {
+            this.slots = slots;
+            this.size = size;
+        }
+
+        int last() {
+            return slots[size - 1];
+        }
+    }
+
+    /**A slot and its value, only used while rebuilding*/
+    private record Entry(String value, int slot) {}
+
+    /**Creates an empty index that reads the value of a slot through valueOfSlot*/
+    public CompletionIndex(IntFunction<String> valueOfSlot) {
+        this.valueOfSlot = valueOfSlot;
+    }
+
+    /**Makes the index read the value of a slot through valueOfSlot from now on, which must give the same value for every slot in the index as before, for an index built from a copy of the store (see SongStore.copy())*/
+    public void readFrom(IntFunction<String> valueOfSlot) {
+        this.valueOfSlot = valueOfSlot;
+    }
+
+    /**Replaces the contents of the index with every used slot in the store*/
+    public void rebuild(SongStore store) {
+        //Each value is read once up front, rather than on every comparison of the sort
+        List<Entry> entries = new ArrayList<>(store.slotCount());
+        for (int slot = 0; slot < store.slotCount(); slot++) {
+            if(store.isUsed(slot)) entries.add(new Entry(valueOfSlot.apply(slot), slot));
+        }
+        entries.sort(Comparator.comparing(Entry::value, String.CASE_INSENSITIVE_ORDER).thenComparingInt(Entry::slot));
+
+        //Half-full blocks leave room for inserts before the first split
+        blocks.clear();
+        int blockSize = MAX_BLOCK_SIZE / 2;
+        for (int start = 0; start < entries.size(); start += blockSize) {
+            int size = Math.min(blockSize, entries.size() - start);
+            int[] block = new int[MAX_BLOCK_SIZE];
+            for (int i = 0; i < size; i++) block[i] = entries.get(start + i).slot();
+            blocks.add(new Block(block, size));
+        }
+        rebuildSizes();
+    }
+
+    /**Adds the slot, which must already hold its song*/
+    public void add(int slot) {
+        String value = valueOfSlot.apply(slot);
+        if(blocks.isEmpty()) { //Started with the slot in it, findBlock() can't look at an empty block (and there never is one otherwise, see remove())
+            int[] first = new int[MAX_BLOCK_SIZE];
+            first[0] = slot;
+            blocks.add(new Block(first, 1));
+            rebuildSizes();
+            return;
+        }
+
+        int blockIndex = Math.min(findBlock(value, slot), blocks.size() - 1); //Slots after everything go at the end of the last block
+        Block block = blocks.get(blockIndex);
+        int position = lowerBound(block, value, slot);
+
+        System.arraycopy(block.slots, position, block.slots, position + 1, block.size - position);
+        block.slots[position] = slot;
+        block.size++;
+        changeSize(blockIndex, 1);
+
+        if(block.size == MAX_BLOCK_SIZE) split(blockIndex);
+    }
+
+    /**Removes the slot, which must still hold the song it was added with*/
+    public void remove(int slot) {
+        String value = valueOfSlot.apply(slot);
+        int blockIndex = findBlock(value, slot);
+        if(blockIndex == blocks.size()) return;
+
+        Block block = blocks.get(blockIndex);
+        int position = lowerBound(block, value, slot);
+        if(position == block.size || block.slots[position] != slot) return;
+
+        System.arraycopy(block.slots, position + 1, block.slots, position, block.size - position - 1);
+        block.size--;
+        changeSize(blockIndex, -1);
+
+        if(block.size == 0) {
+            blocks.remove(blockIndex);
+            rebuildSizes();
+        }
+    }
+
+    /**Returns up to limit distinct values starting with the prefix, ignoring case, in alphabetical order.
+     * Values that only differ in case are only listed once, with the case of the first song that has them.
+    */
+    public List<String> complete(String prefix, int limit) {
+        List<String> found = new ArrayList<>();
+
+        int firstBlock = findBlock(prefix, -1); //Slot -1 comes before every slot, so this finds the first value that is at least the prefix
+        for (int blockIndex = firstBlock; blockIndex < blocks.size(); blockIndex++) {
+            Block block = blocks.get(blockIndex);
+            int position = blockIndex == firstBlock ? lowerBound(block, prefix, -1) : 0; //Only the first block can start part way through
+
+            for (; position < block.size; position++) {
+                String value = valueOfSlot.apply(block.slots[position]);
+                if(!value.regionMatches(true, 0, prefix, 0, prefix.length())) return found; //Past the values starting with the prefix
+
+                if(!found.isEmpty() && found.get(found.size() - 1).equalsIgnoreCase(value)) continue;
+                if(found.size() == limit) return found;
+                found.add(value);
+            }
+        }
+        return found;
+    }
+
+    /**Passes the slots of up to count songs to the action in alphabetical order of the value (reversed if descending), starting from the song at the rank.
+     * The block holding the rank is found in the tree of block sizes, so starting part way through costs O(log n) rather than a step per block before it
+    */
+    public void forEachFromRank(int rank, int count, boolean descending, IntConsumer action) {
+        int total = slotsBefore(blocks.size());
+        if(rank >= total || count <= 0) return;
+
+        int first = descending ? total - 1 - rank : rank; //Counted from the start of the alphabet either way
+        int blockIndex = blockAtRank(first);
+        int position = first - slotsBefore(blockIndex);
+        if(descending) {
+            for (; blockIndex >= 0 && count > 0; blockIndex--) {
+                Block block = blocks.get(blockIndex);
+                if(position == -1) position = block.size - 1; //Every block after the first one used is used from its end
+                for (; position >= 0 && count > 0; position--, count--) action.accept(block.slots[position]);
+            }
+            return;
+        }
+        for (; blockIndex < blocks.size() && count > 0; blockIndex++, position = 0) {
+            Block block = blocks.get(blockIndex);
+            for (; position < block.size && count > 0; position++, count--) action.accept(block.slots[position]);
+        }
+    }
+
+    /**Returns the number of slots in the blocks before the block*/
+    private int slotsBefore(int blockIndex) {
+        int count = 0;
+        for (int i = blockIndex; i > 0; i -= i & -i) count += blockSizes[i];
+        return count;
+    }
+
+    /**Returns the index of the block holding the slot at the rank, which must be less than the number of slots (see PlayCountIndex.blockAtRank())*/
+    private int blockAtRank(int rank) {
+        int blockIndex = 0;
+        int remaining = rank + 1;
+        for (int step = sizeCapacity; step > 0; step >>= 1) {
+            if(blockIndex + step <= sizeCapacity && blockSizes[blockIndex + step] < remaining) {
+                blockIndex += step;
+                remaining -= blockSizes[blockIndex];
+            }
+        }
+        return blockIndex;
+    }
+
+    /**Adds delta to the size of the block in the tree of block sizes*/
+    private void changeSize(int blockIndex, int delta) {
+        for (int i = blockIndex + 1; i <= sizeCapacity; i += i & -i) blockSizes[i] += delta;
+    }
+
+    /**Builds the tree of block sizes again in O(number of blocks), for when a block is added or removed, which already shifts every later block along the list*/
+    private void rebuildSizes() {
+        sizeCapacity = 1;
+        while(sizeCapacity < blocks.size()) sizeCapacity <<= 1;
+        blockSizes = new int[sizeCapacity + 1];
+        for (int i = 1; i <= sizeCapacity; i++) {
+            if(i <= blocks.size()) blockSizes[i] += blocks.get(i - 1).size;
+            int parent = i + (i & -i);
+            if(parent <= sizeCapacity) blockSizes[parent] += blockSizes[i];
+        }
+    }
+
+    /**Returns the index of the first block whose last slot comes at or after (value, slot), or the number of blocks if there isn't one*/
+    private int findBlock(String value, int slot) {
+        int low = 0;
+        int high = blocks.size();
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(compare(blocks.get(middle).last(), value, slot) < 0) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**Returns the position of the first slot in the block that comes at or after (value, slot)*/
+    private int lowerBound(Block block, String value, int slot) {
+        int low = 0;
+        int high = block.size;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(compare(block.slots[middle], value, slot) < 0) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**Compares the slot stored in the index with (value, slot), by value ignoring case and then by slot*/
+    private int compare(int stored, String value, int slot) {
+        int order = String.CASE_INSENSITIVE_ORDER.compare(valueOfSlot.apply(stored), value);
+        return order != 0 ? order : Integer.compare(stored, slot);
+    }
+
+    /**Splits a full block into two half-full ones*/
+    private void split(int blockIndex) {
+        Block block = blocks.get(blockIndex);
+        int half = block.size / 2;
+
+        int[] upper = new int[MAX_BLOCK_SIZE];
+        System.arraycopy(block.slots, half, upper, 0, block.size - half);
+        blocks.add(blockIndex + 1, new Block(upper, block.size - half));
+        block.size = half;
+        rebuildSizes();
+    }
+}
@@ -0,0 +1,64 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**How hard the program works to make sure a saved change is still there after a crash, chosen with the songapp.durability system property (fsync, group or none).
+ * Whatever the mode, files are never rewritten in place any more: a new version is written to a temporary file next to the old one and then moved over it (see replace()), so a program killed part way through a write leaves the old file rather than a truncated one.
+ * That alone is enough when only the program stops, since the operating system still writes out whatever it was handed. What the modes decide is whether a change also has to survive the computer stopping (a power cut or a crash) before the operating system gets round to writing its cache to the disk:
+ *  fsync - every change is forced to the disk before the command that made it finishes, one force per change. The safest and the slowest, every command that changes songs waits for the disk.
+ *  group - the default. The same guarantee, but changes saved at the same time (several server clients) share one force between them instead of each waiting for its own (see SongJournal.sync()). For a single user this is the same as fsync.
+ *  none - nothing is ever forced. A power cut can lose changes from the last few seconds, but a command never waits for the disk.
+ * DurabilityBenchmark in the benchmarks measures what each mode costs.
+*/
+public enum Durability {
+    FSYNC,
+    GROUP,
+    NONE;
+
+    /**Returns the mode set by the songapp.durability system property, group if it isn't set or isn't one of the modes*/
+    public static Durability fromProperty() {
+        String mode = System.getProperty("songapp.durability", "group");
+        for (Durability durability : values()) {
+            if(durability.name().equalsIgnoreCase(mode)) return durability;
+        }
+        return GROUP;
+    }
+
+    /**Returns true if saved changes have to be forced to the disk*/
+    public boolean forcesChanges() {
+        return this != NONE;
+    }
+
+    /**Moves a completely written temporary file over the target in one step, so anyone reading the target sees either the old file or the new one.
+     * Unless the mode is none, the temporary file is forced to the disk first, and the folder afterwards so that the move itself is on the disk too.
+    */
+    public void replace(Path temp, Path target) throws IOException {
+        if(forcesChanges()) force(temp, "sync " + target.getFileName());
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if(forcesChanges()) forceFolder(target.toAbsolutePath().getParent());
+    }
+
+    /**Forces a file's contents to the disk, timed in the metrics as the given operation*/
+    private static void force(Path file, String operation) throws IOException {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Metrics.recordSync(operation, start);
+    }
+
+    /**Forces a folder's list of files to the disk, which is where a moved file's new name is kept*/
+    private static void forceFolder(Path folder) {
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)) {
+            channel.force(true);
+            Metrics.recordSync("sync folder", start);
+        }
+        catch (IOException e) {
+            //Some systems (Windows) can't open a folder like a file, and keep the move safe by themselves
+        }
+    }
+}
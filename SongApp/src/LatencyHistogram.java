@@ -0,0 +1,77 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**Counts how long something took (in nanoseconds) so that percentiles can be given without keeping every time.
+ * Works the same way as HdrHistogram: each power of two is split into SUB_BUCKETS equal buckets, so a time is always counted within about 3% of its real value, from a nanosecond up to centuries, in a fixed 15KB.
+ * Recording is a couple of atomic increments and never blocks, so any number of threads (server clients) can record at once. Reading while others record gives a result that may be a few records behind, which is fine for reporting.
+*/
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS * (64 - SUB_BUCKET_BITS); //Enough for any positive long
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**Counts one time, negative times (the clock going backwards) count as 0*/
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(nanos));
+        count.increment();
+        total.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    /**Returns the number of times recorded*/
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**Returns every time recorded added together*/
+    public long getTotalNanos() {
+        return total.sum();
+    }
+
+    /**Returns the longest time recorded, exactly rather than to the nearest bucket*/
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    /**Returns the average time recorded, 0 if none have been*/
+    public long getMeanNanos() {
+        long recorded = getCount();
+        return recorded == 0 ? 0 : getTotalNanos() / recorded;
+    }
+
+    /**Returns the time that the given percentage (0 to 100) of the recorded times are at or under, to within the bucket it falls in, 0 if none have been recorded*/
+    public long getPercentileNanos(double percent) {
+        long recorded = getCount();
+        if(recorded == 0) return 0;
+
+        long target = Math.max(1, (long) Math.ceil(percent / 100 * recorded));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if(seen >= target) return Math.min(highestIn(bucket), getMaxNanos()); //The top of the bucket, but never more than was actually recorded
+        }
+        return getMaxNanos();
+    }
+
+    /**Returns the bucket a time falls in. Times under 2 * SUB_BUCKETS get a bucket each, after that each power of two is split into SUB_BUCKETS*/
+    private static int bucketOf(long nanos) {
+        if(nanos < 2 * SUB_BUCKETS) return (int) nanos;
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS; //How far the time is shifted so it's between SUB_BUCKETS and 2 * SUB_BUCKETS - 1
+        return SUB_BUCKETS * (shift + 1) + (int) (nanos >>> shift) - SUB_BUCKETS;
+    }
+
+    /**Returns the largest time that falls in the bucket*/
+    private static long highestIn(int bucket) {
+        if(bucket < 2 * SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
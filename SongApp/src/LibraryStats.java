@@ -0,0 +1,233 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**Running totals over the whole library: how many songs and plays there are, each artist's songs and plays, and how play counts are spread out.
+ * SongLibrary updates them every time a song goes into or comes out of a slot (which covers add, remove, update, undo and redo), so every question about them is answered from the totals rather than by going through every song.
+ * The song and play totals and the histogram cost nothing to keep up, so they always are. The per-artist totals cost a map lookup per song, so like the completion and search indexes they're only worked out the first time someone asks for them (in parallel, see recompute()) and kept up to date from then on.
+ * Artists by plays (for top_artists) are kept in a sorted set once they've been asked for, so the top k is a walk along the first k.
+*/
+public class LibraryStats {
+    public static final int HISTOGRAM_BUCKETS = 33; //Bucket 0 holds songs with no plays, bucket b the songs with between 2^(b-1) and 2^b - 1 plays
+    private static final int CHUNKS_PER_CORE = 4; //Same reasoning as SongFileParser, a few chunks per core keeps every core busy until the end
+
+    private long songCount = 0;
+    private long totalPlays = 0;
+    private final long[] histogram = new long[HISTOGRAM_BUCKETS];
+
+    //Artists ignore case, the same as by_artist, and are shown with the case of the first of their songs that was counted. Null until first asked for
+    private Map<String, Totals> artists;
+    private TreeSet<Totals> artistsByPlays; //Most played first, null until first asked for
+
+    //Most plays first, then alphabetical, then by the exact name so two artists never compare as equal in the set
+    private static final Comparator<Totals> BY_PLAYS = Comparator.comparingLong((Totals totals) -> totals.plays).reversed().thenComparing((Totals totals) -> totals.key).thenComparing((Totals totals) -> totals.artist);
+
+    /**One artist's number of songs and total plays, as shown to the user*/
+    public record ArtistTotal(String artist, long songs, long plays) {}
+
+    /**One artist's running totals*/
+    private static class Totals {
+        final String artist;
+        final String key;
+        long songs;
+        long plays;
+
+        Totals(String artist, String key) {
+            this.artist = artist;
+            this.key = key;
+        }
+    }
+
+    /**Adds a song to the totals*/
+    public void add(String artist, int plays) {
+        songCount++;
+        totalPlays += plays;
+        histogram[bucketOf(plays)]++;
+        if(artists != null) changeArtist(artist, 1, plays);
+    }
+
+    /**Takes a song back out of the totals, it must have been added with the same artist and plays*/
+    public void remove(String artist, int plays) {
+        songCount--;
+        totalPlays -= plays;
+        histogram[bucketOf(plays)]--;
+        if(artists != null) changeArtist(artist, -1, -plays);
+    }
+
+    /**Empties the totals*/
+    public void clear() {
+        songCount = 0;
+        totalPlays = 0;
+        Arrays.fill(histogram, 0);
+        artists = null;
+        artistsByPlays = null;
+    }
+
+    /**Returns the number of songs*/
+    public long getSongCount() {
+        return songCount;
+    }
+
+    /**Returns the plays of every song added up*/
+    public long getTotalPlays() {
+        return totalPlays;
+    }
+
+    /**Returns how many songs are in each histogram bucket (see HISTOGRAM_BUCKETS)*/
+    public long[] getHistogram() {
+        return histogram.clone();
+    }
+
+    /**Works out the per-artist totals from the store if they haven't been yet, the store must not change until this returns*/
+    public void buildArtists(SongStore store) {
+        if(artists == null) artists = recompute(store).artists;
+    }
+
+    /**Returns true once the per-artist totals have been worked out*/
+    public boolean hasArtists() {
+        return artists != null;
+    }
+
+    /**Takes the per-artist totals from built, which were worked out from a copy of the same songs (see SongLibrary.warmUp())*/
+    public void useArtists(LibraryStats built) {
+        artists = built.artists;
+        artistsByPlays = null;
+    }
+
+    /**Returns the number of different artists, buildArtists() must have been called*/
+    public int getArtistCount() {
+        return artists.size();
+    }
+
+    /**Returns every artist's totals in alphabetical order, buildArtists() must have been called.
+     * Sorted when asked for rather than kept sorted, since listing every artist already costs a step per artist
+    */
+    public List<ArtistTotal> getArtistTotals() {
+        List<Totals> sorted = new ArrayList<>(artists.values());
+        sorted.sort(Comparator.comparing((Totals totals) -> totals.key).thenComparing(totals -> totals.artist));
+        return snapshot(sorted, sorted.size());
+    }
+
+    /**Returns the totals of the count artists with the most plays, most played first, buildArtists() must have been called*/
+    public List<ArtistTotal> getTopArtists(int count) {
+        if(artistsByPlays == null) {
+            artistsByPlays = new TreeSet<>(BY_PLAYS);
+            artistsByPlays.addAll(artists.values());
+        }
+        return snapshot(artistsByPlays, count);
+    }
+
+    /**Returns the histogram bucket a play count falls in*/
+    public static int bucketOf(int plays) {
+        return 32 - Integer.numberOfLeadingZeros(plays);
+    }
+
+    /**Works every total out from scratch from the songs in the store.
+     * The slots are split into a few chunks per core, each chunk is totalled on its own core, and the chunks' totals are added together at the end.
+     * The caller must stop the store changing until this returns.
+    */
+    public static LibraryStats recompute(SongStore store) {
+        return recompute(store, true);
+    }
+
+    /**Works the totals out like recompute(), leaving out the per-artist totals unless withArtists is true, since those take memory for every artist*/
+    public static LibraryStats recompute(SongStore store, boolean withArtists) {
+        int chunks = ForkJoinPool.commonPool().getParallelism() * CHUNKS_PER_CORE;
+        int chunkSize = Math.max(1, (store.slotCount() + chunks - 1) / chunks);
+
+        return IntStream.range(0, chunks).parallel().mapToObj(chunk -> {
+            LibraryStats stats = new LibraryStats();
+            stats.artists = withArtists ? new HashMap<>() : null;
+
+            //Totalled by the artist exactly as stored first, which skips making a lower case copy of the name for every song (the store hands back the same String for every song by an artist, so it's also quick to hash)
+            Map<String, long[]> exactArtists = new HashMap<>();
+            int end = (int) Math.min(store.slotCount(), (long) (chunk + 1) * chunkSize);
+            for (int slot = chunk * chunkSize; slot < end; slot++) {
+                if(!store.isUsed(slot)) continue;
+                int plays = store.getPlays(slot);
+                stats.songCount++;
+                stats.totalPlays += plays;
+                stats.histogram[bucketOf(plays)]++;
+                if(!withArtists) continue;
+
+                long[] totals = exactArtists.computeIfAbsent(store.getArtist(slot), artist -> new long[2]);
+                totals[0]++;
+                totals[1] += plays;
+            }
+            for (Map.Entry<String, long[]> artist : exactArtists.entrySet()) stats.changeArtist(artist.getKey(), artist.getValue()[0], artist.getValue()[1]);
+            return stats;
+        }).reduce((first, second) -> {
+            first.addAll(second);
+            return first;
+        }).orElseGet(() -> {
+            LibraryStats empty = new LibraryStats();
+            empty.artists = withArtists ? new HashMap<>() : null;
+            return empty;
+        });
+    }
+
+    /**Returns a description of every way these totals differ from the expected ones, an empty list if they're the same.
+     * The per-artist totals are only compared if they've been worked out, expected must have them (see recompute())
+    */
+    public List<String> checkAgainst(LibraryStats expected) {
+        List<String> differences = new ArrayList<>();
+        if(songCount != expected.songCount) differences.add("Songs: " + songCount + " instead of " + expected.songCount);
+        if(totalPlays != expected.totalPlays) differences.add("Total plays: " + totalPlays + " instead of " + expected.totalPlays);
+        for (int bucket = 0; bucket < HISTOGRAM_BUCKETS; bucket++) {
+            if(histogram[bucket] != expected.histogram[bucket]) differences.add("Histogram bucket " + bucket + ": " + histogram[bucket] + " instead of " + expected.histogram[bucket]);
+        }
+        if(artists == null) return differences;
+
+        for (Totals totals : expected.artists.values()) {
+            Totals actual = artists.get(totals.key);
+            if(actual == null) differences.add("Artist " + totals.artist + " is missing");
+            else if(actual.songs != totals.songs || actual.plays != totals.plays) differences.add("Artist " + totals.artist + ": " + actual.songs + " songs and " + actual.plays + " plays instead of " + totals.songs + " and " + totals.plays);
+        }
+        for (Totals totals : artists.values()) {
+            if(!expected.artists.containsKey(totals.key)) differences.add("Artist " + totals.artist + " has no songs but is still counted");
+        }
+        if(artistsByPlays != null && artistsByPlays.size() != artists.size()) differences.add("Artists by plays: " + artistsByPlays.size() + " instead of " + artists.size());
+        return differences;
+    }
+
+    /**Changes an artist's totals, dropping the artist once they have no songs left*/
+    private void changeArtist(String artist, long songs, long plays) {
+        String key = artist.toLowerCase(Locale.ROOT);
+        Totals totals = artists.get(key);
+        if(totals == null) {
+            totals = new Totals(artist, key);
+            artists.put(key, totals);
+        }
+        else if(artistsByPlays != null) artistsByPlays.remove(totals); //The set is sorted by plays, so the artist has to come out before their plays change
+
+        totals.songs += songs;
+        totals.plays += plays;
+        if(totals.songs == 0) artists.remove(key);
+        else if(artistsByPlays != null) artistsByPlays.add(totals);
+    }
+
+    /**Adds another chunk's totals to these, see recompute()*/
+    private void addAll(LibraryStats other) {
+        songCount += other.songCount;
+        totalPlays += other.totalPlays;
+        for (int bucket = 0; bucket < HISTOGRAM_BUCKETS; bucket++) histogram[bucket] += other.histogram[bucket];
+        if(other.artists != null) for (Totals totals : other.artists.values()) changeArtist(totals.artist, totals.songs, totals.plays);
+    }
+
+    /**Copies up to count of the totals into records, so what's handed out can't be changed by later songs*/
+    private static List<ArtistTotal> snapshot(Iterable<Totals> totals, int count) {
+        List<ArtistTotal> copies = new ArrayList<>();
+        for (Totals artist : totals) {
+            if(copies.size() == count) break;
+            copies.add(new ArtistTotal(artist.artist, artist.songs, artist.plays));
+        }
+        return copies;
+    }
+}
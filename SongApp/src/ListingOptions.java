@@ -0,0 +1,116 @@
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**How the songs a command lists should be shown: one page of them or all, in what order, and whether to the screen or into a file.
+ * The options can go anywhere on a command's line after the command, e.g. "all_songs --page 3 --size 50 --sort plays --desc" or "plays_over 100 --out popular.txt", and are taken out of the line before the rest is handed to the command's prompts (see Main.runCommand()).
+ * Only the listing commands (all_songs, plays_over and plays_between) look at them, see Main.printListing().
+*/
+public class ListingOptions {
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    public static final ListingOptions NONE = new ListingOptions();
+    private static final List<String> OPTIONS = List.of("--page", "--size", "--sort", "--desc", "--out");
+
+    private int page = 0; //0 means every song rather than one page
+    private int size = DEFAULT_PAGE_SIZE;
+    private String sort; //Null if not given, which is list order
+    private boolean descending = false;
+    private Path file; //Null means the session's output
+    private String remaining = ""; //The rest of the line once the options are taken out
+    private boolean given = false;
+
+    /**Takes the options out of the text following a command.
+     * Throws IllegalArgumentException, with a message fit to show the user, if an option's value is missing or isn't valid
+    */
+    public static ListingOptions parse(String text) {
+        if(!text.contains("--")) return withRemaining(text); //Nearly every line, skips splitting it up
+
+        ListingOptions options = new ListingOptions();
+        List<String> words = new ArrayList<>();
+        String[] parts = text.split(" ", -1);
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i];
+            if(!OPTIONS.contains(part)) { //Anything else, even starting with --, is left for the prompts since it could be part of a song's name
+                words.add(part);
+                continue;
+            }
+
+            options.given = true;
+            switch(part) {
+                case "--desc" -> options.descending = true;
+                case "--page" -> options.page = positive(part, value(parts, ++i, part));
+                case "--size" -> {
+                    options.size = positive(part, value(parts, ++i, part));
+                    if(options.page == 0) options.page = 1; //A size on its own means the first page of that size
+                }
+                case "--sort" -> {
+                    options.sort = value(parts, ++i, part).toLowerCase();
+                    if(!SongLibrary.SORT_ORDERS.contains(options.sort)) throw new IllegalArgumentException("songs can only be sorted by " + String.join(", ", SongLibrary.SORT_ORDERS));
+                }
+                default -> options.file = Path.of(value(parts, ++i, part)); //--out
+            }
+        }
+        options.remaining = String.join(" ", words).trim();
+        return options;
+    }
+
+    /**Returns true if any option was given*/
+    public boolean isGiven() {
+        return given;
+    }
+
+    /**Returns the page to show, counting from 1, or 0 to show every song*/
+    public int getPage() {
+        return page;
+    }
+
+    /**Returns the number of songs on a page*/
+    public int getSize() {
+        return size;
+    }
+
+    /**Returns the order to list songs in, one of SongLibrary.SORT_ORDERS, or null if none was given*/
+    public String getSort() {
+        return sort;
+    }
+
+    /**Returns true if the songs should be listed in reverse order*/
+    public boolean isDescending() {
+        return descending;
+    }
+
+    /**Returns the file to write the songs to, or null to show them*/
+    public Path getFile() {
+        return file;
+    }
+
+    /**Returns what was left of the line after the options were taken out, the answers to the command's prompts*/
+    public String getRemaining() {
+        return remaining;
+    }
+
+    /**Returns options that are all defaults, with the line left as it was*/
+    private static ListingOptions withRemaining(String text) {
+        ListingOptions options = new ListingOptions();
+        options.remaining = text;
+        return options;
+    }
+
+    /**Returns the word following an option*/
+    private static String value(String[] parts, int i, String option) {
+        if(i >= parts.length || parts[i].isEmpty() || parts[i].startsWith("--")) throw new IllegalArgumentException(option + " needs a value after it");
+        return parts[i];
+    }
+
+    /**Returns an option's value as a whole number of at least 1*/
+    private static int positive(String option, String value) {
+        try {
+            int number = Integer.parseInt(value);
+            if(number >= 1) return number;
+        }
+        catch (NumberFormatException ignored) {
+            //Reported below the same as a number that's too small
+        }
+        throw new IllegalArgumentException(option + " must be followed by a whole number of at least 1");
+    }
+}
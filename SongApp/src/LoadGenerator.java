@@ -0,0 +1,145 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**Measures how many commands a SongServer gets through with different numbers of users connected at once.
+ * Each simulated user keeps sending commands, mostly reads (find, by_artist, top, plays_over) with some adds and removes of its own songs, and waits for each response before sending the next.
+ * Run with: java LoadGenerator <port or socket path> [comma separated numbers of users, default 1,16,256] [seconds per run, default 10]
+*/
+public class LoadGenerator {
+    private static final int WRITE_PERCENT = 10;
+
+    public static void main(String[] args) throws Exception {
+        if(args.length == 0) {
+            System.out.println("Usage: java LoadGenerator <port or socket path> [users, e.g. 1,16,256] [seconds per run]");
+            return;
+        }
+
+        SocketAddress address = SongServer.parseAddress(args[0]);
+        int[] userCounts = Arrays.stream((args.length > 1 ? args[1] : "1,16,256").split(",")).mapToInt(Integer::parseInt).toArray();
+        long millis = (args.length > 2 ? Long.parseLong(args[2]) : 10) * 1000;
+
+        System.out.printf("%8s %12s %14s %10s %10s %10s%n", "users", "commands", "commands/s", "p50 ms", "p99 ms", "max ms");
+        for (int users : userCounts) run(address, users, millis);
+    }
+
+    /**Runs the given number of users against the server for the given time and prints the results*/
+    private static void run(SocketAddress address, int users, long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        List<User> running = new ArrayList<>();
+
+        for (int i = 0; i < users; i++) {
+            User user = new User(address, i, deadline);
+            running.add(user);
+            user.start();
+        }
+
+        long[] latencies = new long[0];
+        int failed = 0;
+        for (User user : running) {
+            user.join();
+            if(user.failure != null) failed++;
+
+            long[] userLatencies = Arrays.copyOf(user.latencies, user.count);
+            long[] combined = Arrays.copyOf(latencies, latencies.length + userLatencies.length);
+            System.arraycopy(userLatencies, 0, combined, latencies.length, userLatencies.length);
+            latencies = combined;
+        }
+
+        Arrays.sort(latencies);
+        double seconds = millis / 1000.0;
+        System.out.printf("%8d %12d %14.0f %10.3f %10.3f %10.3f%n", users, latencies.length, latencies.length / seconds, percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 1.0));
+        if(failed > 0) System.out.println("--Notice-- " + failed + " users lost their connection, the first reason was: " + running.stream().filter(user -> user.failure != null).findFirst().get().failure);
+    }
+
+    /**Returns the latency (in milliseconds) that the given fraction of commands finished within*/
+    private static double percentile(long[] sortedNanos, double fraction) {
+        if(sortedNanos.length == 0) return 0;
+        int index = (int) Math.ceil(fraction * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, index)] / 1_000_000.0;
+    }
+
+    /**One simulated user with its own connection*/
+    private static class User extends Thread {
+        private final SocketAddress address;
+        private final int id;
+        private final long deadline;
+
+        long[] latencies = new long[1024]; //Nanoseconds per command
+        int count = 0;
+        Exception failure;
+
+        User(SocketAddress address, int id, long deadline) {
+            this.address = address;
+            this.id = id;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int added = 0; //Songs this user has added and not yet removed, named after the user so users never remove each other's songs
+            int next = 0;
+
+            try (SocketChannel channel = SocketChannel.open(address);
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+                 Writer writer = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8)) {
+                while(System.currentTimeMillis() < deadline) {
+                    String command;
+                    if(random.nextInt(100) < WRITE_PERCENT) {
+                        //Alternates between adding songs and removing them again, so the library ends up as it started
+                        if(added == 0 || random.nextBoolean()) {
+                            command = "add Load " + id + "-" + next++ + ", Load Generator, " + random.nextInt(1_000_000);
+                            added++;
+                        }
+                        else {
+                            command = "remove Load " + id + "-" + (next - added);
+                            added--;
+                        }
+                    }
+                    else {
+                        command = switch(random.nextInt(4)) {
+                            case 0 -> "find Load " + id + "-" + random.nextInt(Math.max(1, next));
+                            case 1 -> "by_artist Queen";
+                            case 2 -> "top 10";
+                            default -> "plays_over " + (1_000_000 + random.nextInt(9_000_000));
+                        };
+                    }
+
+                    long start = System.nanoTime();
+                    writer.write(command);
+                    writer.write('\n');
+                    writer.flush();
+
+                    String line;
+                    do line = reader.readLine(); while(line != null && !line.startsWith(SongServer.DONE));
+                    if(line == null) throw new IOException("The server closed the connection");
+
+                    if(count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+                    latencies[count++] = System.nanoTime() - start;
+                }
+
+                //Tidies up the songs still left over
+                for (int i = next - added; i < next; i++) {
+                    writer.write("remove Load " + id + "-" + i + "\n");
+                    writer.flush();
+                    String line;
+                    do line = reader.readLine(); while(line != null && !line.startsWith(SongServer.DONE));
+                }
+            }
+            catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+}
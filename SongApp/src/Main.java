@@ -1,14 +1,31 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Objects;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
 
 public class Main {
     //Global Scanner variable
@@ -16,23 +33,69 @@ public class Main {
     //Global Scanner also prevents the need for repeated declaration and de-allocation or passing into numerous local contexts
     static Scanner sc = new Scanner(System.in);
 
-    //Global variable to store the previous states of the list for every time a change occurs
-    //I have elected to store the previous states internally within the program rather than in an external file so that all data of previous states are lost. This prevents users from being able to undo changes made in previous instances of the program, thereby eliminating a source of user confusion/privacy breach
+    //The console user's input, output and undo history (see Session)
+    static Session console = new Session(sc, null, false);
+
+    //The session the commands run for on each thread, which is the console unless the thread is serving a client in server mode (see SongServer)
     //Once again, as with global Scanner, the purpose of this variable being global is to reduce the quantity of arguments required to be passed into the local contexts
-    static List<List<Song>> previousStates = new ArrayList<>(0);
+    static final ThreadLocal<Session> currentSession = ThreadLocal.withInitial(() -> console);
+
+    //Global song library, loaded once at startup and kept in memory so that commands don't have to re-read the song file every time
+    //Null until it has finished loading, which happens in the background so the main menu can be shown straight away (see startLoadingLibrary()), volatile since it's set by the thread loading it
+    static volatile SongLibrary library;
+
+    //Finishes when the library has loaded (or failed to), commands that need the songs wait for it (see awaitLibrary())
+    static CompletableFuture<SongLibrary> loadingLibrary;
+
+    //Whether the main menu has been shown yet, the first time it says if the songs are still loading
+    static boolean loadingNoticeShown;
+
+    //How often someone waiting for the library to load is told it's still loading
+    static final int LOADING_NOTICE_SECONDS = 2;
+
+    //The last 10 commands and the last 100 completion codes, kept in memory and written to commandHistory.txt and debug.txt in the background rather than after every command (see RecentLog)
+    static RecentLog commandHistory;
+    static RecentLog completionCodes;
+
+    //How many song names (and how many artists) are listed at most when completing
+    static final int COMPLETION_LIMIT = 20;
+
+    //How many songs search shows, best match first
+    static final int SEARCH_LIMIT = 10;
+
+    //How many characters the longest bar of plays_histogram is
+    static final int HISTOGRAM_WIDTH = 40;
 
     public static void main(String[] args) throws IOException {
         //Shutdown hook to display a message when the program closes for any reason.
         //This means that users will be able to see a message whether they use the exit command or just close the terminal/JVM itself.
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             System.out.println("Shutting down..."); // Code to run on exit
+
+            //Writes out any changes that are still only in the journal, so the song file is up to date whenever the program isn't running
+            try {
+                if(library != null) library.close();
+            }
+            catch (IOException e) {
+                System.out.println("--Notice-- Sorry, we weren't able to save your song list, your changes will be recovered next time the program starts");
+            }
+
+            //Writes out the most recent commands and completion codes, which may not have been written yet
+            try {
+                if(commandHistory != null) commandHistory.close();
+                if(completionCodes != null) completionCodes.close();
+            }
+            catch (IOException e) {
+                System.out.println("--Notice-- Sorry, we weren't able to save your command history");
+            }
         }));
 
         //File path and file object instantiation
 
         //Stores the songs currently held by the program
-        Path songPath = Paths.get("SongList.txt");
-        File songFile = new File(songPath.getFileName().toString());
+        //Can be pointed at another file (for example one converted to the binary format with the convert command) with the songapp.songfile system property
+        Path songPath = Paths.get(System.getProperty("songapp.songfile", "SongList.txt"));
+        File songFile = songPath.toFile();
 
         //Stores the history of the inputted commands
         Path historyPath = Paths.get("commandHistory.txt");
@@ -51,23 +114,54 @@ public class Main {
         //noinspection ResultOfMethodCallIgnored
         debugFile.createNewFile(); //Ensure existence of debugFile
 
+        startLoadingLibrary(songPath); //Started before the logs are read so that it gets going as soon as possible, they're only a few lines each
+        commandHistory = new RecentLog(historyPath, 10); //Used to set how many of the most recent commands are stored at a time
+        completionCodes = new RecentLog(debugPath, 100); //Used to set how many of the most recent completion codes are stored at a time
+
+        //Lets a monitoring system collect the numbers the metrics command shows, in the Prometheus text format from http://localhost:port/metrics
+        //e.g. java -Dsongapp.metrics.port=9400 Main
+        Integer metricsPort = Integer.getInteger("songapp.metrics.port");
+        if(metricsPort != null) Metrics.serve(metricsPort);
+
+        //Serves the library to other users instead of showing the main menu, on a local port or a Unix domain socket (see SongServer)
+        //e.g. java Main --serve 5050    or    java Main --serve /tmp/songapp.sock
+        if(args.length == 2 && args[0].equals("--serve")) {
+            awaitLibrary(); //Clients aren't taken until there are songs to serve them
+            try (SongServer server = new SongServer(SongServer.parseAddress(args[1]))) {
+                server.serve();
+            }
+            return;
+        }
+
+        //Commands given when starting the program are run as a script instead of showing the main menu, either one per argument or one per line of a file after --script
+        //e.g. java Main "add Song, Artist, 12" "plays_over 100"    or    java Main --script jobs.txt
+        if(args.length > 0) {
+            awaitLibrary(); //Nobody is waiting at a prompt, so there's nothing to gain from starting the script before the songs are ready
+            boolean succeeded;
+            if(args[0].equals("--script") && args.length == 2) {
+                try (Stream<String> lines = Files.lines(Paths.get(args[1]), StandardCharsets.UTF_8)) {
+                    succeeded = runScript(lines.iterator());
+                }
+            }
+            else succeeded = runScript(Arrays.asList(args).iterator());
+
+            if(!succeeded) System.exit(1); //Lets whatever ran the script know that something in it didn't happen
+            return;
+        }
+
         //This will be used in the debug log to track types of command completions happening in the code (exits, no file change, file change etc.) for aid in development and debugging
         int completionCode;
 
         //Loops until the completion code is 0 (resulting from user exit)
         do {
-            //Read all lines from relevant files
-            
-            List<String> historyLines = Files.readAllLines(historyPath, StandardCharsets.UTF_8);
-
             //Saves completion code for debug log
             /*
              * 0 - exit
              * 1 - completed with no file change
              * 2 - completed with file change
             */
-            completionCode = takeCommand(songPath, historyPath, historyLines, debugPath);
-            updateDebugFile(completionCode, debugPath);
+            completionCode = takeCommand();
+            updateDebugFile(completionCode);
 
         } while(completionCode != 0);
     }
@@ -76,76 +170,298 @@ public class Main {
      * If command isn't recognised, it informs the user.
      * Integer return value represents the completion code
     */
-    public static int takeCommand(Path songPath, Path historyPath, List<String> historyLines, Path debugPath) throws IOException {
-        List<Song> lines = getSongLines(songPath);
+    public static int takeCommand() throws IOException {
         //User messages
-        System.out.println();
-        System.out.println("Main Menu");
-        System.out.println("Type \"help\" for command list");
-        System.out.print(">> "); //Shows the user where to type, aesthetic choice
-        String input = sc.nextLine().toLowerCase();
+        out().println();
+        out().println("Main Menu");
+        out().println("Type \"help\" for command list");
+        if(!loadingNoticeShown && !loadingLibrary.isDone()) out().println("--Notice-- Your songs are still being loaded, commands that need them will wait until they're ready");
+        loadingNoticeShown = true; //Only said at the first prompt, after that awaitLibrary() says it for whichever command waits
+        out().print(">> "); //Shows the user where to type, aesthetic choice
+        Metrics.recordStartup("first prompt");
+        String input = readConsoleLine(true);
+
+        //help, history, debug and exit don't need the songs, so they're answered straight away even while the library is still loading
+        boolean needsLibrary = CommandHandler.needsLibrary(input.trim().split(" ", 2)[0]);
+        if(needsLibrary) {
+            awaitLibrary();
+
+            //Picks up changes made by other copies of the program or by hand while the user was at the menu, only re-reading the whole song file if it has been changed by hand, in which case the recorded changes no longer line up with the songs
+            if(library.refreshIfChanged()) session().undoHistory.clear();
+            mergePlaysBefore(input); //After catching up, since plays aren't merged into a song file that needs loading again
+        }
 
-        //Saves the state of the file before the command is executed
-        int tempPrevStateLen = previousStates.size();
-        List<Song> prevState = listAssignByVal(lines);
+        int completionCode = runCommand(input);
+        if(completionCode == 2) saveChanges(); //Apply changes to file
+        if(needsLibrary) Metrics.recordStartup("first query answered");
+        return completionCode;
+    }
 
-        //CommandHandler object taking input and directing the call to the right method and returning the state of the song list after command execution
-        List<Song> newLines = (new CommandHandler(lines, historyPath, historyLines, songPath, debugPath).handleCommand(input));
+    /**Starts loading the library from the song file on a background thread, so that the main menu can be shown (and help, history and debug used) while a large song file is read, rather than after.
+     * Once the songs are loaded, the same thread builds the indexes that are otherwise only built the first time they're needed (see SongLibrary.warmUp()), so the first completion, search or artist_totals doesn't have to.
+     * That can be turned off with -Dsongapp.warmup=false, for when the memory they take matters more than how quickly they first answer.
+     * The thread is a daemon, so exiting while the songs are still loading doesn't wait for them, there's nothing to save yet
+    */
+    public static void startLoadingLibrary(Path songPath) {
+        loadingLibrary = new CompletableFuture<>();
+        Thread loader = new Thread(() -> {
+            SongLibrary loaded;
+            try {
+                loaded = new SongLibrary(songPath);
+            }
+            catch (Throwable e) { //Even an OutOfMemoryError is handed on, or whoever is waiting would wait forever
+                loadingLibrary.completeExceptionally(e);
+                return;
+            }
+            Metrics.recordStartup("songs loaded");
+            library = loaded;
+            loadingLibrary.complete(loaded);
+
+            if(loaded.isPaged() || !Boolean.parseBoolean(System.getProperty("songapp.warmup", "true"))) return; //Songs kept on disk have no indexes to build
+            loaded.warmUp();
+            Metrics.recordStartup("indexes built");
+        }, "library-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**Waits for the library to finish loading (see startLoadingLibrary()), telling the user every couple of seconds that it's still going so a large song file doesn't look like the program has frozen.
+     * If loading failed, throws what it threw, as loading it in main() used to
+    */
+    public static SongLibrary awaitLibrary() throws IOException {
+        if(library != null || loadingLibrary == null) return library; //Already loaded, or set by whoever is using the program without main()
+
+        long start = System.nanoTime();
+        while(true) {
+            try {
+                return loadingLibrary.get(LOADING_NOTICE_SECONDS, TimeUnit.SECONDS);
+            }
+            catch (TimeoutException e) {
+                out().println("--Notice-- Still loading your songs (" + TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) + " seconds so far), your command will run as soon as they're ready");
+                out().flush();
+            }
+            catch (ExecutionException e) {
+                if(e.getCause() instanceof IOException cause) throw cause;
+                if(e.getCause() instanceof RuntimeException cause) throw cause;
+                if(e.getCause() instanceof Error cause) throw cause;
+                throw new IOException(e.getCause());
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the songs to load");
+            }
+        }
+    }
+
+    /**Adds the plays recorded since the last command to the songs before a command runs, so that it sees them (see SongLibrary.mergePlays()).
+     * Skipped for play itself, so a player sending one play after another only ever counts them and never waits for a merge
+    */
+    public static void mergePlaysBefore(String line) throws IOException {
+        String command = line.trim().split(" ", 2)[0];
+        if(!CommandHandler.recordsPlays(command)) library.mergePlays();
+    }
+
+    /**Runs a single command line, which is either just a command or a command followed by the answers to its prompts, e.g. "add Song, Artist, 12".
+     * When a command asks more than one question, the answers are separated by " | ", e.g. "update Old Name | New Name, Artist, 12".
+     * Any changes are recorded so they can be undone, but it's up to the caller to flush them to the song file, which lets a script flush once for all its commands.
+     * Integer return value represents the completion code
+    */
+    public static int runCommand(String line) {
+        //Splitting off the answers, the command itself is the first word
+        String trimmed = line.trim();
+        int space = trimmed.indexOf(' ');
+        String command = space == -1 ? trimmed : trimmed.substring(0, space);
+
+        //Taking out any listing options (e.g. "--page 2") before the rest is split into answers
+        if(space != -1) {
+            ListingOptions options;
+            try {
+                options = ListingOptions.parse(trimmed.substring(space + 1).trim());
+            }
+            catch (IllegalArgumentException e) {
+                out().println("Sorry, " + e.getMessage());
+                session().cancelled = true;
+                return 1;
+            }
+            session().listing = options;
+            if(!options.getRemaining().isEmpty()) session().pendingAnswers.addAll(Arrays.asList(options.getRemaining().split(" \\| ", -1)));
+        }
+
+        //CommandHandler taking input and directing the call to the right method and returning the state of the song list after command execution
+        List<Song> newLines;
+        try {
+            newLines = CommandHandler.handleCommand(command);
+            if(session().listing.isGiven()) out().println("--Notice-- --page, --size, --sort, --desc and --out only apply to all_songs, plays_over and plays_between, so were ignored");
+        }
+        finally {
+            session().pendingAnswers.clear(); //Answers the command didn't ask for are ignored rather than answering the next command
+            session().listing = ListingOptions.NONE; //Same for options
+        }
 
         if(newLines == null) return 1; //A return value of null means that no changes have been made and the file does not need to be updated
         if(newLines.size() == 1 && newLines.get(0).getPlays() == -1) return 0; //User has entered the exit command and the program will close
-        
-        //Update previous states if a change has happened
-        if(previousStates.size() == tempPrevStateLen && newLines != prevState) updatePreviousStates(prevState);
-        
-        //Apply changes to file
-        updateSongFile(newLines, songPath);
+
+        //Record the changes so they can be undone (undo and redo themselves record nothing)
+        if(!session().undoHistory.record(library.takeChange())) out().println("--Notice-- Sorry, that change was too large to keep in memory, so it can't be undone, and neither can anything before it (see songapp.undo.budget)");
         return 2; //Completed with file update
     }
 
+    /**Writes the changes made by the session's commands to the song file.
+     * If another copy of the program using the same song file saved changes first, ours were made against a list that no longer exists, so they're dropped and the list loaded again with theirs (see SongLibrary.flush()), and the user is asked to make them again
+    */
+    public static void saveChanges() throws IOException {
+        if(library.flush()) return;
+
+        session().undoHistory.clear(); //The changes being undone were never saved
+        out().println("--Notice-- Sorry, the song list was changed by another copy of the program before your changes could be saved, so they have not been saved. The list now has their changes, please make yours again");
+    }
+
+    /**Runs every command from a script without showing the main menu, then writes all their changes to the song file at once.
+     * Blank lines and lines starting with # are skipped. Any prompt that isn't answered on the command's line cancels that command, and the script carries on with the next one.
+     * Output is buffered rather than written to the console line by line, since nobody is watching it as it happens.
+     * Returns false if any command was cancelled or not recognised
+    */
+    public static boolean runScript(Iterator<String> commands) throws IOException {
+        Session session = session();
+        PrintStream output = session.out;
+        session.out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false, StandardCharsets.UTF_8);
+        session.scripted = true;
+
+        int lineNumber = 0;
+        int failures = 0;
+        boolean changed = false;
+        int completionCode = 1;
+
+        try {
+            while(commands.hasNext() && completionCode != 0) {
+                String command = commands.next();
+                lineNumber++;
+                if(command.isBlank() || command.trim().startsWith("#")) continue;
+
+                out().println(">> " + command); //Shows which command the output that follows belongs to
+                session.cancelled = false;
+                mergePlaysBefore(command);
+                completionCode = runCommand(command);
+                updateDebugFile(completionCode);
+
+                if(completionCode == 2) changed = true;
+                if(session.cancelled) {
+                    failures++;
+                    out().println("--Notice-- Command " + lineNumber + " was not completed");
+                }
+            }
+
+            if(changed) saveChanges(); //The one write for the whole script
+            out().println();
+            out().println("Script finished, " + lineNumber + " lines read" + (failures > 0 ? ", " + failures + " commands not completed" : ""));
+        }
+        finally {
+            session.scripted = false;
+            session.out().flush();
+            session.out = output;
+        }
+        return failures == 0;
+    }
+
+    /**Reads the answer to a prompt.
+     * Answers given on the command's line are used first, then the Scanner, unless a script is running, in which case "back" is returned so the command is cancelled rather than waiting for input nobody will type.
+    */
+    public static String readInput() {
+        Session session = session();
+        if(!session.pendingAnswers.isEmpty()) {
+            String answer = session.pendingAnswers.poll();
+            if(session.scripted) session.out().println(answer); //Echoes the answer after the prompt, as if it had been typed
+            return answer;
+        }
+        if(session.scripted) {
+            session.cancelled = true;
+            session.out().println("back");
+            return "back";
+        }
+        return readConsoleLine(false);
+    }
+
+    /**Reads a line typed at the console, first listing completions for as long as the user ends what they've typed with a tab and presses enter.
+     * The terminal only hands the program a line once enter is pressed, so the tab can't be answered as it is typed, instead the completions are listed and the user is asked again.
+     * At the main menu (atMenu) the first word is completed from the command names, anything else from the song names and artists in the library.
+    */
+    public static String readConsoleLine(boolean atMenu) {
+        String line = nextConsoleLine();
+        while(line.endsWith("\t")) {
+            String typed = line.strip();
+            int space = typed.indexOf(' ');
+            if(atMenu && space == -1) printList(CommandHandler.completeCommand(typed));
+            else {
+                //Only the part being typed is completed, which is whatever comes after the command, the last " | " or the last ", " (the artist in "add Song, Art")
+                int answerStart = Math.max(atMenu ? space + 1 : 0, Math.max(typed.lastIndexOf(" | ") + 3, typed.lastIndexOf(", ") + 2));
+                printNameCompletions(typed.substring(answerStart).strip());
+            }
+            out().print(">> ");
+            line = nextConsoleLine();
+        }
+        return line;
+    }
+
+    /**Waits for the next line typed at the console, keeping track of how long was spent waiting so it isn't counted as time the command took (see Metrics)*/
+    private static String nextConsoleLine() {
+        long start = System.nanoTime();
+        try {
+            return session().input.nextLine();
+        }
+        finally {
+            session().inputWaitNanos += System.nanoTime() - start;
+        }
+    }
+
+    /**Returns the session that commands on this thread are running for*/
+    public static Session session() {
+        return currentSession.get();
+    }
+
+    /**Returns where command output should go, the console or a client of the server*/
+    public static PrintStream out() {
+        return session().out();
+    }
+
     /**Allows user to update details of songs that are already stored
      * Asks for song's current name and will loop until valid input or user backing out
      * Then asks for new details, loop until valid input or user backing out
      * Applies and returns values
     */
-    public static List<Song> update(Path path) throws IOException{
-        //Reading lines from the file
-        List<Song> lines = getSongLines(path);
-
+    public static List<Song> update() {
         //Defined before loop to avoid repeated instantiation
         String line;
         int index;
 
         do { //Loops until valid input
-            System.out.println("Enter the current name of the song that you wish to update");
-            System.out.println("Type \"back\" to return to the main menu");
-            System.out.print(">> ");
-            line = sc.nextLine();
+            out().println("Enter the current name of the song that you wish to update");
+            out().println("Type \"back\" to return to the main menu");
+            out().print(">> ");
+            line = readInput();
 
             if(line.equalsIgnoreCase("back")) return null; //Null value is returned and read, informing the program to not make any changes and to take a new command
 
             //Finds the line in SongList
-            index = findLineByName(lines, line);
-            if(index == -1) System.out.println("Song not found");
+            index = findLineByName(line);
+            if(index == -1) out().println("Song not found");
 
         } while(index == -1);
 
-        System.out.println("Song found!");
-        return getUpdateInput(lines, index);
+        out().println("Song found!");
+        return getUpdateInput(index);
     }
 
-    /**Used as part of update method to find the index*/
-    public static int findLineByName(List<Song> lines, String line) {
-        for (int i = 0; i < lines.size(); i++) {
-            if(Objects.equals(lines.get(i).getName(), line))  return i;
-        }
-
-        //Returns -1 if index not found
-        return -1;
+    /**Used as part of update method to find the index
+     * Looks the name up in the library's name index rather than looping through every song
+     * The name can differ in case, the same as for remove and find
+     * Returns -1 if index not found
+    */
+    public static int findLineByName(String line) {
+        return library.indexOf(line, true);
     }
 
     /**Handles the input validation for entering the song details for updating */
-    public static List<Song> getUpdateInput(List<Song> lines, int index) {
+    public static List<Song> getUpdateInput(int index) {
         boolean validInput; //Flag marking validation status
         String song; // input
         Song songSong = new Song("", "", 0);
@@ -154,11 +470,11 @@ public class Main {
             validInput = true;
 
             //User messages
-            System.out.println("Enter the new details for the song in following format: name, artist, plays");
-            System.out.println("Type \"back\" to return to the main menu");
-            System.out.print(">> ");
+            out().println("Enter the new details for the song in following format: name, artist, plays");
+            out().println("Type \"back\" to return to the main menu");
+            out().print(">> ");
             
-            song = sc.nextLine();
+            song = readInput();
 
             if(song.equalsIgnoreCase("back")) return null; //Null value is returned and read, informing the program to not make any changes and to take a new command
 
@@ -170,87 +486,215 @@ public class Main {
             catch (IOException e) {
                 //Executes if the format doesn't match the expected format
                 validInput = false;
-                System.out.println("Sorry, it appears you have entered the details in the incorrect format. Please ensure that you have written it as shown in the example format");
+                out().println("Sorry, it appears you have entered the details in the incorrect format. Please ensure that you have written it as shown in the example format");
             }
             catch (NumberFormatException e) {
                 //Executes if the user doesn't give a valid value for the play count
                 validInput = false;
-                System.out.println("Sorry, it appears you have entered an invalid number for the play count. Please ensure you enter a positive whole number");
+                out().println("Sorry, it appears you have entered an invalid number for the play count. Please ensure you enter a positive whole number");
             }
         } while(!validInput);
 
         //Applying and returning values
-        lines.set(index, songSong);
-        return lines;
+        library.set(index, songSong);
+        return library.getSongs();
     }
 
     /**Shows and describes all accepted commands to the user */
-    public static void help(List<String> historyLines, Path historyPath) {
-        System.out.println("all_songs - This command will show you all the songs you have currently stored");
-        System.out.println("plays_over - This command allows you to narrow down your list of songs to only those that have at least a certain number of plays");
-        System.out.println("add - This command allows you to add new songs into your stored list of songs. After entering this command, you will be asked for the details of the song");
-        System.out.println("remove - This command allows you to remove songs from your stored list of songs. After entering this command, you will be asked for the name of the song");
-        System.out.println("history - This command will show you the last 10 commands that have been entered (Oldest to newest)");
-        System.out.println("undo - This command will allow you to undo changes you have made to the song file, please not that you cannot undo changes from previous instances of the application");
-        System.out.println("update - This command will allow you to update the details of songs already stored in the application");
+    public static void help() {
+        out().println("all_songs - This command will show you all the songs you have currently stored");
+        out().println("plays_over - This command allows you to narrow down your list of songs to only those that have at least a certain number of plays");
+        out().println("plays_between - This command will show you the songs with a play count between two numbers (inclusive), least played first");
+        out().println("top - This command will show you a chosen number of your most played songs, most played first");
+        out().println("add - This command allows you to add new songs into your stored list of songs. After entering this command, you will be asked for the details of the song");
+        out().println("remove - This command allows you to remove songs from your stored list of songs. After entering this command, you will be asked for the name of the song");
+        out().println("history - This command will show you the last 10 commands that have been entered (Oldest to newest)");
+        out().println("undo - This command will allow you to undo changes you have made to the song file, please not that you cannot undo changes from previous instances of the application");
+        out().println("import - This command allows you to add every song from a file, written one per line in the format: name, artist, plays. The whole import can be undone in one go");
+        out().println("export - This command will save all your stored songs to a file of your choice, in the same format used by import");
+        out().println("convert - This command will convert a song file between the text format and the compact binary format, whichever it isn't already in");
+        out().println("redo - This command will allow you to redo changes you have undone, as long as you haven't made a new change since");
+        out().println("update - This command will allow you to update the details of songs already stored in the application");
+        out().println("find - This command will show you the details of every stored song with a given name");
+        out().println("by_artist - This command will show you every stored song by a given artist");
+        out().println("stats - This command will show you how many songs, artists and plays you have stored, along with the average, fewest, median and most plays of a song");
+        out().println("artist_totals - This command will show you every artist with how many songs and plays they have between them, in alphabetical order");
+        out().println("top_artists - This command will show you a chosen number of the artists with the most plays over all their songs, most played first");
+        out().println("plays_histogram - This command will show you how many songs have each range of play counts");
+        out().println("plays_percentile - This command will show you the play count that a chosen percentage of your songs are at or under");
+        out().println("check_stats - This command will count every total again from scratch to check the ones the other commands show are correct");
+        out().println("metrics - This command will show you how long each command and file operation has taken since the program started, along with how much has been read and written, how much memory undo is using and how long the program took to start up");
+        out().println("search - This command will show you the 10 songs that best match some words from their name or artist, in any order, even if they're slightly misspelt");
+        out().println("play - This command will add a play to a song, or several if you follow the name with how many, e.g. \"play Bohemian Rhapsody 3\". It's quick enough for a music player to send every play as it happens, and can't be undone");
+        out().println("complete - This command will show you every command, song name and artist starting with what you enter. At the console you can also end what you've typed with a tab before pressing enter to see the same list");
+        out().println();
+        out().println("Instead of waiting to be asked, you can give a command's details on the same line, e.g. \"plays_over 100\" or \"add Song, Artist, 12\"");
+        out().println("A name or artist containing \", \" can be written in double quotes, e.g. \"add \"Hello, Goodbye\", The Beatles, 12\", with any double quote inside written twice");
+        out().println("If a command asks more than one question, separate the answers with \" | \", e.g. \"update Old Name | New Name, Artist, 12\"");
+        out().println("Commands can also be run without the menu by starting the program with them, e.g. java Main \"plays_over 100\", or with one per line in a file, e.g. java Main --script commands.txt");
+        out().println("all_songs, plays_over and plays_between can show one page at a time with --page and --size (50 songs a page if no size is given) or write every song into a file with --out, e.g. \"all_songs --page 3 --size 50\" or \"plays_over 100 --out popular.txt\"");
+        out().println("all_songs can also be sorted with --sort list, name, artist or plays, and reversed with --desc, e.g. \"all_songs --sort plays --desc --page 1\"");
+        out().println("Commands can be shortened to any start that only one command has, e.g. \"plays_o\" for plays_over, and some have shorter names too: ls or list (all_songs), rm or delete (remove), edit (update), artist (by_artist), quit (exit) and ? (help)");
+        out().println("To share your songs with other users on this computer, start the program with --serve and a port number, e.g. java Main --serve 5050, they can then send these same one line commands to that port");
+
+        updateHistoryFile("help");
+    }
 
-        updateHistoryFile("help", historyLines, historyPath);
+    /**Lists song names and artists starting with some text, ignoring case, up to COMPLETION_LIMIT of each*/
+    public static void printNameCompletions(String text) {
+        if(library == null) { //Only reachable from the main menu, every command that reads names waits for the library first
+            out().println("--Notice-- Song names and artists can be completed once your songs have loaded");
+            return;
+        }
+        List<String> names = library.completeNames(text, COMPLETION_LIMIT);
+        List<String> artists = library.completeArtists(text, COMPLETION_LIMIT);
+        if(names.isEmpty() && artists.isEmpty()) out().println("Nothing stored starts with \"" + text + "\"");
+        for (String name : names) out().println(name + " (song)");
+        for (String artist : artists) out().println(artist + " (artist)");
+    }
+
+    /**Lists the commands, song names and artists that start with what the user enters*/
+    public static void complete() {
+        out().println("Enter the start of a command, song name or artist");
+        out().println("Type \"back\" to return to the main menu");
+        out().print(">> ");
+
+        String text = readInput();
+        if(text.equalsIgnoreCase("back")) return; //This ends the procedure early and returns to the main menu
+
+        for (String command : CommandHandler.completeCommand(text)) out().println(command + " (command)");
+        printNameCompletions(text);
+
+        updateHistoryFile("complete " + text);
+    }
+
+    /**Executes if the user enters the start of more than one command*/
+    public static void ambiguousCommand(List<String> candidates) {
+        session().cancelled = true; //Counts as a command that wasn't completed, the same as an unrecognised one
+        out().println("Sorry, more than one command starts with that: " + String.join(", ", candidates) + ". Please type a little more of the one you meant");
     }
 
     /**Executes if the user enters an unrecognised command */
     public static void unrecognisedCommand() {
-        System.out.println("Sorry, I didn't recognise that command. Please ensure that everything is spelled as shown in the \"help\" menu");
+        session().cancelled = true; //Only read when running a script, where it counts as a command that wasn't completed
+        out().println("Sorry, I didn't recognise that command. Please ensure that everything is spelled as shown in the \"help\" menu");
     }
 
     /**Reads all lines from the file and saves them to a Song list to be returned.
      * If input file is empty, an empty song list is returned.
+     * The lines are parsed in parallel (see SongFileParser), and the list can't grow or shrink.
     */
     public static List<Song> getSongLines(Path path) throws IOException{
-        //Reading all the files lines into a list
-        List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
-        List<Song> songList = new ArrayList<>();
-
-        for (String line : lines) {
-            //Formatting file lines into a Song list
-            songList.add(makeSongFromInput(line));
-        }
-
-        return songList;
+        long start = System.nanoTime();
+        byte[] bytes = Files.readAllBytes(path);
+        List<Song> songs = SongFileParser.parse(bytes);
+        Metrics.recordRead("read song file", bytes.length, start);
+        return songs;
     }
 
-    /**Prints all the currently stored songs.
+    /**Prints all the currently stored songs, or the page of them asked for with --page and --size, in the order asked for with --sort and --desc, or writes them into a file with --out (see ListingOptions).
      * If no songs stored, prints message and returns.
      */
-    public static void printSongs(List<Song> lines, List<String> historyLines, Path historyPath) {
+    public static void printSongs() {
+        ListingOptions options = takeListingOptions();
+
         //Checks if no songs stored and returns if empty
-        if(lines.isEmpty()) {
-            System.out.println("No songs currently stored");
+        if(library.size() == 0) {
+            out().println("No songs currently stored");
             return;
         }
 
-        //Otherwise prints them all
-        for (Song song : lines) {
-            System.out.println(song.getName());
-        }
-        updateHistoryFile("all_songs", historyLines, historyPath);
+        //Otherwise prints them, reading only what's shown from the library rather than creating every Song. Names alone in list or name order, with whatever they're sorted by otherwise
+        String order = options.getSort() == null ? "list" : options.getSort();
+        LineFormat format = switch(order) {
+            case "artist" -> (name, artist, plays) -> name + " by " + artist;
+            case "plays" -> (name, artist, plays) -> name + ": " + plays;
+            default -> (name, artist, plays) -> name;
+        };
+        printListing(options, library.size(), format, (from, count, visitor) -> library.forEachSong(order, options.isDescending(), from, count, visitor));
+        updateHistoryFile("all_songs");
     }
 
-    /**Loops over songs and prints if above plays threshold.
+    /**Prints songs above plays threshold, in ascending order of plays (list order if the songs are kept on disk), or the page of them asked for or into a file (see ListingOptions).
+     * Uses the library's play count index so only the matching songs are visited, unless the songs are kept on disk, where every song is looked at once.
      * Otherwise, displays message to user.
      */
-    public static void printSongsOverNum(List<Song> lines, int minPlays) {
-        boolean hasSongsOverMin = false; //Used to know whether if any applicable songs exist
+    public static void printSongsOverNum(int minPlays) {
+        int min = minPlays == Integer.MAX_VALUE ? 1 : minPlays + 1; //Nothing can be over the largest possible play count, so that's an empty range
+        int max = minPlays == Integer.MAX_VALUE ? 0 : Integer.MAX_VALUE;
+        printPlaysBetween(min, max, "Sorry, there are no songs stored above your desired minimum plays");
+    }
+
+    /**Prints the name and play count of each song with between min and max plays, least played first, or the page of them asked for or into a file (see ListingOptions).
+     * Prints the message instead if there aren't any.
+     */
+    public static void printPlaysBetween(int min, int max, String noneMessage) {
+        ListingOptions options = takeListingOptions();
+        if(options.getSort() != null || options.isDescending()) out().println("--Notice-- --sort and --desc only apply to all_songs, these songs are always listed " + (library.isPaged() ? "in list order" : "least played first"));
 
-        for (Song song: lines) {
-            //Iterates through and checks if song has sufficient plays
-            if(song.getPlays() > minPlays) {
-                System.out.println(song.getName() + ": " + song.getPlays());
-                hasSongsOverMin = true;
-            }
+        int total = library.countPlaysBetween(min, max);
+        if(total == 0) {
+            out().println(noneMessage);
+            return;
+        }
+        printListing(options, total, (name, artist, plays) -> name + ": " + plays, (from, count, visitor) -> library.forEachPlaysBetween(min, max, from, count, visitor));
+    }
+
+    /**Prints the name and play count of each song*/
+    public static void printPlayCounts(List<Song> songs) {
+        for (Song song : songs) {
+            out().println(song.getName() + ": " + song.getPlays());
         }
+    }
+
+    /**Hands up to count songs of a listing to the visitor, starting from the from'th (counting from 0), see printListing()*/
+    public interface Listing {
+        void list(int from, int count, SongLibrary.SongVisitor visitor);
+    }
 
-        //Message for user if no matches
-        if(!hasSongsOverMin) System.out.println("Sorry, there are no songs stored above your desired minimum plays");
+    /**Turns a song into the line a listing shows for it*/
+    public interface LineFormat {
+        String format(String name, String artist, int plays);
+    }
+
+    /**Writes out the page of a listing of total songs asked for in the options, or all of them, to the session's output or to a file.
+     * The lines are collected in an OutputSink and written a large chunk at a time rather than one println per song, so printing a million songs isn't a million writes (and, on the console, a million flushes).
+     * A line saying which page was shown, or how many songs went into the file, is printed once they're all written.
+     */
+    public static void printListing(ListingOptions options, int total, LineFormat format, Listing listing) {
+        int pages = (int) (((long) total + options.getSize() - 1) / options.getSize());
+        if(options.getPage() > pages) {
+            out().println("Sorry, there " + (pages == 1 ? "is only 1 page" : "are only " + pages + " pages") + " of " + options.getSize() + " songs");
+            return;
+        }
+        int from = options.getPage() == 0 ? 0 : (options.getPage() - 1) * options.getSize();
+        int count = options.getPage() == 0 ? total : Math.min(options.getSize(), total - from);
+
+        try (OutputSink sink = options.getFile() == null ? OutputSink.to(out()) : OutputSink.toFile(options.getFile())) {
+            listing.list(from, count, (name, artist, plays) -> {
+                try {
+                    sink.println(format.format(name, artist, plays));
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e); //Visitors can't throw IOException, it's reported below
+                }
+            });
+            sink.flush();
+            if(sink.isFile()) out().println(sink.getLinesWritten() + (sink.getLinesWritten() == 1 ? " song" : " songs") + " written to " + options.getFile());
+        }
+        catch (IOException | UncheckedIOException e) {
+            out().println("Sorry, the songs could not be written" + (options.getFile() == null ? "" : " to " + options.getFile()) + ": " + e.getMessage());
+            return;
+        }
+
+        if(options.getPage() > 0) out().println("--Page " + options.getPage() + " of " + pages + ", songs " + (from + 1) + " to " + (from + count) + " of " + total + "--");
+    }
+
+    /**Returns the listing options given on the command's line, marking them as used (see runCommand())*/
+    public static ListingOptions takeListingOptions() {
+        ListingOptions options = session().listing;
+        session().listing = ListingOptions.NONE;
+        return options;
     }
 
     /**Saves lines back to specified file*/
@@ -259,71 +703,120 @@ public class Main {
 
         //Loops through lines and formats them to be saved to file
         for (Song song : lines) {
-            String line = song.getName() + ", " + song.getArtist() + ", " + song.getPlays();
-            stringLines.add(line);
+            stringLines.add(songToLine(song));
         }
 
         writeLinesToFile(stringLines, path);
     }
 
-    /**Takes a list of strings and writes them to the file at the specified path*/
+    /**Formats a song the way it is stored in the song file*/
+    public static String songToLine(Song song) {
+        return songToLine(song.getName(), song.getArtist(), song.getPlays());
+    }
+
+    /**Formats a song's details the way they are stored in the song file, for callers reading fields through a SongCursor.
+     * A name or artist containing ", " is put in quotes so the line reads back as the same song (see SongLineParser)
+    */
+    public static String songToLine(String name, String artist, int plays) {
+        return SongLineParser.format(name, artist, plays);
+    }
+
+    /**Writes songs in the song file format through a writer, without a return character after the last line*/
+    public static void writeSongs(Iterable<Song> songs, Writer writer) throws IOException {
+        boolean first = true;
+        for (Song song : songs) {
+            if(!first) writer.write('\n');
+            writer.write(songToLine(song));
+            first = false;
+        }
+    }
+
+    /**Takes a list of strings and writes them to the file at the specified path.
+     * The lines are written to a temporary file that is then moved over the old one, so the file is never left half written if the program stops part way through (see Durability)
+    */
     public static void writeLinesToFile(List<String> lines, Path path) throws IOException {
-        //FileWriter object for setting file contents
-        FileWriter fw = new FileWriter(path.getFileName().toString());
+        long start = System.nanoTime();
+        long length = 0;
+        Path target = Paths.get(path.getFileName().toString()); //The file of that name in the working directory, as it always has been
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
 
-        //Loops through lines and formats them to be saved to file
-        for (int i = 0; i < lines.size(); i++) {
-            StringBuilder sBuilder = new StringBuilder(lines.get(i));
-            if(i != lines.size() - 1) sBuilder.append("\n"); //Added to ensure the last line doesn't have a return character at the end
-            fw.write(sBuilder.toString()); //Adding to file
+        //FileWriter object for setting file contents
+        try (FileWriter fw = new FileWriter(temp.toFile(), StandardCharsets.UTF_8)) {
+            //Loops through lines and formats them to be saved to file
+            for (int i = 0; i < lines.size(); i++) {
+                StringBuilder sBuilder = new StringBuilder(lines.get(i));
+                if(i != lines.size() - 1) sBuilder.append("\n"); //Added to ensure the last line doesn't have a return character at the end
+                fw.write(sBuilder.toString()); //Adding to file
+                length += sBuilder.length();
+            }
         }
 
-        fw.close();
+        Durability.fromProperty().replace(temp, target);
+        Metrics.recordWrite("write song file", length, start);
     }
 
     /**Adds a command to the command history file
      * Removes excess commands if the cutoff length has been exceeded
     */
-    public static void updateHistoryFile(String command, List<String> lines, Path historyPath) {
-        int historyListCutoffLength = 10; //Used to set how many of the most recent commands are stored at a time
+    public static void updateHistoryFile(String command) {
+        //Commands over the cutoff length are dropped by the log itself, and the file is written in the background
+        commandHistory.add(command);
+    }
 
-        lines.add(command);
+    /**Adds the most recent completion code to the debug file*/
+    public static void updateDebugFile(int completionCode) {
+        completionCodes.add(String.valueOf(completionCode));
+    }
 
-        //Loop to remove all commands over the cutoff  length
-        while(lines.size() > historyListCutoffLength) lines.remove(0);
-        //The reason of why I use a loop for this instead of a selection is there may be multiple lines too many if the files have been manually edited or if the program gets updated to use a shorter cutoff length
+    /**Records plays of a song, once or as many times as the number after its name, e.g. "Bohemian Rhapsody 3".
+     * The plays are counted rather than saved there and then (see SongLibrary.recordPlays()), so a player can report every play as it happens, and are added to the song's play count before the next command runs.
+     * Plays aren't recorded in the undo history, a play that happened can't unhappen.
+    */
+    public static void play() {
+        String line;
+        int plays; //How many plays were recorded, 0 until a song is found
 
-        try {
-            writeLinesToFile(lines, historyPath);
-        }
-        catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-    }
+        //Loops until valid input
+        do {
+            //User messages
+            out().println("Enter song name, followed by how many times it has been played if more than once");
+            out().println("Type \"back\" to return to the main menu");
+            out().print(">> ");
 
-    /**Adds the most recent completion code to the debug file*/
-    public static void updateDebugFile(int completionCode, Path debugPath) throws IOException {
-        int debugListCutoffLength = 100; //Used to set how many of the most recent completion codes are stored at a time
+            line = readInput();
+            if(line.equalsIgnoreCase("back")) return; //This ends the procedure early and returns to the main menu
 
-        //Gets lines and adds new line
-        List<String> debugLines = Files.readAllLines(debugPath, StandardCharsets.UTF_8);
-        debugLines.add(String.valueOf(completionCode));
+            plays = recordPlays(line);
+            if(plays == 0) out().println("Song not found");
 
-        //Loop to remove all commands over the cutoff length
-        while(debugLines.size() > debugListCutoffLength) debugLines.remove(0);
+        } while(plays == 0);
 
-        writeLinesToFile(debugLines, debugPath);
+        out().println(plays == 1 ? "Play recorded" : plays + " plays recorded");
+        updateHistoryFile("play " + line);
     }
 
-    /**Adds a new state to the previous state list and shortens it if the list is too long*/
-    public static void updatePreviousStates(List<Song> lines) {
-        int undoMemoryCutoff = 10; //Used to add a maximum number of possible state storing to prevent unnecessary memory usage
-        previousStates.add(lines);
-        while(previousStates.size() > undoMemoryCutoff) previousStates.remove(0); //Loops to remove the oldest states if too many states are stored
+    /**Records plays for a line that is a song name, or a song name followed by a number of plays.
+     * The whole line is tried as a name first, so a song whose name ends in a number (e.g. "Song 2") can still be played once by name.
+     * Returns how many plays were recorded, 0 if there's no such song or the number isn't at least 1
+    */
+    public static int recordPlays(String line) {
+        if(library.recordPlays(line, 1)) return 1;
+
+        int space = line.lastIndexOf(' ');
+        if(space == -1) return 0;
+        int plays;
+        try {
+            plays = Integer.parseInt(line.substring(space + 1));
+        }
+        catch (NumberFormatException e) {
+            return 0;
+        }
+        if(plays < 1) return 0;
+        return library.recordPlays(line.substring(0, space), plays) ? plays : 0;
     }
 
     /**Prints all songs over specified play threshold.*/
-    public static void playsOver(List<Song> lines, List<String> historyLines, Path historyPath) {
+    public static void playsOver() {
         boolean isntInt; //Used for input validation
         int minimum; //Represents the minimum number of plays a song is required to have to be included in the search result
 
@@ -333,11 +826,11 @@ public class Main {
             isntInt = false; // Used in validation process
 
             //User messages
-            System.out.println("Please enter your desired minimum play count");
-            System.out.println("Type \"back\" to return to the main menu");
-            System.out.print(">> ");
+            out().println("Please enter your desired minimum play count");
+            out().println("Type \"back\" to return to the main menu");
+            out().print(">> ");
 
-            String input = sc.nextLine();
+            String input = readInput();
 
             if(input.equalsIgnoreCase("back")) return; //This ends the procedure early and returns to the main menu
 
@@ -348,80 +841,502 @@ public class Main {
             }
             catch (NumberFormatException e) {
                 isntInt = true;
-                System.out.println("Sorry, it appears you have entered an invalid number. Please ensure you enter a positive whole number");
+                out().println("Sorry, it appears you have entered an invalid number. Please ensure you enter a positive whole number");
             }
 
         } while(isntInt);
 
         //Execute command and log
-        printSongsOverNum(lines, minimum);
-        updateHistoryFile("plays_over " + minimum, historyLines, historyPath);
+        printSongsOverNum(minimum);
+        updateHistoryFile("plays_over " + minimum);
+    }
+
+    /**Prints all songs with a play count within a specified range (inclusive).*/
+    public static void playsBetween() {
+        boolean validInput; //Used for input validation
+        int minimum = 0;
+        int maximum = 0;
+
+        //Loops until valid input
+        do {
+            validInput = true;
+
+            //User messages
+            out().println("Please enter your desired minimum and maximum play counts separated by a space, e.g. \"100 5000\"");
+            out().println("Type \"back\" to return to the main menu");
+            out().print(">> ");
+
+            String input = readInput();
+
+            if(input.equalsIgnoreCase("back")) return; //This ends the procedure early and returns to the main menu
+
+            //Input validation
+            String[] bounds = input.trim().split("\\s+");
+            try {
+                if(bounds.length != 2) throw new NumberFormatException();
+                minimum = Integer.parseInt(bounds[0]);
+                maximum = Integer.parseInt(bounds[1]);
+                if(minimum < 0 || maximum < minimum) throw new NumberFormatException();
+            }
+            catch (NumberFormatException e) {
+                validInput = false;
+                out().println("Sorry, it appears you have entered an invalid range. Please enter two positive whole numbers with the smaller one first");
+            }
+
+        } while(!validInput);
+
+        //Execute command and log
+        printPlaysBetween(minimum, maximum, "Sorry, there are no songs stored within your desired range of plays");
+        updateHistoryFile("plays_between " + minimum + " " + maximum);
+    }
+
+    /**Prints a specified number of the most played songs, most played first.*/
+    public static void top() {
+        boolean isntInt; //Used for input validation
+        int count; //Number of songs to show
+
+        //Loops until valid input
+        do {
+            count = 0;
+            isntInt = false;
+
+            //User messages
+            out().println("Please enter how many of the most played songs you would like to see");
+            out().println("Type \"back\" to return to the main menu");
+            out().print(">> ");
+
+            String input = readInput();
+
+            if(input.equalsIgnoreCase("back")) return; //This ends the procedure early and returns to the main menu
+
+            //Input validation
+            try {
+                count = Integer.parseInt(input);
+                if(count < 1) throw new NumberFormatException();
+            }
+            catch (NumberFormatException e) {
+                isntInt = true;
+                out().println("Sorry, it appears you have entered an invalid number. Please ensure you enter a whole number of at least 1");
+            }
+
+        } while(isntInt);
+
+        //Execute command and log
+        List<Song> songs = library.topByPlays(count);
+        if(songs.isEmpty()) out().println("No songs currently stored");
+        printPlayCounts(songs);
+        updateHistoryFile("top " + count);
+    }
+
+    /**Shows totals over the whole library, worked out as songs change rather than by going through every song (see LibraryStats)*/
+    public static void stats() {
+        long[] summary = library.summary();
+        if(summary == null) out().println("No songs currently stored");
+        else {
+            out().println("Songs: " + summary[0]);
+            out().println("Artists: " + (summary[1] < 0 ? "not counted while your songs are kept on disk" : summary[1]));
+            out().println("Total plays: " + summary[2]);
+            out().printf("Average plays: %.1f%n", (double) summary[2] / summary[0]);
+            out().println("Fewest plays: " + summary[3]);
+            out().println("Median plays: " + summary[4]);
+            out().println("Most plays: " + summary[5]);
+        }
+        updateHistoryFile("stats");
+    }
+
+    /**Shows every artist with their number of songs and total plays, in alphabetical order*/
+    public static void artistTotals() {
+        if(library.isPaged()) {
+            out().println("Sorry, artist totals aren't available while your songs are kept on disk (songapp.storage=paged)");
+            return;
+        }
+        List<LibraryStats.ArtistTotal> totals = library.artistTotals();
+        if(totals.isEmpty()) out().println("No songs currently stored");
+        printArtistTotals(totals);
+        updateHistoryFile("artist_totals");
+    }
+
+    /**Shows a chosen number of the artists with the most plays over all their songs, most played first*/
+    public static void topArtists() {
+        if(library.isPaged()) {
+            out().println("Sorry, artist totals aren't available while your songs are kept on disk (songapp.storage=paged)");
+            return;
+        }
+        boolean isntInt; //Used for input validation
+        int count; //Number of artists to show
+
+        //Loops until valid input
+        do {
+            count = 0;
+            isntInt = false;
+
+            //User messages
+            out().println("Please enter how many of the most played artists you would like to see");
+            out().println("Type \"back\" to return to the main menu");
+            out().print(">> ");
+
+            String input = readInput();
+
+            if(input.equalsIgnoreCase("back")) return; //This ends the procedure early and returns to the main menu
+
+            //Input validation
+            try {
+                count = Integer.parseInt(input);
+                if(count < 1) throw new NumberFormatException();
+            }
+            catch (NumberFormatException e) {
+                isntInt = true;
+                out().println("Sorry, it appears you have entered an invalid number. Please ensure you enter a whole number of at least 1");
+            }
+
+        } while(isntInt);
+
+        //Execute command and log
+        List<LibraryStats.ArtistTotal> totals = library.topArtists(count);
+        if(totals.isEmpty()) out().println("No songs currently stored");
+        printArtistTotals(totals);
+        updateHistoryFile("top_artists " + count);
+    }
+
+    /**Prints each artist's number of songs and total plays*/
+    public static void printArtistTotals(List<LibraryStats.ArtistTotal> totals) {
+        for (LibraryStats.ArtistTotal total : totals) {
+            out().println(total.artist() + ": " + total.songs() + (total.songs() == 1 ? " song, " : " songs, ") + total.plays() + " plays");
+        }
+    }
+
+    /**Shows how many songs have each range of play counts, each range twice as wide as the one before so that a few very popular songs don't squash everything else into one bar*/
+    public static void playsHistogram() {
+        long[] histogram = library.playsHistogram();
+        long largest = Arrays.stream(histogram).max().orElse(0);
+        if(largest == 0) out().println("No songs currently stored");
+
+        String[] ranges = new String[histogram.length];
+        int rangeWidth = 1;
+        for (int bucket = 0; bucket < histogram.length; bucket++) {
+            long low = bucket == 0 ? 0 : 1L << (bucket - 1);
+            long high = bucket == 0 ? 0 : (1L << bucket) - 1;
+            ranges[bucket] = low == high ? String.valueOf(low) : low + "-" + high;
+            if(histogram[bucket] > 0) rangeWidth = Math.max(rangeWidth, ranges[bucket].length()); //Lines the bars up
+        }
+
+        for (int bucket = 0; bucket < histogram.length; bucket++) {
+            if(histogram[bucket] == 0) continue;
+            int bar = (int) Math.max(1, histogram[bucket] * HISTOGRAM_WIDTH / largest);
+            out().printf("%" + rangeWidth + "s | %-" + HISTOGRAM_WIDTH + "s %d%n", ranges[bucket], "#".repeat(bar), histogram[bucket]);
+        }
+        updateHistoryFile("plays_histogram");
+    }
+
+    /**Shows the play count that a chosen percentage of songs have at most, e.g. 90 for the number of plays only the top 10% of songs go over*/
+    public static void playsPercentile() {
+        boolean isntNumber; //Used for input validation
+        double percent; //Percentile to show
+
+        //Loops until valid input
+        do {
+            percent = 0;
+            isntNumber = false;
+
+            //User messages
+            out().println("Please enter a percentile between 0 and 100, e.g. 50 for the median or 99.9");
+            out().println("Type \"back\" to return to the main menu");
+            out().print(">> ");
+
+            String input = readInput();
+
+            if(input.equalsIgnoreCase("back")) return; //This ends the procedure early and returns to the main menu
+
+            //Input validation
+            try {
+                percent = Double.parseDouble(input);
+                if(!(percent >= 0 && percent <= 100)) throw new NumberFormatException(); //Also catches NaN
+            }
+            catch (NumberFormatException e) {
+                isntNumber = true;
+                out().println("Sorry, it appears you have entered an invalid number. Please ensure you enter a number between 0 and 100");
+            }
+
+        } while(isntNumber);
+
+        //Execute command and log
+        int plays = library.playsAtPercentile(percent);
+        if(plays == -1) out().println("No songs currently stored");
+        else out().println(formatPercent(percent) + "% of songs have " + plays + " plays or fewer");
+        updateHistoryFile("plays_percentile " + formatPercent(percent));
+    }
+
+    /**Formats a percentage without a trailing .0 for whole numbers*/
+    public static String formatPercent(double percent) {
+        return percent == Math.rint(percent) ? String.valueOf((long) percent) : String.valueOf(percent);
+    }
+
+    /**Works every total out again from scratch, using every core, and reports whether the running totals still agree with it*/
+    public static void checkStats() {
+        long start = System.nanoTime();
+        List<String> differences = library.checkStats();
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        if(differences.isEmpty()) out().println("All totals are correct (checked in " + millis + " ms)");
+        else {
+            out().println("--Notice-- " + differences.size() + " totals didn't match a full recount:");
+            printList(differences);
+        }
+        updateHistoryFile("check_stats");
+    }
+
+    /**Shows how long each command and each kind of file operation has taken since the program started, how much has been read and written, and how big the library and undo histories are (see Metrics)*/
+    public static void metrics() {
+        out().println("Commands run (not counting time spent typing answers):");
+        printLatencies("Command", Metrics.getCommands());
+        out().println();
+        out().println("File operations:");
+        printLatencies("Operation", Metrics.getOperations());
+        out().println();
+        out().println("Files read " + Metrics.getFileReads() + " times (" + formatBytes(Metrics.getBytesRead()) + "), written " + Metrics.getFileWrites() + " times (" + formatBytes(Metrics.getBytesWritten()) + "), forced to the disk " + Metrics.getFileSyncs() + " times (" + library.getDurability().name().toLowerCase() + " durability)");
+        out().println("Songs stored: " + library.size() + ", with " + library.getWaitingPlays() + " plays recorded but not yet added to them");
+        if(library.isPaged()) {
+            long[] cache = library.getPageCacheBytes();
+            out().println("Song pages cached: " + formatBytes(cache[0]) + " of " + formatBytes(cache[1]) + " (the rest of the songs are on disk)");
+        }
+        out().println("Undo history: " + formatBytes(session().undoHistory.getUsedBytes()) + " yours, " + formatBytes(Metrics.getUndoHistoryBytes()) + " across every user");
+        out().println();
+        out().println("Starting up (time from Java starting):");
+        for (Map.Entry<String, Long> milestone : Metrics.getStartup().entrySet()) out().printf("%-20s %10s%n", milestone.getKey(), formatNanos(milestone.getValue() * 1_000_000));
+        updateHistoryFile("metrics");
+    }
+
+    /**Prints a table of how many times each thing was timed and its mean, median, 90th and 99th percentile and longest time*/
+    public static void printLatencies(String heading, Map<String, LatencyHistogram> latencies) {
+        if(latencies.isEmpty()) {
+            out().println("Nothing yet");
+            return;
+        }
+
+        int width = heading.length();
+        for (String name : latencies.keySet()) width = Math.max(width, name.length());
+
+        String row = "%-" + width + "s %7s %10s %10s %10s %10s %10s%n";
+        out().printf(row, heading, "Count", "Mean", "Median", "90%", "99%", "Longest");
+        for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+            LatencyHistogram latency = entry.getValue();
+            out().printf(row, entry.getKey(), latency.getCount(), formatNanos(latency.getMeanNanos()), formatNanos(latency.getPercentileNanos(50)), formatNanos(latency.getPercentileNanos(90)), formatNanos(latency.getPercentileNanos(99)), formatNanos(latency.getMaxNanos()));
+        }
+    }
+
+    /**Formats a time in the largest unit it's at least 1 of, to 3 significant figures or so*/
+    public static String formatNanos(long nanos) {
+        if(nanos < 1_000) return nanos + " ns";
+        if(nanos < 1_000_000) return String.format(Locale.ROOT, "%.3g us", nanos / 1e3);
+        if(nanos < 1_000_000_000) return String.format(Locale.ROOT, "%.3g ms", nanos / 1e6);
+        return String.format(Locale.ROOT, "%.3g s", nanos / 1e9);
+    }
+
+    /**Formats a number of bytes in the largest unit it's at least 1 of*/
+    public static String formatBytes(long bytes) {
+        if(bytes < 1024) return bytes + " bytes";
+        if(bytes < 1024 * 1024) return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0);
+        if(bytes < 1024L * 1024 * 1024) return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024));
+        return String.format(Locale.ROOT, "%.1f GB", bytes / (1024.0 * 1024 * 1024));
     }
 
     /**Adds a song with specified details to the file.*/
-    public static List<Song> add(List<Song> lines, List<String> historyLines, Path historyPath) {
+    public static List<Song> add() {
         boolean validInput; //For validation
         String song;
 
         do { //Loops until valid input
             validInput = true;
 
-            System.out.println("Enter song details in following format: name, artist, plays");
-            System.out.println("Type \"back\" to return to the main menu");
-            System.out.print(">> ");
+            out().println("Enter song details in following format: name, artist, plays");
+            out().println("Type \"back\" to return to the main menu");
+            out().print(">> ");
 
-            song = sc.nextLine();
+            song = readInput();
 
             if(song.equalsIgnoreCase("back")) return null; //Null value is returned and read, informing the program to not make any changes and to take a new command
 
             //Input Validation
-            try {lines.add(makeSongFromInput(song));}
+            try {library.add(makeSongFromInput(song));}
             catch (IOException e) {
                 //Executes if the format doesn't match the expected format
                 validInput = false;
-                System.out.println("Sorry, it appears you have entered the details in the incorrect format. Please ensure that you have written it as shown in the example format");
+                out().println("Sorry, it appears you have entered the details in the incorrect format. Please ensure that you have written it as shown in the example format");
             }
             catch (NumberFormatException e) {
                 //Executes if the user doesn't give a valid value for the play count
                 validInput = false;
-                System.out.println("Sorry, it appears you have entered an invalid number for the play count. Please ensure you enter a positive whole number");
+                out().println("Sorry, it appears you have entered an invalid number for the play count. Please ensure you enter a positive whole number");
             }
 
         } while(!validInput);
 
         //Applies changes
-        System.out.println("Song added");
-        updateHistoryFile("add " + song, historyLines, historyPath);
-        return lines;
+        out().println("Song added");
+        updateHistoryFile("add " + song);
+        return library.getSongs();
+    }
+
+    /**Adds every song from a specified file in one change.
+     * The file is read a line at a time, so it never has to be held in memory as a whole.
+     * Lines that aren't valid songs are skipped and reported to the user with their line numbers.
+    */
+    public static List<Song> importSongs() {
+        int maxReportedErrors = 10; //Used to stop a badly formatted file from flooding the terminal
+
+        out().println("Enter the path of the file to import");
+        out().println("Type \"back\" to return to the main menu");
+        out().print(">> ");
+
+        String file = readInput();
+        if(file.equalsIgnoreCase("back")) return null; //Null value is returned and read, informing the program to not make any changes and to take a new command
+
+        int imported = 0;
+        int badRows = 0;
+        SongLineParser parser = new SongLineParser(); //Reports bad lines without throwing, a file full of them shouldn't cost a stack trace each
+
+        //Holding the library's write lock for the whole import stops the background compactor from writing out a half finished import
+        library.writeLock().lock();
+        try {
+            try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+                String line;
+                int lineNumber = 0;
+
+                while((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if(line.isBlank()) continue; //Blank lines, usually at the end of a file, aren't worth reporting
+
+                    Song song = parser.parse(line);
+                    if(song != null) {
+                        library.add(song);
+                        imported++;
+                    }
+                    //Same distinction between format and play count errors as add()
+                    else if(++badRows <= maxReportedErrors) out().println("Line " + lineNumber + ": " + (parser.getProblem() == SongLineParser.Problem.FORMAT ? "not in the format name, artist, plays" : "invalid play count"));
+                }
+            }
+            catch (IOException e) {
+                out().println("Sorry, we weren't able to read that file: " + e.getMessage());
+                if(imported == 0) return null;
+                out().println("The songs read before the problem have still been added");
+            }
+        }
+        finally {
+            library.writeLock().unlock();
+        }
+
+        if(badRows > maxReportedErrors) out().println("..." + (badRows - maxReportedErrors) + " more lines were skipped");
+        out().println(imported + " songs imported" + (badRows > 0 ? ", " + badRows + " lines skipped" : ""));
+        updateHistoryFile("import " + file);
+
+        if(imported == 0) return null; //Nothing changed
+        return library.getSongs();
+    }
+
+    /**Saves every stored song to a specified file, one per line in the same format as the song file*/
+    public static void exportSongs() {
+        out().println("Enter the path of the file to export to");
+        out().println("Type \"back\" to return to the main menu");
+        out().print(">> ");
+
+        String file = readInput();
+        if(file.equalsIgnoreCase("back")) return; //This ends the procedure early and returns to the main menu
+
+        int exported = 0;
+        long start = System.nanoTime();
+        library.readLock().lock(); //Stops the list changing part way through
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)) {
+                for (SongCursor cursor = library.cursor(); cursor.next();) {
+                    writer.write(songToLine(cursor.getName(), cursor.getArtist(), cursor.getPlays()));
+                    writer.write('\n');
+                    exported++;
+                }
+            }
+            catch (IOException e) {
+                out().println("Sorry, we weren't able to write to that file: " + e.getMessage());
+                return;
+            }
+        }
+        finally {
+            library.readLock().unlock();
+        }
+
+        try {
+            Metrics.recordWrite("export", Files.size(Paths.get(file)), start);
+        }
+        catch (IOException e) {
+            //Only the byte count is missing, the songs were still exported
+        }
+        out().println(exported + " songs exported");
+        updateHistoryFile("export " + file);
+    }
+
+    /**Converts a song file from text to binary or from binary to text, depending on which format it is in*/
+    public static void convert() {
+        out().println("Enter the path of the song file to convert");
+        out().println("Type \"back\" to return to the main menu");
+        out().print(">> ");
+
+        String source = readInput();
+        if(source.equalsIgnoreCase("back")) return; //This ends the procedure early and returns to the main menu
+
+        out().println("Enter the path to save the converted file to");
+        out().println("Type \"back\" to return to the main menu");
+        out().print(">> ");
+
+        String destination = readInput();
+        if(destination.equalsIgnoreCase("back")) return;
+
+        try {
+            if(SongBinaryFormat.isBinary(Paths.get(source))) {
+                List<Song> songs = SongBinaryFormat.read(Paths.get(source));
+                try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(destination), StandardCharsets.UTF_8)) {
+                    writeSongs(songs, writer);
+                }
+                out().println(songs.size() + " songs converted from binary to text"); //Names and artists containing ", " are quoted, so they read back the same (see SongLineParser)
+            }
+            else {
+                List<Song> songs = getSongLines(Paths.get(source));
+                SongBinaryFormat.write(songs, songs.size(), Paths.get(destination));
+                out().println(songs.size() + " songs converted from text to binary");
+            }
+        }
+        catch (IOException | NumberFormatException e) {
+            out().println("Sorry, we weren't able to convert that file, please check that it is a valid song file" + (e.getMessage() == null ? "" : ": " + e.getMessage()));
+            return;
+        }
+
+        updateHistoryFile("convert " + source + " " + destination);
     }
 
     /**Removes a specified song from the song list
      * If multiple songs with the same name have been added, it will remove only the first instance found in the file.
      * If specified song isn't found, it loops and re-prompts the user.
     */
-    public static List<Song> remove(List<Song> lines, List<String> historyLines, Path historyPath) {
+    public static List<Song> remove() {
         boolean found; //Can you guess what needs to happen for this to become true?
         String line;
         List<Song> temp;
 
         do { //Loops until valid input
-            System.out.println("Enter song name");
-            System.out.println("Type \"back\" to return to the main menu");
-            System.out.print(">> ");
+            out().println("Enter song name");
+            out().println("Type \"back\" to return to the main menu");
+            out().print(">> ");
 
-            line = sc.nextLine();
+            line = readInput();
             if(line.equalsIgnoreCase("back")) return null; //Null value is returned and read, informing the program to not make any changes and to take a new command
             
-            temp = removeSong(lines, line);
+            temp = removeSong(line);
             found = (temp != null); //If temp is null, it means that removeSong() was unable to find the desired element and found is set to false
-            if(!found) System.out.println("Song not found");
+            if(!found) out().println("Song not found");
 
         } while(!found);
 
         //Applies changes
-        System.out.println("Song removed");
-        updateHistoryFile("remove " + line, historyLines, historyPath);
-        return lines;
+        out().println("Song removed");
+        updateHistoryFile("remove " + line);
+        return temp;
     }
     
     /**Removes a song from the list
@@ -429,34 +1344,79 @@ public class Main {
      * Otherwise returns updated list
      * This block of code was originally contained within remove() but I elected to abstract it into its own method to decrease cyclomatic complexity and remove a "bumpy road" section of my code
     */
-    public static List<Song> removeSong(List<Song> lines, String line) {
-        //Loops through to see if any songs matching the input are stored, then removes it.
-        for (Song thisSong : lines) {
-            if(thisSong.getName().equalsIgnoreCase(line)) {
-                //When the song is found, it's then removed and the new list is returned
-                lines.remove(thisSong);
-                return lines;
-            }
-        }
+    public static List<Song> removeSong(String line) {
+        //Looks up the first song matching the input in the name index, then removes it.
+        int index = library.indexOf(line, true);
 
         //Returns null if element not found
-        return null;
+        if(index == -1) return null;
+
+        //When the song is found, it's then removed through the library (so the change is journaled) and the list is returned
+        library.remove(index);
+        return library.getSongs();
     }
 
-    /**Takes string input, splits it and sets the fields*/
+    /**Takes string input, splits it and sets the fields.
+     * The line is read by a SongLineParser, which reports a bad line without throwing. The add and update prompts still want an exception to tell the user which part was wrong, so one is thrown here: an IOException if the line isn't in the format, I have decided to throw an IOException specifically since Exception is too broad and may lead to unintended exception catching, and a NumberFormatException if the play count isn't a positive whole number (You can never trust the user)
+     * Anything reading many lines (loading, importing) uses a SongLineParser directly instead
+    */
     public static Song makeSongFromInput(String line) throws IOException, NumberFormatException {
-        //Split into name, artist and plays
-        String[] details = line.split(", ");
+        return new SongLineParser().parseOrThrow(line);
+        //If the play count is invalid, the NumberFormatException is caught in the surrounding context and the user is notified of their severe lapse in judgement
+    }
+
+    /**Prints the details of every song with a specified name, ignoring case*/
+    public static void find() {
+        out().println("Enter song name");
+        out().println("Type \"back\" to return to the main menu");
+        out().print(">> ");
+
+        String name = readInput();
+        if(name.equalsIgnoreCase("back")) return; //This ends the procedure early and returns to the main menu
+
+        List<Song> found = library.findByName(name);
+        if(found.isEmpty()) out().println("Song not found");
+        for (Song song : found) {
+            out().println(song.getName() + " by " + song.getArtist() + ": " + song.getPlays());
+        }
+
+        updateHistoryFile("find " + name);
+    }
 
-        //Rest of validation for this section is done at function call
-        if(details.length != 3) throw new IOException(); //Detects if user has inputted data incorrectly, I have decided to throw an IOException specifically since Exception is too broad and may lead to unintended exception catching
+    /**Prints the songs that best match some words, which can be from the name or the artist, in any order and slightly misspelt*/
+    public static void search() {
+        out().println("Enter the words to search for");
+        out().println("Type \"back\" to return to the main menu");
+        out().print(">> ");
 
-        int playCount = Integer.parseInt(details[2]);
-        if(playCount < 0) throw new NumberFormatException(); // Ensuring the user entered a positive number (You can never trust the user)
+        String text = readInput();
+        if(text.equalsIgnoreCase("back")) return; //This ends the procedure early and returns to the main menu
 
-        //Applies values
-        return new Song(details[0], details[1], playCount);
-        //If integer parsing fails, the NumberFormatException is caught in the surrounding context and the user is notified of their severe lapse in judgement
+        List<Song> found = library.search(text, SEARCH_LIMIT);
+        if(found.isEmpty()) out().println("Sorry, no songs matched those words");
+        for (Song song : found) {
+            out().println(song.getName() + " by " + song.getArtist() + ": " + song.getPlays());
+        }
+
+        updateHistoryFile("search " + text);
+    }
+
+    /**Prints every song by a specified artist, ignoring case*/
+    public static void byArtist() {
+        out().println("Enter artist name");
+        out().println("Type \"back\" to return to the main menu");
+        out().print(">> ");
+
+        String artist = readInput();
+        if(artist.equalsIgnoreCase("back")) return; //This ends the procedure early and returns to the main menu
+
+        List<Song> found = library.findByArtist(artist);
+        if(found.isEmpty()) out().println("Sorry, there are no songs stored by that artist");
+        for (Song song : found) {
+            out().println(song.getName() + ": " + song.getPlays());
+        }
+
+        updateHistoryFile("by_artist " + artist);
     }
 
     /**Prints the contents of a list
@@ -464,23 +1424,42 @@ public class Main {
     */
     public static void printList(List<String> list) {
         for (String element : list) {
-            System.out.println(element);
+            out().println(element);
         }
     }
 
     /**Undoes the most recent change to the song list */
-    public static List<Song> undo(List<String> historyLines, Path historyPath) {
-        if(previousStates.isEmpty()) { //Detects if there are no stored changes
-            System.out.println("Sorry, no changes have been recorded yet in this instance of the application");
+    public static List<Song> undo() {
+        if(!session().undoHistory.canUndo()) { //Detects if there are no stored changes
+            out().println("Sorry, no changes have been recorded yet in this instance of the application");
             return null; //null return data is picked up after function call and interpreted accordingly
         }
 
-        List<Song> temp = previousStates.get(previousStates.size()-1); //Used to store desired file contents state
-        previousStates.remove(previousStates.size()-1); //Removes the state that was just undone (might reverse this in future to allow for redo feature)
-        updateHistoryFile("undo", historyLines, historyPath);
+        if(!session().undoHistory.undo(library)) {
+            out().println("Sorry, the last change can no longer be undone as the songs it affected have been changed since");
+            return null;
+        }
+        updateHistoryFile("undo");
 
-        System.out.println("The last change has been undone");
-        return temp;
+        out().println("The last change has been undone");
+        return library.getSongs();
+    }
+
+    /**Redoes the most recently undone change to the song list */
+    public static List<Song> redo() {
+        if(!session().undoHistory.canRedo()) { //Detects if there are no undone changes
+            out().println("Sorry, there are no undone changes to redo");
+            return null; //null return data is picked up after function call and interpreted accordingly
+        }
+
+        if(!session().undoHistory.redo(library)) {
+            out().println("Sorry, the last undone change can no longer be redone as the songs it affected have been changed since");
+            return null;
+        }
+        updateHistoryFile("redo");
+
+        out().println("The last undone change has been redone");
+        return library.getSongs();
     }
 
     /**Used to copy values from one list to another.
@@ -495,17 +1474,8 @@ public class Main {
     }
 
     /**Displays all logged completion codes*/
-    public static void printCompletionCodes(Path debugPath) {
-        List<String> lines;
-
-        try {
-            lines = Files.readAllLines(debugPath);
-        }
-        catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-
-        printList(lines);
+    public static void printCompletionCodes() {
+        printList(completionCodes.getLines());
     }
 
     /**Returns a value that codes for program exit when read by larger context*/
@@ -0,0 +1,51 @@
+import java.io.IOException;
+import java.util.function.IntFunction;
+
+/**Measures how much heap the song storage takes up with the original representation (ObjectSongStore) against the columnar one (ColumnarSongStore).
+ * Songs are created the same way the song file is parsed, with makeSongFromInput(), so every song by an artist has its own copy of the artist just like after loading.
+ * Run with: java MemoryComparison [number of songs] [songs per artist]
+*/
+public class MemoryComparison {
+    public static void main(String[] args) throws IOException {
+        int songCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int songsPerArtist = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        System.out.println("Songs: " + songCount + ", songs per artist: " + songsPerArtist);
+        long objects = measure(ObjectSongStore::new, songCount, songsPerArtist);
+        long columnar = measure(ColumnarSongStore::new, songCount, songsPerArtist);
+
+        System.out.printf("ObjectSongStore:   %,d bytes (%.1f per song)%n", objects, (double) objects / songCount);
+        System.out.printf("ColumnarSongStore: %,d bytes (%.1f per song)%n", columnar, (double) columnar / songCount);
+        System.out.printf("Columnar uses %.1f%% of the original%n", 100.0 * columnar / objects);
+    }
+
+    /**Makes a store (through the constructor taking its expected size), fills it and returns how much the used heap grew by.
+     * The store is made after the first reading, so the arrays it sets aside up front for the expected songs are counted along with everything added to them
+    */
+    private static long measure(IntFunction<SongStore> newStore, int songCount, int songsPerArtist) throws IOException {
+        long before = usedHeap();
+        SongStore store = newStore.apply(songCount);
+        for (int i = 0; i < songCount; i++) {
+            store.append(Main.makeSongFromInput("Song number " + i + ", Artist number " + (i % Math.max(1, songCount / songsPerArtist)) + ", " + (i * 7 % 1_000_000)));
+        }
+        long after = usedHeap();
+
+        if(store.slotCount() != songCount) throw new IllegalStateException(); //Keeps the store reachable until after the measurement
+        return after - before;
+    }
+
+    /**Returns the used heap after giving the garbage collector a few chances to settle*/
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
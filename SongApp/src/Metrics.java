@@ -0,0 +1,213 @@
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**How long commands and file operations have taken and how much has been read and written since the program started, shown by the metrics command.
+ * Before this the only record was debug.txt, which says how each command finished but not how long it took or what it cost.
+ * Every command is timed by CommandHandler (leaving out time spent waiting for someone to type an answer), and every read or write of the song file, the journal and the log files is counted and timed where it happens.
+ * Everything here is a counter or a LatencyHistogram, so recording never blocks and costs a few atomic increments, which is nothing next to a command or a file operation.
+ * The same numbers can also be collected by a monitoring system in the Prometheus text format, from a local HTTP port set with the songapp.metrics.port system property (see serve()).
+*/
+public class Metrics {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private static final Map<String, LatencyHistogram> commands = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> operations = new ConcurrentHashMap<>();
+    private static final LongAdder fileReads = new LongAdder();
+    private static final LongAdder fileWrites = new LongAdder();
+    private static final LongAdder bytesRead = new LongAdder();
+    private static final LongAdder bytesWritten = new LongAdder();
+    private static final LongAdder fileSyncs = new LongAdder();
+    private static final LongAdder undoHistoryBytes = new LongAdder(); //Across every session, kept up to date by UndoHistory
+    private static final Map<String, Long> startup = new ConcurrentHashMap<>(); //Milliseconds from the JVM starting to each point in starting up, see recordStartup()
+
+    /**Counts a command (by its full name) that took the given time*/
+    public static void recordCommand(String command, long nanos) {
+        commands.computeIfAbsent(command, name -> new LatencyHistogram()).record(nanos);
+    }
+
+    /**Counts a file read of the given number of bytes that started at startNanos (from System.nanoTime()) and has just finished*/
+    public static void recordRead(String operation, long bytes, long startNanos) {
+        fileReads.increment();
+        bytesRead.add(bytes);
+        recordOperation(operation, startNanos);
+    }
+
+    /**Counts a file write of the given number of bytes that started at startNanos (from System.nanoTime()) and has just finished*/
+    public static void recordWrite(String operation, long bytes, long startNanos) {
+        fileWrites.increment();
+        bytesWritten.add(bytes);
+        recordOperation(operation, startNanos);
+    }
+
+    /**Counts a force of a file to the disk (see Durability) that started at startNanos (from System.nanoTime()) and has just finished*/
+    public static void recordSync(String operation, long startNanos) {
+        fileSyncs.increment();
+        recordOperation(operation, startNanos);
+    }
+
+    /**Records how long after the JVM started the program reached a point in starting up (e.g. the first prompt being shown), only the first time it's reached.
+     * Measured from the JVM starting rather than from main() so that the time taken to start Java and load the classes is counted, since the user waits for that too
+    */
+    public static void recordStartup(String milestone) {
+        if(!startup.containsKey(milestone)) startup.putIfAbsent(milestone, ManagementFactory.getRuntimeMXBean().getUptime());
+    }
+
+    /**Changes the memory held by undo histories, see UndoHistory*/
+    public static void changeUndoHistoryBytes(long bytes) {
+        undoHistoryBytes.add(bytes);
+    }
+
+    /**Returns the time taken by each command run so far, by name in alphabetical order*/
+    public static Map<String, LatencyHistogram> getCommands() {
+        return new TreeMap<>(commands);
+    }
+
+    /**Returns the time taken by each kind of file operation so far, by name in alphabetical order*/
+    public static Map<String, LatencyHistogram> getOperations() {
+        return new TreeMap<>(operations);
+    }
+
+    /**Returns the milliseconds from the JVM starting to each point in starting up reached so far, in the order they were reached*/
+    public static Map<String, Long> getStartup() {
+        Map<String, Long> reached = new LinkedHashMap<>();
+        startup.entrySet().stream().sorted(Map.Entry.comparingByValue()).forEach(entry -> reached.put(entry.getKey(), entry.getValue()));
+        return reached;
+    }
+
+    /**Returns the number of file reads so far*/
+    public static long getFileReads() {
+        return fileReads.sum();
+    }
+
+    /**Returns the number of file writes so far*/
+    public static long getFileWrites() {
+        return fileWrites.sum();
+    }
+
+    /**Returns the number of bytes read from files so far*/
+    public static long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    /**Returns the number of bytes written to files so far*/
+    public static long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**Returns the number of times a file has been forced to the disk so far*/
+    public static long getFileSyncs() {
+        return fileSyncs.sum();
+    }
+
+    /**Returns the estimated memory held by the undo histories of every session*/
+    public static long getUndoHistoryBytes() {
+        return undoHistoryBytes.sum();
+    }
+
+    /**Returns every metric in the Prometheus text format, with times in seconds as Prometheus expects*/
+    public static String toPrometheusText(int songs) {
+        StringBuilder text = new StringBuilder();
+        summary(text, "songapp_command_seconds", "Time taken to run each command, not counting time waiting for answers to be typed", "command", getCommands());
+        summary(text, "songapp_file_operation_seconds", "Time taken by each kind of file read or write", "operation", getOperations());
+        metric(text, "songapp_file_reads_total", "counter", "File reads", getFileReads());
+        metric(text, "songapp_file_writes_total", "counter", "File writes", getFileWrites());
+        metric(text, "songapp_file_read_bytes_total", "counter", "Bytes read from files", getBytesRead());
+        metric(text, "songapp_file_written_bytes_total", "counter", "Bytes written to files", getBytesWritten());
+        metric(text, "songapp_file_syncs_total", "counter", "Files forced to the disk", getFileSyncs());
+        if(songs >= 0) metric(text, "songapp_songs", "gauge", "Songs in the library", songs); //Left out while the library is still loading
+        startup(text);
+        metric(text, "songapp_undo_history_bytes", "gauge", "Estimated memory held by every session's undo history", getUndoHistoryBytes());
+        return text.toString();
+    }
+
+    /**Serves toPrometheusText() at http://localhost:port/metrics on a background thread for as long as the program runs.
+     * Only listens on the loopback address, the same as the rest of the program only being used by people on this computer
+    */
+    public static void serve(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            SongLibrary library = Main.library;
+            byte[] body = toPrometheusText(library == null ? -1 : library.size()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream response = exchange.getResponseBody()) {
+                response.write(body);
+            }
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor(Metrics::daemonThread));
+
+        //The server's own thread takes after the thread that starts it, so it's started from a daemon thread to stop it keeping the program alive after exit
+        Thread starter = daemonThread(server::start);
+        starter.start();
+        try {
+            starter.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**Creates a thread for the metrics server that never keeps the program alive by itself*/
+    private static Thread daemonThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "metrics-server");
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**Times a file operation that has just finished*/
+    private static void recordOperation(String operation, long startNanos) {
+        operations.computeIfAbsent(operation, name -> new LatencyHistogram()).record(System.nanoTime() - startNanos);
+    }
+
+    /**Adds a family of histograms as a Prometheus summary, one series per label value*/
+    private static void summary(StringBuilder text, String name, String help, String label, Map<String, LatencyHistogram> histograms) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(" summary\n");
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            String labels = label + "=\"" + entry.getKey().replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+            LatencyHistogram histogram = entry.getValue();
+            for (double quantile : QUANTILES) {
+                text.append(name).append('{').append(labels).append(",quantile=\"").append(quantile).append("\"} ").append(seconds(histogram.getPercentileNanos(quantile * 100))).append('\n');
+            }
+            text.append(name).append("_sum{").append(labels).append("} ").append(seconds(histogram.getTotalNanos())).append('\n');
+            text.append(name).append("_count{").append(labels).append("} ").append(histogram.getCount()).append('\n');
+        }
+    }
+
+    /**Adds a single counter or gauge*/
+    private static void metric(StringBuilder text, String name, String type, String help, long value) {
+        text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**Adds the startup times as a gauge, one series per point in starting up (see recordStartup())*/
+    private static void startup(StringBuilder text) {
+        Map<String, Long> reached = getStartup();
+        if(reached.isEmpty()) return;
+
+        text.append("# HELP songapp_startup_seconds Time from the JVM starting to each point in starting up\n");
+        text.append("# TYPE songapp_startup_seconds gauge\n");
+        for (Map.Entry<String, Long> entry : reached.entrySet()) {
+            text.append("songapp_startup_seconds{milestone=\"").append(entry.getKey()).append("\"} ").append(seconds(entry.getValue() * 1_000_000)).append('\n');
+        }
+    }
+
+    /**Formats a time in seconds, the unit Prometheus expects*/
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+}
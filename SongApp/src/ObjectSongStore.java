@@ -0,0 +1,55 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**The original representation, one Song object per song in a list, with null marking an empty slot.
+ * Kept so the columnar store can be compared against it (see MemoryComparison) and as a fallback.
+*/
+public class ObjectSongStore implements SongStore {
+    private final List<Song> songs;
+
+    /**Creates an empty store with room for the given number of songs*/
+    public ObjectSongStore(int expectedSongs) {
+        songs = new ArrayList<>(expectedSongs);
+    }
+
+    @Override
+    public int slotCount() {
+        return songs.size();
+    }
+
+    @Override
+    public int append(Song song) {
+        songs.add(song);
+        return songs.size() - 1;
+    }
+
+    @Override
+    public void set(int slot, Song song) {
+        songs.set(slot, song);
+    }
+
+    @Override
+    public boolean isUsed(int slot) {
+        return songs.get(slot) != null;
+    }
+
+    @Override
+    public String getName(int slot) {
+        return songs.get(slot).getName();
+    }
+
+    @Override
+    public String getArtist(int slot) {
+        return songs.get(slot).getArtist();
+    }
+
+    @Override
+    public int getPlays(int slot) {
+        return songs.get(slot).getPlays();
+    }
+
+    @Override
+    public Song get(int slot) {
+        return songs.get(slot);
+    }
+}
@@ -0,0 +1,98 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**Collects lines of output and writes them in large chunks, rather than one write (and, on the console, one flush) per line.
+ * Listing a big library one println at a time spends almost all its time in those writes, the console's PrintStream flushes after every line that ends in a line feed.
+ * Lines go either to the session's output (see Main.out()), handed over a chunk at a time so the session's own encoding still applies, or straight to a file through a single FileChannel, encoded as UTF-8 into one reused buffer.
+ * Nothing is guaranteed to be written until flush() or close() is called.
+*/
+public class OutputSink implements Closeable {
+    private static final int CHUNK_CHARS = 64 * 1024;
+
+    private final PrintStream stream; //Null when writing to a file
+    private final FileChannel channel; //Null when writing to a stream
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE); //The same as String.getBytes(), which the song file is written with
+    private final ByteBuffer bytes; //Encoded chunks on their way to the file, null when writing to a stream
+    private final StringBuilder chunk = new StringBuilder(CHUNK_CHARS + 256);
+    private long linesWritten = 0;
+
+    private OutputSink(PrintStream stream, FileChannel channel) {
+        this.stream = stream;
+        this.channel = channel;
+        bytes = channel == null ? null : ByteBuffer.allocateDirect(CHUNK_CHARS * 3); //Fits a whole chunk of any characters, UTF-8 uses at most 3 bytes per char
+    }
+
+    /**Returns a sink that writes to the stream, which is flushed but not closed when the sink is*/
+    public static OutputSink to(PrintStream stream) {
+        return new OutputSink(stream, null);
+    }
+
+    /**Returns a sink that writes to the file, replacing anything already in it*/
+    public static OutputSink toFile(Path path) throws IOException {
+        return new OutputSink(null, FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+    }
+
+    /**Returns true if the lines are going to a file rather than the session's output*/
+    public boolean isFile() {
+        return channel != null;
+    }
+
+    /**Returns the number of lines written so far*/
+    public long getLinesWritten() {
+        return linesWritten;
+    }
+
+    /**Adds a line, followed by a line feed*/
+    public void println(String line) throws IOException {
+        chunk.append(line).append('\n');
+        linesWritten++;
+        if(chunk.length() >= CHUNK_CHARS) writeChunk();
+    }
+
+    /**Writes out everything added so far*/
+    public void flush() throws IOException {
+        writeChunk();
+        if(stream != null) stream.flush();
+    }
+
+    /**Writes out everything added so far and closes the file, if writing to one*/
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        }
+        finally {
+            if(channel != null) channel.close();
+        }
+    }
+
+    /**Hands the chunk over to the stream or encodes it into the file*/
+    private void writeChunk() throws IOException {
+        if(chunk.length() == 0) return;
+
+        if(stream != null) stream.append(chunk);
+        else {
+            //Each chunk ends with a whole line, so it can be encoded as a complete piece of text on its own
+            CharBuffer chars = CharBuffer.wrap(chunk);
+            encoder.reset();
+            CoderResult result;
+            do {
+                result = encoder.encode(chars, bytes, true);
+                bytes.flip();
+                while(bytes.hasRemaining()) channel.write(bytes);
+                bytes.clear();
+            } while(result.isOverflow());
+        }
+        chunk.setLength(0);
+    }
+}
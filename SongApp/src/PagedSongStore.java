@@ -0,0 +1,356 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**Keeps the songs in a file on disk and only the most recently used pages of them in memory, for libraries too big for the heap (chosen with songapp.storage=paged).
+ * Slots are grouped into pages of SLOTS_PER_PAGE in slot order. A page is read in the first time one of its songs is needed and stays in an LRU cache until the cache holds more than its budget, set in bytes with the songapp.pages.budget system property (a quarter of the heap, up to 64 MB, if it isn't set), at which point the least recently used pages are dropped, being written back first if they've changed.
+ * The page file is this store's own scratch copy, made in the song file's folder and deleted when the store is closed. The song file and journal are still where the library is saved, exactly as with the other stores.
+ * A page is kept in memory the way it is written on disk: the plays and the name and artist lengths of each slot (-1 for an empty slot) followed by the UTF-8 bytes of every name and artist. Reading a page is one read, and Strings are only made for the fields asked for.
+ * Each page has a frame in the file with some room to grow. A page that outgrows its frame moves to a new one at the end of the file, and once more than half the file is left-behind frames it is rewritten without them.
+ * Nothing is kept per song outside the pages, only a few numbers per page, including how many songs each page holds (a RankTree over pages), which is how rank() and select() turn positions into slots without SongLibrary's per-slot RankTree.
+ * Every method is synchronized, since readers holding SongLibrary's read lock share the cache.
+*/
+public class PagedSongStore implements SongStore {
+    public static final int SLOTS_PER_PAGE = 1024;
+    public static final long MAX_DEFAULT_BUDGET_BYTES = 64L << 20; //Without songapp.pages.budget, the cache gets a quarter of the heap up to this
+    private static final int FRAME_ALIGNMENT = 4096;
+    private static final long MIN_REWRITE_BYTES = 64L << 20; //Smaller files aren't worth rewriting to get rid of left-behind frames
+
+    private final long budget;
+    private final Path file;
+    private final FileChannel channel;
+
+    private int slotCount = 0;
+    private long[] frameOffsets = new long[16]; //Where each page's frame starts, -1 until the page is first written
+    private int[] frameSizes = new int[16];
+    private final RankTree pageSongs = new RankTree(0); //Songs in each page
+    private long fileEnd = 0;
+    private long unusedBytes = 0; //Left-behind frames
+
+    private final LinkedHashMap<Integer, Page> cache = new LinkedHashMap<>(16, 0.75f, true); //Least recently used first
+    private long cachedBytes = 0;
+    private int lastNumber = -1; //The page used last, looked up without going through the cache since most calls are for the same page as the one before
+    private Page last;
+
+    /**The songs in one page's slots*/
+    private static class Page {
+        private int slots = 0;
+        private final int[] plays = new int[SLOTS_PER_PAGE];
+        private final int[] nameLengths = new int[SLOTS_PER_PAGE]; //-1 for an empty slot
+        private final int[] artistLengths = new int[SLOTS_PER_PAGE];
+        private final int[] starts = new int[SLOTS_PER_PAGE + 1]; //Where each slot's name starts in text, the artist follows it, starts[slots] is the end of the text
+        private byte[] text = new byte[4096];
+        private boolean dirty = false;
+
+        /**Roughly the memory the page takes up, what the cache budget counts*/
+        long bytes() {
+            return 64 + 16L * (SLOTS_PER_PAGE + 1) + text.length;
+        }
+
+        boolean isUsed(int i) {
+            return nameLengths[i] != -1;
+        }
+
+        String name(int i) {
+            return new String(text, starts[i], nameLengths[i], StandardCharsets.UTF_8);
+        }
+
+        String artist(int i) {
+            return new String(text, starts[i] + nameLengths[i], artistLengths[i], StandardCharsets.UTF_8);
+        }
+
+        /**Puts a song (or null to empty it) in the slot, moving the text of the slots after it along*/
+        void set(int i, Song song) {
+            byte[] name = song == null ? new byte[0] : song.getName().getBytes(StandardCharsets.UTF_8);
+            byte[] artist = song == null ? new byte[0] : song.getArtist().getBytes(StandardCharsets.UTF_8);
+            int length = name.length + artist.length;
+            int delta = length - (starts[i + 1] - starts[i]);
+            int end = starts[slots];
+
+            if(end + delta > text.length) text = Arrays.copyOf(text, Math.max(end + delta, text.length + (text.length >> 1)));
+            System.arraycopy(text, starts[i + 1], text, starts[i + 1] + delta, end - starts[i + 1]);
+            System.arraycopy(name, 0, text, starts[i], name.length);
+            System.arraycopy(artist, 0, text, starts[i] + name.length, artist.length);
+            for (int j = i + 1; j <= slots; j++) starts[j] += delta;
+
+            plays[i] = song == null ? 0 : song.getPlays();
+            nameLengths[i] = song == null ? -1 : name.length;
+            artistLengths[i] = artist.length;
+            dirty = true;
+        }
+
+        /**Adds an empty slot at the end*/
+        void addSlot() {
+            nameLengths[slots] = -1;
+            artistLengths[slots] = 0;
+            starts[slots + 1] = starts[slots];
+            slots++;
+            dirty = true;
+        }
+
+        /**Returns the page as it's written to its frame: its length, the number of slots, the plays and lengths of each slot and then the text*/
+        ByteBuffer encode() {
+            int end = starts[slots];
+            ByteBuffer buffer = ByteBuffer.allocate(frameLength(slots, end));
+            buffer.putInt(buffer.capacity()).putInt(slots);
+            for (int i = 0; i < slots; i++) buffer.putInt(plays[i]).putInt(nameLengths[i]).putInt(artistLengths[i]);
+            buffer.put(text, 0, end);
+            return buffer.flip();
+        }
+
+        /**Reads back a page written by encode()*/
+        static Page decode(ByteBuffer buffer) {
+            Page page = new Page();
+            buffer.getInt(); //Length
+            page.slots = buffer.getInt();
+            int start = 0;
+            for (int i = 0; i < page.slots; i++) {
+                page.plays[i] = buffer.getInt();
+                page.nameLengths[i] = buffer.getInt();
+                page.artistLengths[i] = buffer.getInt();
+                page.starts[i] = start;
+                start += Math.max(0, page.nameLengths[i]) + page.artistLengths[i];
+            }
+            page.starts[page.slots] = start;
+            page.text = new byte[Math.max(start, 16)];
+            buffer.get(page.text, 0, start);
+            return page;
+        }
+
+        static int frameLength(int slots, int textLength) {
+            return 8 + 12 * slots + textLength;
+        }
+    }
+
+    /**Creates an empty store whose page file is made in the folder, with the cache budget from the songapp.pages.budget system property*/
+    public PagedSongStore(Path folder) throws IOException {
+        budget = Long.getLong("songapp.pages.budget", Math.min(MAX_DEFAULT_BUDGET_BYTES, Runtime.getRuntime().maxMemory() / 4));
+        file = Files.createTempFile(folder, "songs.", ".pages");
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        Arrays.fill(frameOffsets, -1);
+    }
+
+    @Override
+    public synchronized int slotCount() {
+        return slotCount;
+    }
+
+    @Override
+    public synchronized int append(Song song) {
+        int slot = slotCount;
+        int number = slot / SLOTS_PER_PAGE;
+        if(number == frameOffsets.length) {
+            frameOffsets = Arrays.copyOf(frameOffsets, number * 2);
+            frameSizes = Arrays.copyOf(frameSizes, number * 2);
+            Arrays.fill(frameOffsets, number, frameOffsets.length, -1);
+        }
+
+        page(number).addSlot();
+        slotCount++;
+        if(song != null) set(slot, song);
+        return slot;
+    }
+
+    @Override
+    public synchronized void set(int slot, Song song) {
+        int number = slot / SLOTS_PER_PAGE;
+        Page page = page(number);
+        int i = slot % SLOTS_PER_PAGE;
+        boolean wasUsed = page.isUsed(i);
+
+        long before = page.bytes();
+        page.set(i, song);
+        cachedBytes += page.bytes() - before;
+
+        if(!wasUsed && song != null) pageSongs.add(number);
+        else if(wasUsed && song == null) pageSongs.remove(number);
+        evict();
+    }
+
+    @Override
+    public synchronized boolean isUsed(int slot) {
+        return page(slot / SLOTS_PER_PAGE).isUsed(slot % SLOTS_PER_PAGE);
+    }
+
+    @Override
+    public synchronized String getName(int slot) {
+        return page(slot / SLOTS_PER_PAGE).name(slot % SLOTS_PER_PAGE);
+    }
+
+    @Override
+    public synchronized String getArtist(int slot) {
+        return page(slot / SLOTS_PER_PAGE).artist(slot % SLOTS_PER_PAGE);
+    }
+
+    @Override
+    public synchronized int getPlays(int slot) {
+        return page(slot / SLOTS_PER_PAGE).plays[slot % SLOTS_PER_PAGE];
+    }
+
+    @Override
+    public synchronized Song get(int slot) {
+        Page page = page(slot / SLOTS_PER_PAGE);
+        int i = slot % SLOTS_PER_PAGE;
+        if(!page.isUsed(i)) return null;
+        return new Song(page.name(i), page.artist(i), page.plays[i]);
+    }
+
+    /**Returns the number of songs in the slots before the slot, which is the position of the song in the slot within the list*/
+    public synchronized int rank(int slot) {
+        int number = slot / SLOTS_PER_PAGE;
+        Page page = page(number);
+        int rank = pageSongs.rank(number);
+        for (int i = 0; i < slot % SLOTS_PER_PAGE; i++) {
+            if(page.isUsed(i)) rank++;
+        }
+        return rank;
+    }
+
+    /**Returns the slot holding the song at the position, which must be less than the number of songs*/
+    public synchronized int select(int rank) {
+        int number = pageSongs.select(rank);
+        Page page = page(number);
+        int remaining = rank - pageSongs.rank(number);
+        for (int i = 0; i < page.slots; i++) {
+            if(page.isUsed(i) && remaining-- == 0) return number * SLOTS_PER_PAGE + i;
+        }
+        throw new IllegalStateException("Page " + number + " has fewer songs than its count says");
+    }
+
+    /**Returns the most memory the cache holds before dropping pages*/
+    public long getBudget() {
+        return budget;
+    }
+
+    /**Returns the memory the cached pages take up now*/
+    public synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    /**Deletes the page file, changes to the songs have already been saved to the song file and journal by SongLibrary*/
+    @Override
+    public synchronized void close() throws IOException {
+        cache.clear();
+        last = null;
+        lastNumber = -1;
+        channel.close();
+    }
+
+    /**Returns the page, reading it in if it isn't cached*/
+    private Page page(int number) {
+        if(number == lastNumber) return last;
+
+        Page page = cache.get(number);
+        if(page == null) {
+            page = frameOffsets[number] == -1 ? new Page() : read(number);
+            cache.put(number, page);
+            cachedBytes += page.bytes();
+        }
+        lastNumber = number;
+        last = page;
+        evict();
+        return page;
+    }
+
+    /**Drops the least recently used pages until the cache is within its budget, never dropping the page in use*/
+    private void evict() {
+        Iterator<Map.Entry<Integer, Page>> pages = cache.entrySet().iterator();
+        while(cachedBytes > budget && cache.size() > 1 && pages.hasNext()) {
+            Map.Entry<Integer, Page> eldest = pages.next();
+            if(eldest.getKey() == lastNumber) continue;
+
+            if(eldest.getValue().dirty) write(eldest.getKey(), eldest.getValue());
+            cachedBytes -= eldest.getValue().bytes();
+            pages.remove();
+        }
+    }
+
+    /**Reads a page from its frame*/
+    private Page read(int number) {
+        long start = System.nanoTime();
+        try {
+            ByteBuffer buffer = readFrame(number);
+            Metrics.recordRead("read song page", buffer.capacity(), start);
+            return Page.decode(buffer);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**Reads the page written in a frame, without the unused room after it*/
+    private ByteBuffer readFrame(int number) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(length, frameOffsets[number]);
+        ByteBuffer buffer = ByteBuffer.allocate(length.getInt(0));
+        readFully(buffer, frameOffsets[number]);
+        return buffer.flip();
+    }
+
+    /**Writes a page back to its frame, or to a new frame at the end of the file if it has outgrown it*/
+    private void write(int number, Page page) {
+        long start = System.nanoTime();
+        ByteBuffer buffer = page.encode();
+        try {
+            if(frameOffsets[number] == -1 || buffer.capacity() > frameSizes[number]) {
+                if(frameOffsets[number] != -1) unusedBytes += frameSizes[number];
+                frameOffsets[number] = fileEnd;
+                frameSizes[number] = frameSize(buffer.capacity());
+                fileEnd += frameSizes[number];
+            }
+            while(buffer.hasRemaining()) channel.write(buffer, frameOffsets[number] + buffer.position());
+            page.dirty = false;
+            Metrics.recordWrite("write song page", buffer.capacity(), start);
+
+            if(unusedBytes > MIN_REWRITE_BYTES && unusedBytes > fileEnd / 2) rewriteFile();
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**Copies every page's frame to the start of the file one after the other, leaving out the left-behind frames.
+     * Frames only ever move towards the start, and are copied in the order they're in the file, so a frame is never overwritten before it has been copied
+    */
+    private void rewriteFile() throws IOException {
+        Integer[] pages = new Integer[(slotCount + SLOTS_PER_PAGE - 1) / SLOTS_PER_PAGE];
+        for (int number = 0; number < pages.length; number++) pages[number] = number;
+        Arrays.sort(pages, (a, b) -> Long.compare(frameOffsets[a], frameOffsets[b]));
+
+        long end = 0;
+        for (int number : pages) {
+            if(frameOffsets[number] == -1) continue;
+            if(frameOffsets[number] != end) {
+                ByteBuffer frame = readFrame(number); //Read whole before writing, the new place may overlap the old one
+                while(frame.hasRemaining()) channel.write(frame, end + frame.position());
+                frameOffsets[number] = end;
+            }
+            end += frameSizes[number];
+        }
+        channel.truncate(end);
+        fileEnd = end;
+        unusedBytes = 0;
+    }
+
+    /**Fills the buffer from the page file starting at the position*/
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) == -1) throw new IOException(file + " is shorter than expected");
+        }
+    }
+
+    /**Returns the size of frame to give a page of the given length, with a quarter again to grow into*/
+    private static int frameSize(int length) {
+        int size = length + length / 4;
+        return (size + FRAME_ALIGNMENT - 1) / FRAME_ALIGNMENT * FRAME_ALIGNMENT;
+    }
+}
@@ -0,0 +1,243 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**Keeps every song's slot sorted by play count so that threshold, range and top-N queries only touch the songs they return.
+ * Each entry is a single long holding the play count in the top half and the slot in the bottom half, which sorts by plays and then by list order without storing any objects per song.
+ * The entries are split into blocks of at most MAX_BLOCK_SIZE, so adding or removing a song only shifts the entries of one block instead of the whole array.
+ * Finding where a query starts is a binary search over the blocks followed by one inside a block, so a query costs O(log n + k) for k results.
+ * Counting the songs before a point and finding the song at a rank use a Fenwick tree over the sizes of the blocks (the same kind of tree as RankTree), so they're O(log n) too rather than adding up every block before it.
+*/
+public class PlayCountIndex {
+    private static final int MAX_BLOCK_SIZE = 1024; //Blocks are split in half once they reach this size
+
+    private final List<Block> blocks = new ArrayList<>();
+    private int[] blockSizes = new int[2]; //1-based Fenwick tree over the blocks' sizes, blockSizes[i] holds the entries in blocks (i - lowestBit(i), i]
+    private int sizeCapacity = 1; //Always a power of two so blockAtRank() can walk down the tree
+
+    /**A sorted run of entries*/
+    private static class Block {
+        long[] entries;
+        int size;
+
+        Block(long[] entries, int size) {
+            this.entries = entries;
+            this.size = size;
+        }
+
+        long last() {
+            return entries[size - 1];
+        }
+    }
+
+    /**Replaces the contents of the index with every song in the store*/
+    public void rebuild(SongStore store) {
+        long[] entries = new long[store.slotCount()];
+        int count = 0;
+        for (int slot = 0; slot < store.slotCount(); slot++) {
+            if(store.isUsed(slot)) entries[count++] = entry(store.getPlays(slot), slot);
+        }
+        Arrays.sort(entries, 0, count);
+
+        //Half-full blocks leave room for inserts before the first split
+        blocks.clear();
+        int blockSize = MAX_BLOCK_SIZE / 2;
+        for (int start = 0; start < count; start += blockSize) {
+            int size = Math.min(blockSize, count - start);
+            long[] block = new long[MAX_BLOCK_SIZE];
+            System.arraycopy(entries, start, block, 0, size);
+            blocks.add(new Block(block, size));
+        }
+        rebuildSizes();
+    }
+
+    /**Adds the song in the slot*/
+    public void add(int plays, int slot) {
+        long entry = entry(plays, slot);
+        if(blocks.isEmpty()) { //Started with the entry in it, findBlock() can't look at an empty block (and there never is one otherwise, see remove())
+            long[] first = new long[MAX_BLOCK_SIZE];
+            first[0] = entry;
+            blocks.add(new Block(first, 1));
+            rebuildSizes();
+            return;
+        }
+
+        int blockIndex = Math.min(findBlock(entry), blocks.size() - 1); //Entries larger than everything go at the end of the last block
+        Block block = blocks.get(blockIndex);
+        int position = lowerBound(block, entry);
+
+        System.arraycopy(block.entries, position, block.entries, position + 1, block.size - position);
+        block.entries[position] = entry;
+        block.size++;
+        changeSize(blockIndex, 1);
+
+        if(block.size == MAX_BLOCK_SIZE) split(blockIndex);
+    }
+
+    /**Removes the song in the slot, plays must be the play count it was added with*/
+    public void remove(int plays, int slot) {
+        long entry = entry(plays, slot);
+        int blockIndex = findBlock(entry);
+        if(blockIndex == blocks.size()) return;
+
+        Block block = blocks.get(blockIndex);
+        int position = Arrays.binarySearch(block.entries, 0, block.size, entry);
+        if(position < 0) return;
+
+        System.arraycopy(block.entries, position + 1, block.entries, position, block.size - position - 1);
+        block.size--;
+        changeSize(blockIndex, -1);
+
+        if(block.size == 0) {
+            blocks.remove(blockIndex);
+            rebuildSizes();
+        }
+    }
+
+    /**Passes the slots of the count most played songs to the action, most played first*/
+    public void forEachTop(int count, IntConsumer action) {
+        for (int blockIndex = blocks.size() - 1; blockIndex >= 0 && count > 0; blockIndex--) {
+            Block block = blocks.get(blockIndex);
+            for (int position = block.size - 1; position >= 0 && count > 0; position--, count--) {
+                action.accept(slot(block.entries[position]));
+            }
+        }
+    }
+
+    /**Passes the slots of up to count songs to the action in order of plays, starting from the song at the rank (0 is the least played, or the most played if descending).
+     * The block holding the rank is found in the tree of block sizes, so starting part way through costs O(log n) rather than a step per block before it
+    */
+    public void forEachFromRank(int rank, int count, boolean descending, IntConsumer action) {
+        int total = entriesBefore(blocks.size());
+        if(rank >= total || count <= 0) return;
+
+        int first = descending ? total - 1 - rank : rank; //Counted from the least played either way
+        int blockIndex = blockAtRank(first);
+        int position = first - entriesBefore(blockIndex);
+        if(descending) {
+            for (; blockIndex >= 0 && count > 0; blockIndex--) {
+                Block block = blocks.get(blockIndex);
+                if(position == -1) position = block.size - 1; //Every block after the first one used is used from its end
+                for (; position >= 0 && count > 0; position--, count--) action.accept(slot(block.entries[position]));
+            }
+            return;
+        }
+        for (; blockIndex < blocks.size() && count > 0; blockIndex++, position = 0) {
+            Block block = blocks.get(blockIndex);
+            for (; position < block.size && count > 0; position++, count--) action.accept(slot(block.entries[position]));
+        }
+    }
+
+    /**Returns the number of songs with fewer than the given plays*/
+    public int countBelow(int plays) {
+        return countBefore(entry(plays, 0));
+    }
+
+    /**Returns the number of songs with at most the given plays*/
+    public int countAtMost(int plays) {
+        return countBefore(entry(plays, Integer.MAX_VALUE) + 1);
+    }
+
+    /**Returns the play count of the song at the rank, counting from 0 for the least played, which is found in the tree of block sizes rather than by counting through the songs.
+     * The rank must be less than the number of songs
+    */
+    public int playsAtRank(int rank) {
+        if(rank < 0 || rank >= entriesBefore(blocks.size())) throw new IndexOutOfBoundsException("Rank is past the last song");
+        int blockIndex = blockAtRank(rank);
+        return plays(blocks.get(blockIndex).entries[rank - entriesBefore(blockIndex)]);
+    }
+
+    /**Returns the number of entries less than the entry, the entries in the blocks before the one it would be in plus those before it in that block*/
+    private int countBefore(long entry) {
+        int blockIndex = findBlock(entry);
+        int count = entriesBefore(blockIndex);
+        return blockIndex == blocks.size() ? count : count + lowerBound(blocks.get(blockIndex), entry);
+    }
+
+    /**Returns the number of entries in the blocks before the block*/
+    private int entriesBefore(int blockIndex) {
+        int count = 0;
+        for (int i = blockIndex; i > 0; i -= i & -i) count += blockSizes[i];
+        return count;
+    }
+
+    /**Returns the index of the block holding the entry at the rank, which must be less than the number of entries*/
+    private int blockAtRank(int rank) {
+        int blockIndex = 0;
+        int remaining = rank + 1;
+
+        //Walks down from the largest node, skipping over every node that doesn't take us past the wanted rank (see RankTree.select())
+        for (int step = sizeCapacity; step > 0; step >>= 1) {
+            if(blockIndex + step <= sizeCapacity && blockSizes[blockIndex + step] < remaining) {
+                blockIndex += step;
+                remaining -= blockSizes[blockIndex];
+            }
+        }
+        return blockIndex;
+    }
+
+    /**Adds delta to the size of the block in the tree of block sizes*/
+    private void changeSize(int blockIndex, int delta) {
+        for (int i = blockIndex + 1; i <= sizeCapacity; i += i & -i) blockSizes[i] += delta;
+    }
+
+    /**Builds the tree of block sizes again in O(number of blocks), for when a block is added or removed and every block after it moves along.
+     * That already shifts every later block along the list, so it doesn't change what splitting or emptying a block costs
+    */
+    private void rebuildSizes() {
+        sizeCapacity = 1;
+        while(sizeCapacity < blocks.size()) sizeCapacity <<= 1;
+        blockSizes = new int[sizeCapacity + 1];
+        for (int i = 1; i <= sizeCapacity; i++) {
+            if(i <= blocks.size()) blockSizes[i] += blocks.get(i - 1).size;
+            int parent = i + (i & -i);
+            if(parent <= sizeCapacity) blockSizes[parent] += blockSizes[i];
+        }
+    }
+
+    /**Returns the index of the first block whose last entry is at least the entry, or the number of blocks if there isn't one*/
+    private int findBlock(long entry) {
+        int low = 0;
+        int high = blocks.size();
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(blocks.get(middle).last() < entry) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**Returns the position of the first entry in the block that is at least the entry*/
+    private static int lowerBound(Block block, long entry) {
+        int position = Arrays.binarySearch(block.entries, 0, block.size, entry);
+        return position >= 0 ? position : -position - 1;
+    }
+
+    /**Splits a full block into two half-full ones*/
+    private void split(int blockIndex) {
+        Block block = blocks.get(blockIndex);
+        int half = block.size / 2;
+
+        long[] upper = new long[MAX_BLOCK_SIZE];
+        System.arraycopy(block.entries, half, upper, 0, block.size - half);
+        blocks.add(blockIndex + 1, new Block(upper, block.size - half));
+        block.size = half;
+        rebuildSizes();
+    }
+
+    /**Packs a play count and slot into one sortable entry, both are never negative so the sign bit is never set*/
+    private static long entry(int plays, int slot) {
+        return ((long) plays << 32) | slot;
+    }
+
+    /**Unpacks the play count from an entry*/
+    private static int plays(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    /**Unpacks the slot from an entry*/
+    private static int slot(long entry) {
+        return (int) entry;
+    }
+}
@@ -0,0 +1,65 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**Plays reported for songs that haven't been added to their play counts yet (see SongLibrary.recordPlays()).
+ * Changing a play count the usual way means a new Song, the write lock and a journal write, which is far too much to do thousands of times a second. So reported plays are only counted here, keyed by the song's slot, and added to the songs in one go every so often (see SongLibrary.mergePlays()).
+ * Each song gets its own LongAdder, which spreads threads counting the same song over several cells rather than having them fight over one, and finding a song's adder is a ConcurrentHashMap lookup, so counting never takes a lock.
+ * Counting happens under SongLibrary's read lock and draining under its write lock, so nothing is ever counted while the counts are being taken, and no play is lost between the two.
+ * When the song file is loaded again the slots are numbered afresh, so SongLibrary takes the plays out by song first and counts them again for the same songs afterwards.
+*/
+public class PlayCounter {
+    private final ConcurrentHashMap<Integer, LongAdder> counts = new ConcurrentHashMap<>();
+
+    /**What drain() hands each slot's plays to*/
+    public interface SlotPlays {
+        void accept(int slot, long plays);
+    }
+
+    /**Counts plays for the song in the slot*/
+    public void add(int slot, long plays) {
+        LongAdder count = counts.get(slot);
+        if(count == null) count = counts.computeIfAbsent(slot, key -> new LongAdder()); //Only the first play of a song since the last drain gets here
+        count.add(plays);
+    }
+
+    /**Returns true if there are no plays waiting to be added*/
+    public boolean isEmpty() {
+        return counts.isEmpty();
+    }
+
+    /**Returns the number of plays waiting to be added, over every song*/
+    public long getWaitingPlays() {
+        long total = 0;
+        for (LongAdder count : counts.values()) total += count.sum();
+        return total;
+    }
+
+    /**Passes each slot's plays to the action and forgets them, nothing may be counted until this returns*/
+    public void drain(SlotPlays action) {
+        for (Map.Entry<Integer, LongAdder> count : counts.entrySet()) action.accept(count.getKey(), count.getValue().sum());
+        counts.clear();
+    }
+
+    /**Forgets the plays for a slot, for when its song is removed*/
+    public void forget(int slot) {
+        counts.remove(slot);
+    }
+
+    /**Moves the plays of every slot from the slot on up by one, for when the songs in them each move up a slot. Nothing may be counted until this returns*/
+    public void moveUp(int from) {
+        Map<Integer, LongAdder> moved = new HashMap<>();
+        counts.entrySet().removeIf(count -> {
+            if(count.getKey() < from) return false;
+            moved.put(count.getKey() + 1, count.getValue());
+            return true;
+        });
+        counts.putAll(moved);
+    }
+
+    /**Forgets every play, for when the slots are numbered again*/
+    public void clear() {
+        counts.clear();
+    }
+}
@@ -0,0 +1,73 @@
+/**Keeps track of which slots of the song store hold a song, so that a song's position in the list can be turned into its slot and back in O(log n).
+ * Removed songs leave an empty slot behind rather than shifting every song after them along, which is what makes removal cheap, but it means position and slot are no longer the same thing.
+ * This is a Fenwick (binary indexed) tree over the slots, where each slot counts 1 if it holds a song and 0 if it doesn't.
+*/
+public class RankTree {
+    private int[] tree; //1-based, tree[i] holds the number of used slots in (i - lowestBit(i), i]
+    private int capacity; //Always a power of two so select() can walk down the tree
+
+    /**Creates a tree where the first count slots are all in use*/
+    public RankTree(int count) {
+        capacity = 1;
+        while(capacity < count) capacity <<= 1;
+        tree = new int[capacity + 1];
+
+        //Builds the tree in O(n) by pushing each node's total up to its parent
+        for (int i = 1; i <= capacity; i++) {
+            if(i <= count) tree[i]++;
+            int parent = i + (i & -i);
+            if(parent <= capacity) tree[parent] += tree[i];
+        }
+    }
+
+    /**Marks a slot as holding a song*/
+    public void add(int slot) {
+        ensureCapacity(slot + 1);
+        update(slot, 1);
+    }
+
+    /**Marks a slot as empty*/
+    public void remove(int slot) {
+        update(slot, -1);
+    }
+
+    /**Returns the number of used slots before the slot, which is the position of the song in the slot within the list*/
+    public int rank(int slot) {
+        int count = 0;
+        for (int i = slot; i > 0; i -= i & -i) count += tree[i];
+        return count;
+    }
+
+    /**Returns the slot holding the song at the position*/
+    public int select(int rank) {
+        int slot = 0;
+        int remaining = rank + 1;
+
+        //Walks down from the largest node, skipping over every node that doesn't take us past the wanted position
+        for (int step = capacity; step > 0; step >>= 1) {
+            if(slot + step <= capacity && tree[slot + step] < remaining) {
+                slot += step;
+                remaining -= tree[slot];
+            }
+        }
+        return slot; //slot + 1 is the 1-based node, so slot is the 0-based slot
+    }
+
+    /**Adds delta to the count of the slot*/
+    private void update(int slot, int delta) {
+        for (int i = slot + 1; i <= capacity; i += i & -i) tree[i] += delta;
+    }
+
+    /**Doubles the tree until it has room for the number of slots.
+     * Every existing node still covers the same slots afterwards, the only new node covering old slots is the new root, which takes the old total.
+    */
+    private void ensureCapacity(int slots) {
+        while(capacity < slots) {
+            int[] grown = new int[capacity * 2 + 1];
+            System.arraycopy(tree, 0, grown, 0, tree.length);
+            grown[capacity * 2] = tree[capacity];
+            tree = grown;
+            capacity *= 2;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**Keeps the most recent lines of a log file (the command history and the completion codes) in memory and writes them out in the background.
+ * Previously every command re-read and/or rewrote both files in full, removing the oldest line from the front of a list one at a time.
+ * The lines are now held in a ring buffer, so adding a line over the limit just overwrites the oldest one.
+ * The file is written at most once per FLUSH_DELAY_MILLIS on a background thread, however many lines were added in that time, and one last time by close() when the program shuts down.
+ * Each write replaces the whole file through a temporary file, so it is never left empty if the program is killed part way through.
+*/
+public class RecentLog {
+    private static final long FLUSH_DELAY_MILLIS = 1000;
+
+    //Shared by every log, daemon thread so it never keeps the program alive by itself
+    private static final ScheduledExecutorService WRITER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "log-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path path;
+    private final String[] lines;
+    private int start = 0; //Index of the oldest line
+    private int count = 0;
+    private boolean dirty = false; //True if lines have been added since the last snapshot was taken for writing
+
+    private final Object writeLock = new Object(); //Makes sure snapshots are written in the order they were taken
+
+    /**Creates a log that keeps the given number of lines, starting with the last lines of the file if it exists*/
+    public RecentLog(Path path, int capacity) throws IOException {
+        this.path = path;
+        this.lines = new String[capacity];
+
+        if(Files.exists(path)) {
+            for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) add(line, false);
+        }
+    }
+
+    /**Adds a line, dropping the oldest one if the log is full, and makes sure a write is scheduled*/
+    public void add(String line) {
+        add(line, true);
+    }
+
+    /**Returns the lines currently held, oldest first */
+    public synchronized List<String> getLines() {
+        List<String> copy = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) copy.add(lines[(start + i) % lines.length]);
+        return copy;
+    }
+
+    /**Writes the lines to the file now if any have been added since the last write*/
+    public void flush() throws IOException {
+        synchronized (writeLock) {
+            List<String> snapshot;
+            synchronized (this) {
+                if(!dirty) return;
+                dirty = false;
+                snapshot = getLines();
+            }
+            long start = System.nanoTime();
+            String text = String.join("\n", snapshot);
+            Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+            Files.writeString(temp, text, StandardCharsets.UTF_8); //No return character after the last line, as before
+            Durability.NONE.replace(temp, path); //Never left half written, but not worth waiting for the disk for
+            Metrics.recordWrite("write " + path.getFileName(), text.length(), start); //Near enough the bytes, the logs are almost all ASCII
+        }
+    }
+
+    /**Writes out anything not yet written, called from the shutdown hook*/
+    public void close() throws IOException {
+        flush();
+    }
+
+    private synchronized void add(String line, boolean schedule) {
+        if(count < lines.length) {
+            lines[(start + count) % lines.length] = line;
+            count++;
+        }
+        else {
+            lines[start] = line; //Overwrites the oldest line, which makes the next one the oldest
+            start = (start + 1) % lines.length;
+        }
+
+        if(!schedule || dirty) return; //A write that will include this line is already scheduled
+        dirty = true;
+        WRITER.schedule(this::flushInBackground, FLUSH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**Flushes from the writer thread, where there is nobody to pass an exception to*/
+    private void flushInBackground() {
+        try {
+            flush();
+        }
+        catch (IOException e) {
+            System.out.println("--Notice-- Sorry, we weren't able to save " + path.getFileName() + ", we'll try again after the next command");
+        }
+    }
+}
@@ -0,0 +1,343 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**Finds songs from any of the words in their name or artist, in any order and with small spelling mistakes, ranked by how well they match.
+ * Words are split on anything that isn't a letter or digit and compared ignoring case, with apostrophes dropped so "dont" finds "Don't".
+ * Each distinct word keeps a list of the songs using it (an inverted index), so a search only looks at songs sharing at least one word with it rather than at the whole library.
+ * Misspelt words are found through a second index from every three-letter piece (trigram) of each distinct word to the words containing it: a word within one or two edits of the one searched for shares most of its trigrams, so only those words have their edit distance worked out.
+ * Songs score the rarer words they match higher (a match on "bohemian" says more than a match on "the"), matches in the name a little higher than in the artist, and exact words higher than misspelt ones.
+ *
+ * Changes are made as songs are added, removed and updated, but the old entries of a removed or updated song are left in the word lists rather than searched for and taken out, which for a common word would mean walking a list of millions.
+ * Instead the song's slot is marked as changed, and entries for changed slots are checked against the song's current words when they're found. Slots are never reused (see SongStore), so entries for slots that are empty now are simply skipped.
+ * Once the left over entries outnumber the live ones, needsRebuild() tells SongLibrary to throw the index away and build it again the next time there's a search.
+*/
+public class SearchIndex {
+    private static final int MIN_FUZZY_LENGTH = 4; //Shorter words have too many neighbours one edit away for fuzzy matches to mean anything
+    private static final float NAME_WEIGHT = 1.0f;
+    private static final float ARTIST_WEIGHT = 0.8f;
+    private static final float[] EDIT_WEIGHTS = {1.0f, 0.6f, 0.35f}; //Multiplies a word's score by how many edits it is from the word searched for
+
+    private SongStore store;
+
+    private final Map<String, Word> words = new HashMap<>();
+    private final Map<String, IntList> wordsByTrigram = new HashMap<>(); //Trigram to the ids of the words containing it
+    private final List<Word> wordsById = new ArrayList<>();
+
+    private final BitSet changedSlots = new BitSet(); //Slots whose song was removed or replaced since the index was built
+    private long liveEntries = 0;
+    private long staleEntries = 0;
+    private int songCount = 0;
+
+    /**A distinct word and the songs using it*/
+    private static class Word {
+        final String text;
+        final IntList entries = new IntList(); //Slot * 2, plus 1 if the word is in the artist rather than the name
+        int live = 0; //Entries still belonging to a song, used to weigh how rare the word is
+
+        Word(String text) {
+            this.text = text;
+        }
+    }
+
+    /**Growable list of ints, since a list of Integer objects would cost several times as much for the millions of entries a big library has*/
+    private static class IntList {
+        int[] values = new int[2];
+        int size = 0;
+
+        void add(int value) {
+            if(size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+    }
+
+    /**A word to look for in a search, what a song using it scores and which of the searched for words it stands for*/
+    private record WordMatch(Word word, float weight, int term) {}
+
+    /**A song found by a search and its score*/
+    private record Match(int slot, float score) {}
+
+    //Worst match first: lower scores, then later slots so that equally good songs come out in list order
+    private static final Comparator<Match> MATCH_ORDER = (a, b) -> a.score() != b.score() ? Float.compare(a.score(), b.score()) : Integer.compare(b.slot(), a.slot());
+
+    /**Creates an index of every song in the store, which is then kept up to date through add() and remove()*/
+    public SearchIndex(SongStore store) {
+        this.store = store;
+        for (int slot = 0; slot < store.slotCount(); slot++) {
+            if(store.isUsed(slot)) add(slot);
+        }
+    }
+
+    /**Makes the index read songs from the store from now on, which must hold the same songs as the one it was built from, for an index built from a copy of the store (see SongStore.copy())*/
+    public void readFrom(SongStore store) {
+        this.store = store;
+    }
+
+    /**Adds the song in the slot, which must already hold it*/
+    public void add(int slot) {
+        addWords(store.getName(slot), slot * 2);
+        addWords(store.getArtist(slot), slot * 2 + 1);
+        songCount++;
+    }
+
+    /**Removes the song in the slot, which must still hold it*/
+    public void remove(int slot) {
+        for (int field = 0; field < 2; field++) {
+            for (String text : distinctTokens(field == 0 ? store.getName(slot) : store.getArtist(slot))) {
+                Word word = words.get(text);
+                if(word == null) continue;
+                word.live--;
+                liveEntries--;
+                staleEntries++;
+            }
+        }
+        changedSlots.set(slot);
+        songCount--;
+    }
+
+    /**Returns true once there are more left over entries than live ones, at which point building the index again is cheaper than carrying on with it*/
+    public boolean needsRebuild() {
+        return staleEntries > liveEntries;
+    }
+
+    /**Returns the slots of up to limit songs matching any of the words in the text, best match first.
+     * Songs whose whole name is the text (wholeNameSlots, in ascending order, which the caller finds in its name index) score double, so typing a name out in full finds that song first.
+    */
+    public int[] search(String text, int limit, int[] wholeNameSlots) {
+        List<String> terms = tokens(text);
+        if(terms.isEmpty() || limit <= 0) return new int[0];
+
+        //Every word to look at, with what a match on it is worth
+        List<WordMatch> matches = new ArrayList<>();
+        for (int term = 0; term < terms.size(); term++) {
+            Word exact = words.get(terms.get(term));
+            float exactRarity = exact != null && exact.live > 0 ? rarity(exact) : Float.MAX_VALUE;
+
+            for (Map.Entry<Word, Integer> similar : similarWords(terms.get(term)).entrySet()) {
+                //A misspelling is never worth more than the word itself, however rare it is, otherwise "lome" would beat "love" for a search for love
+                float weight = EDIT_WEIGHTS[similar.getValue()] * Math.min(rarity(similar.getKey()), exactRarity);
+                matches.add(new WordMatch(similar.getKey(), weight, term));
+            }
+        }
+
+        //Keeps the best limit songs in a heap with the worst of them on top, rather than sorting every match
+        PriorityQueue<Match> best = new PriorityQueue<>(MATCH_ORDER);
+        scoreUnchangedSongs(matches, terms.size(), wholeNameSlots, best, limit);
+        scoreChangedSongs(matches, terms.size(), wholeNameSlots, best, limit);
+
+        int[] slots = new int[best.size()];
+        for (int i = slots.length - 1; i >= 0; i--) slots[i] = best.poll().slot();
+        return slots;
+    }
+
+    /**Scores the songs that haven't changed since the index was built.
+     * Their entries are in ascending slot order in every word's list (new songs always get a new slot at the end), so the lists are merged like sorted runs, taking every entry for the lowest slot left from all of them at once.
+     * That way each song's score is finished as soon as it's reached and goes straight to the heap, without building up a table of every matching song first, which for a common word would hold millions.
+    */
+    private void scoreUnchangedSongs(List<WordMatch> matches, int termCount, int[] wholeNameSlots, PriorityQueue<Match> best, int limit) {
+        //Copied out of the matches into plain arrays, this loop runs once per matching song and a common word has millions
+        int lists = matches.size();
+        int[][] values = new int[lists][];
+        int[] sizes = new int[lists];
+        int[] positions = new int[lists];
+        for (int list = 0; list < lists; list++) {
+            IntList entries = matches.get(list).word().entries;
+            values[list] = entries.values;
+            sizes[list] = entries.size;
+            positions[list] = skipToUnchanged(values[list], sizes[list], 0);
+        }
+
+        float[] termScores = new float[termCount];
+        int nextWholeName = 0;
+        while(true) {
+            int slot = Integer.MAX_VALUE;
+            for (int list = 0; list < lists; list++) {
+                if(positions[list] < sizes[list]) slot = Math.min(slot, values[list][positions[list]] >>> 1);
+            }
+            if(slot == Integer.MAX_VALUE) return; //Every list is used up
+
+            Arrays.fill(termScores, 0);
+            for (int list = 0; list < lists; list++) {
+                //A song with the word in both its name and its artist has two entries next to each other
+                while(positions[list] < sizes[list] && values[list][positions[list]] >>> 1 == slot) {
+                    WordMatch match = matches.get(list);
+                    float score = match.weight() * ((values[list][positions[list]] & 1) == 1 ? ARTIST_WEIGHT : NAME_WEIGHT);
+                    termScores[match.term()] = Math.max(termScores[match.term()], score);
+                    positions[list] = skipToUnchanged(values[list], sizes[list], positions[list] + 1);
+                }
+            }
+
+            while(nextWholeName < wholeNameSlots.length && wholeNameSlots[nextWholeName] < slot) nextWholeName++;
+            boolean wholeName = nextWholeName < wholeNameSlots.length && wholeNameSlots[nextWholeName] == slot;
+            offer(best, slot, total(termScores, wholeName), limit);
+        }
+    }
+
+    /**Scores the songs that have been replaced since the index was built, which are few but can have entries anywhere in a list and more than one in the same list*/
+    private void scoreChangedSongs(List<WordMatch> matches, int termCount, int[] wholeNameSlots, PriorityQueue<Match> best, int limit) {
+        if(changedSlots.isEmpty()) return;
+
+        Map<Integer, float[]> termScores = new HashMap<>();
+        for (WordMatch match : matches) {
+            IntList entries = match.word().entries;
+            for (int i = 0; i < entries.size; i++) {
+                int slot = entries.values[i] >>> 1;
+                boolean inArtist = (entries.values[i] & 1) == 1;
+                if(!changedSlots.get(slot) || !stillMatches(match.word(), slot, inArtist)) continue;
+
+                float[] scores = termScores.computeIfAbsent(slot, key -> new float[termCount]);
+                scores[match.term()] = Math.max(scores[match.term()], match.weight() * (inArtist ? ARTIST_WEIGHT : NAME_WEIGHT));
+            }
+        }
+
+        for (Map.Entry<Integer, float[]> song : termScores.entrySet()) {
+            boolean wholeName = Arrays.binarySearch(wholeNameSlots, song.getKey()) >= 0;
+            offer(best, song.getKey(), total(song.getValue(), wholeName), limit);
+        }
+    }
+
+    /**Adds up a song's scores for each term, doubled if the whole name was typed out since that beats songs that just share its words*/
+    private static float total(float[] termScores, boolean wholeName) {
+        float total = 0;
+        for (float score : termScores) total += score;
+        return wholeName ? total * 2 : total;
+    }
+
+    /**Returns the position of the first entry at or after position whose song hasn't changed.
+     * Removed songs count as changed, so this also skips songs that aren't there any more without having to look in the store.
+    */
+    private int skipToUnchanged(int[] entries, int size, int position) {
+        while(position < size && changedSlots.get(entries[position] >>> 1)) position++;
+        return position;
+    }
+
+    /**Returns true if the entry for the word in the slot still belongs to the song there*/
+    private boolean stillMatches(Word word, int slot, boolean inArtist) {
+        if(!store.isUsed(slot)) return false; //Removed since this entry was made
+        if(!changedSlots.get(slot)) return true;
+        return tokens(inArtist ? store.getArtist(slot) : store.getName(slot)).contains(word.text); //Could have been replaced by a song without the word
+    }
+
+    /**Adds the song to the heap if it's better than the worst one there, keeping at most limit matches*/
+    private static void offer(PriorityQueue<Match> best, int slot, float score, int limit) {
+        if(best.size() == limit) {
+            //Most songs of a common word don't make it, so they're turned away before a Match is made for them
+            Match worst = best.peek();
+            if(score < worst.score() || score == worst.score() && slot > worst.slot()) return;
+        }
+        best.add(new Match(slot, score));
+        if(best.size() > limit) best.poll();
+    }
+
+    /**Returns the words in the index within a few edits of the term (more edits allowed the longer it is), with how many edits away each is*/
+    private Map<Word, Integer> similarWords(String term) {
+        Map<Word, Integer> similar = new HashMap<>();
+        Word exact = words.get(term);
+        if(exact != null) similar.put(exact, 0);
+
+        int maxEdits = term.length() < MIN_FUZZY_LENGTH ? 0 : term.length() < 8 ? 1 : 2;
+        if(maxEdits == 0) return similar;
+
+        //Each edit changes at most 3 of a word's trigrams, so a word within maxEdits shares at least this many with the term
+        List<String> termTrigrams = trigrams(term);
+        int minShared = termTrigrams.size() - 3 * maxEdits;
+
+        Map<Integer, Integer> shared = new HashMap<>();
+        for (String trigram : termTrigrams) {
+            IntList ids = wordsByTrigram.get(trigram);
+            if(ids == null) continue;
+            for (int i = 0; i < ids.size; i++) shared.merge(ids.values[i], 1, Integer::sum);
+        }
+
+        for (Map.Entry<Integer, Integer> candidate : shared.entrySet()) {
+            if(candidate.getValue() < minShared) continue;
+            Word word = wordsById.get(candidate.getKey());
+            if(word == exact || word.live == 0 || Math.abs(word.text.length() - term.length()) > maxEdits) continue;
+
+            int edits = editDistance(term, word.text, maxEdits);
+            if(edits <= maxEdits) similar.put(word, edits);
+        }
+        return similar;
+    }
+
+    /**Returns how much a match on the word is worth, the fewer songs use it the more it says about which song was meant*/
+    private float rarity(Word word) {
+        return (float) Math.log(1 + (double) Math.max(songCount, 1) / Math.max(word.live, 1));
+    }
+
+    /**Adds an entry for every word in the text*/
+    private void addWords(String text, int entry) {
+        for (String token : distinctTokens(text)) {
+            Word word = words.get(token);
+            if(word == null) {
+                word = new Word(token);
+                words.put(token, word);
+                for (String trigram : trigrams(token)) wordsByTrigram.computeIfAbsent(trigram, key -> new IntList()).add(wordsById.size());
+                wordsById.add(word);
+            }
+
+            word.entries.add(entry);
+            word.live++;
+            liveEntries++;
+        }
+    }
+
+    /**Splits text into lower case words, dropping apostrophes and treating anything else that isn't a letter or digit as a gap between words*/
+    public static List<String> tokens(String text) {
+        List<String> tokens = new ArrayList<>(4);
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char character = i < text.length() ? text.charAt(i) : ' ';
+            if(character == '\'' || character == '\u2019') continue;
+            if(Character.isLetterOrDigit(character)) token.append(character);
+            else if(token.length() > 0) {
+                tokens.add(token.toString().toLowerCase(Locale.ROOT));
+                token.setLength(0);
+            }
+        }
+        return tokens;
+    }
+
+    /**Returns the words in the text without repeats, a word used twice in the same name only needs the one entry*/
+    private static Iterable<String> distinctTokens(String text) {
+        return new LinkedHashSet<>(tokens(text));
+    }
+
+    /**Returns the word's trigrams, padded at both ends so the start and end of the word count too*/
+    private static List<String> trigrams(String word) {
+        String padded = "  " + word + " ";
+        List<String> trigrams = new ArrayList<>(padded.length() - 2);
+        for (int i = 0; i + 3 <= padded.length(); i++) trigrams.add(padded.substring(i, i + 3));
+        return trigrams;
+    }
+
+    /**Returns the number of single character insertions, deletions and substitutions between a and b, or maxEdits + 1 as soon as it's clear there are more than maxEdits*/
+    private static int editDistance(String a, String b, int maxEdits) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) previous[j] = j;
+
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMinimum = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+                rowMinimum = Math.min(rowMinimum, current[j]);
+            }
+            if(rowMinimum > maxEdits) return maxEdits + 1; //Every path through the rest of the table costs at least this much
+
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+}
@@ -0,0 +1,49 @@
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Scanner;
+
+/**Everything that belongs to one user of the program rather than to the program as a whole: where their answers come from, where their output goes and what they can undo.
+ * The commands in Main find the session they are running for through Main.session(), so the same commands serve the console and, in server mode, every connected client (see SongServer).
+ * The song library and the command history and debug logs are shared by every session.
+*/
+public class Session {
+    //Where answers to prompts are read from, null for sessions that only ever run whole command lines (see scripted)
+    final Scanner input;
+
+    //Where the commands print to, null for System.out as it is when they print (see out())
+    PrintStream out;
+
+    //The changes this user has made, so they can be undone and redone
+    //I have elected to store the history internally within the program rather than in an external file so that all data of previous states are lost. This prevents users from being able to undo changes made in previous instances of the program, thereby eliminating a source of user confusion/privacy breach
+    //Only the songs each change touched are stored rather than a copy of the whole list, and the history is limited by memory use rather than by a count (see UndoHistory)
+    //Each session has its own, so one user's undo never takes back another user's change
+    final UndoHistory undoHistory = UndoHistory.fromSystemProperties();
+
+    //Answers given on the same line as a command (e.g. "plays_over 100"), handed to the command's prompts in order before anything is read from input (see Main.readInput())
+    final Deque<String> pendingAnswers = new ArrayDeque<>();
+
+    //Listing options given on the command's line (e.g. "all_songs --page 2"), for the listing commands to take (see Main.takeListingOptions())
+    ListingOptions listing = ListingOptions.NONE;
+
+    //Time spent waiting for this user to type at the console, so that CommandHandler can leave it out of how long a command took (see Metrics)
+    long inputWaitNanos = 0;
+
+    //True while nobody is there to answer prompts (a script, or a server client), in which case a prompt without an answer on the command's line cancels the command
+    boolean scripted;
+    boolean cancelled = false; //Set when a scripted command is cancelled that way or isn't recognised
+
+    /**Creates a session reading answers from input and printing to out, or to System.out if out is null*/
+    public Session(Scanner input, PrintStream out, boolean scripted) {
+        this.input = input;
+        this.out = out;
+        this.scripted = scripted;
+    }
+
+    /**Returns where the commands print to.
+     * The console session looks System.out up every time rather than keeping the one there was when it was created, so that System.setOut() (as the benchmarks use to silence output) still applies to it
+    */
+    public PrintStream out() {
+        return out != null ? out : System.out;
+    }
+}
@@ -0,0 +1,166 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**Reads and writes the optional binary song file format.
+ * The text format has to be split and parsed a line at a time, this one is read straight out of a memory-mapped file.
+ * Layout, all numbers are big-endian ints unless stated:
+ *  - Header: magic "SONG", version (2 bytes), reserved (2 bytes), artist count, song count
+ *  - Artist table: for each distinct artist, its length in bytes followed by its UTF-8 bytes. Each artist is stored once however many songs they have
+ *  - Song records: 16 bytes per song, offset of the name within the name heap, length of the name in bytes, index of the artist in the artist table, plays
+ *  - Name heap: the UTF-8 bytes of every name, one after the other
+ * Records are fixed width so the n-th song can be found without reading the ones before it. The version lets the layout change later, files with a version this code doesn't know are rejected rather than misread.
+*/
+public class SongBinaryFormat {
+    public static final int MAGIC = 0x534F4E47; //"SONG"
+    public static final short VERSION = 1;
+
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_BYTES = 16;
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    /**Returns true if the file starts with the binary format's magic number*/
+    public static boolean isBinary(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while(magic.hasRemaining() && channel.read(magic) != -1);
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**Maps a binary file into memory and returns the CRC32 of its contents, used by the journal to recognise the file*/
+    public static long checksum(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            CRC32 crc = new CRC32();
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            return crc.getValue();
+        }
+    }
+
+    /**Reads every song from a binary file.
+     * Songs by the same artist share a single String for the artist.
+    */
+    public static List<Song> read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if(channel.size() > Integer.MAX_VALUE) throw new IOException("Binary song files larger than 2GB aren't supported");
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if(buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) throw new IOException(path + " is not a binary song file");
+            short version = buffer.getShort();
+            if(version != VERSION) throw new IOException(path + " uses version " + version + " of the binary song format, only version " + VERSION + " is supported");
+            buffer.getShort(); //Reserved
+
+            int artistCount = buffer.getInt();
+            int songCount = buffer.getInt();
+
+            String[] artists = new String[artistCount];
+            for (int i = 0; i < artistCount; i++) {
+                int length = buffer.getInt();
+                artists[i] = readString(buffer, buffer.position(), length);
+                buffer.position(buffer.position() + length);
+            }
+
+            int recordStart = buffer.position();
+            int heapStart = Math.toIntExact(recordStart + (long) songCount * RECORD_BYTES);
+            List<Song> songs = new ArrayList<>(songCount);
+
+            for (int i = 0; i < songCount; i++) {
+                int record = recordStart + i * RECORD_BYTES;
+                String name = readString(buffer, heapStart + buffer.getInt(record), buffer.getInt(record + 4));
+                songs.add(new Song(name, artists[buffer.getInt(record + 8)], buffer.getInt(record + 12)));
+            }
+            return songs;
+        }
+        catch (IndexOutOfBoundsException | IllegalArgumentException | ArithmeticException | NegativeArraySizeException e) {
+            //A count, offset or length pointing outside the file, so the file has been cut short or damaged
+            throw new IOException(path + " is damaged", e);
+        }
+    }
+
+    /**Writes songs to a binary file, count must be the number of songs.
+     * The records and the name heap are written at the same time through two buffers at different positions in the file, so each name is only encoded once.
+    */
+    public static void write(Iterable<Song> songs, int count, Path path) throws IOException {
+        //First pass gives every artist an index and works out how big the artist table is
+        Map<String, Integer> artistIds = new HashMap<>();
+        List<byte[]> artistBytes = new ArrayList<>();
+        long artistTableBytes = 0;
+        for (Song song : songs) {
+            if(artistIds.containsKey(song.getArtist())) continue;
+
+            byte[] bytes = song.getArtist().getBytes(StandardCharsets.UTF_8);
+            artistIds.put(song.getArtist(), artistBytes.size());
+            artistBytes.add(bytes);
+            artistTableBytes += 4 + bytes.length;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+            buffer.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putInt(artistBytes.size()).putInt(count);
+
+            long position = 0;
+            for (byte[] bytes : artistBytes) {
+                position = put(channel, buffer, position, ByteBuffer.allocate(4).putInt(bytes.length).array());
+                position = put(channel, buffer, position, bytes);
+            }
+            position = flush(channel, buffer, position);
+
+            long heapPosition = HEADER_BYTES + artistTableBytes + (long) count * RECORD_BYTES;
+            ByteBuffer heap = ByteBuffer.allocate(BUFFER_BYTES);
+            int nameOffset = 0;
+            int written = 0;
+
+            for (Song song : songs) {
+                byte[] name = song.getName().getBytes(StandardCharsets.UTF_8);
+                if((long) nameOffset + name.length > Integer.MAX_VALUE) throw new IOException("Too many songs for the binary song format");
+
+                if(buffer.remaining() < RECORD_BYTES) position = flush(channel, buffer, position);
+                buffer.putInt(nameOffset).putInt(name.length).putInt(artistIds.get(song.getArtist())).putInt(song.getPlays());
+
+                heapPosition = put(channel, heap, heapPosition, name);
+                nameOffset += name.length;
+                written++;
+            }
+            if(written != count) throw new IllegalArgumentException("Expected " + count + " songs but was given " + written);
+
+            flush(channel, buffer, position);
+            flush(channel, heap, heapPosition);
+        }
+    }
+
+    /**Decodes a UTF-8 string of the given length from an absolute position without moving the buffer*/
+    private static String readString(ByteBuffer buffer, int position, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(position, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**Adds bytes to a buffer that is written to the file at the given position, flushing it whenever it fills up. Returns the new file position of the buffer*/
+    private static long put(FileChannel channel, ByteBuffer buffer, long position, byte[] bytes) throws IOException {
+        int offset = 0;
+        while(offset < bytes.length) {
+            if(!buffer.hasRemaining()) position = flush(channel, buffer, position);
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+        return position;
+    }
+
+    /**Writes out everything in a buffer at the given file position and empties it. Returns the position after the written bytes*/
+    private static long flush(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()) position += channel.write(buffer, position);
+        buffer.clear();
+        return position;
+    }
+}
@@ -0,0 +1,71 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**The individual slot operations that one command made to the library, in the order they were made.
+ * Undo used to keep a full copy of the song list from before every change, now only the songs that were actually touched are kept, so the cost of remembering a change is the size of the change rather than the size of the library.
+ * SongLibrary.revert() plays the operations backwards to undo the change and SongLibrary.reapply() plays them forwards again to redo it.
+*/
+public class SongChange {
+    /**What happened to a slot*/
+    public enum Kind { ADD, REMOVE, SET }
+
+    /**A single operation on a single slot. before is null for ADD and after is null for REMOVE*/
+    public static class Operation {
+        public final Kind kind;
+        public final int slot;
+        public final Song before;
+        public final Song after;
+
+        Operation(Kind kind, int slot, Song before, Song after) {
+            this.kind = kind;
+            this.slot = slot;
+            this.before = before;
+            this.after = after;
+        }
+    }
+
+    private final List<Operation> operations = new ArrayList<>(1); //Most commands only change one song
+    private long estimatedBytes = 0;
+
+    /**Records that a song was added in the slot*/
+    public void recordAdd(int slot, Song song) {
+        record(new Operation(Kind.ADD, slot, null, song));
+    }
+
+    /**Records that the song in the slot was removed*/
+    public void recordRemove(int slot, Song song) {
+        record(new Operation(Kind.REMOVE, slot, song, null));
+    }
+
+    /**Records that the song in the slot was replaced*/
+    public void recordSet(int slot, Song before, Song after) {
+        record(new Operation(Kind.SET, slot, before, after));
+    }
+
+    /**Returns the operations in the order they were made */
+    public List<Operation> getOperations() {
+        return operations;
+    }
+
+    /**Returns true if the command didn't change anything */
+    public boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    /**Returns a rough estimate of the heap kept alive by this change, used by UndoHistory to stay within its memory budget */
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**Adds an operation and its estimated size*/
+    private void record(Operation operation) {
+        operations.add(operation);
+        estimatedBytes += 32 + estimateBytes(operation.before) + estimateBytes(operation.after); //32 for the operation object and its slot in the list
+    }
+
+    /**Estimates the size of a song, its header and fields plus two strings with their backing arrays*/
+    private static long estimateBytes(Song song) {
+        if(song == null) return 0;
+        return 24 + 2 * 40 + song.getName().length() + song.getArtist().length();
+    }
+}
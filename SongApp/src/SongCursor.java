@@ -0,0 +1,16 @@
+/**Walks the songs of a library in list order, reading each field straight from the song store so that no Song objects have to be created.
+ * Call next() before reading the first song, it returns false once there are no songs left.
+*/
+public interface SongCursor {
+    /**Moves to the next song, returns false if there isn't one*/
+    boolean next();
+
+    /**Returns the name of the current song */
+    String getName();
+
+    /**Returns the artist of the current song */
+    String getArtist();
+
+    /**Returns the plays of the current song */
+    int getPlays();
+}
@@ -0,0 +1,120 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**Parses the contents of a text song file using every core.
+ * The file is cut into chunks that each end just after a line feed, so no line (and no UTF-8 character) is ever split between two chunks.
+ * The chunks are processed in parallel twice: first to count their lines, which tells each chunk where its songs start in the result, and then to parse their lines straight into those places in one shared array, so the chunks' results never have to be merged or copied.
+ * Lines are split exactly as String.lines() splits them, and if any line is invalid the exception thrown is the one for the first invalid line in the file, so the result is the same as parsing the file one line at a time.
+*/
+public class SongFileParser {
+    private static final int MIN_CHUNK_BYTES = 256 * 1024; //Below this, splitting the work up costs more than it saves
+    private static final int CHUNKS_PER_CORE = 4; //Some chunks take longer than others, a few per core keeps every core busy until the end
+
+    /**Parses every line of the file's contents into a Song, in file order.
+     * The list can't grow or shrink, copy it into another list if it needs to.
+    */
+    public static List<Song> parse(byte[] bytes) throws IOException {
+        int[] chunkStarts = chunkStarts(bytes);
+        int chunkCount = chunkStarts.length - 1;
+
+        //Counting lines is much cheaper than parsing them
+        int[] songStarts = new int[chunkCount + 1];
+        IntStream.range(0, chunkCount).parallel().forEach(chunk -> songStarts[chunk + 1] = countLines(bytes, chunkStarts[chunk], chunkStarts[chunk + 1]));
+        for (int chunk = 0; chunk < chunkCount; chunk++) songStarts[chunk + 1] += songStarts[chunk];
+
+        Song[] songs = new Song[songStarts[chunkCount]];
+        Exception[] failures = new Exception[chunkCount]; //The first invalid line of each chunk, if it has one
+        IntStream.range(0, chunkCount).parallel().forEach(chunk -> failures[chunk] = parseChunk(bytes, chunkStarts[chunk], chunkStarts[chunk + 1], songs, songStarts[chunk]));
+
+        //Every chunk before the first one that failed was valid, so its first invalid line is the file's first invalid line
+        for (Exception failure : failures) {
+            if(failure instanceof IOException e) throw e;
+            if(failure instanceof NumberFormatException e) throw e;
+        }
+        return Arrays.asList(songs);
+    }
+
+    /**Parses the file a line at a time, passing each Song to the consumer in file order, and returns the CRC32 of the file's contents (the same as SongJournal.checksum() of its bytes).
+     * Only one line is held at a time, so this is the way to read a file bigger than memory, at the cost of using a single core.
+     * Lines are split the same way as parse() splits them, and an invalid line throws the same exception, after the songs before it have been passed on.
+    */
+    public static long parse(Path path, Consumer<Song> consumer) throws IOException {
+        CRC32 crc = new CRC32();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new CheckedInputStream(Files.newInputStream(path), crc), StandardCharsets.UTF_8), 1 << 16)) {
+            SongLineParser parser = new SongLineParser();
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) consumer.accept(parser.parseOrThrow(line));
+        }
+        return crc.getValue(); //The reader has read to the end, so every byte has been counted
+    }
+
+    /**Returns where each chunk starts, followed by the length of the file*/
+    private static int[] chunkStarts(byte[] bytes) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int chunkBytes = (int) Math.max(MIN_CHUNK_BYTES, (long) bytes.length / ((long) cores * CHUNKS_PER_CORE));
+
+        int[] starts = new int[bytes.length / chunkBytes + 2];
+        int count = 1; //The first chunk starts at 0
+        int start = 0;
+        while(start < bytes.length) {
+            int end = (int) Math.min(bytes.length, (long) start + chunkBytes);
+            while(end < bytes.length && bytes[end - 1] != '\n') end++; //Moves the end to just after the next line feed
+            starts[count++] = end;
+            start = end;
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    /**Counts the lines in a chunk the way String.lines() would: \n, \r and \r\n each end a line, and text after the last line ending is a line of its own*/
+    private static int countLines(byte[] bytes, int start, int end) {
+        int lines = 0;
+        for (int i = start; i < end; i++) {
+            if(bytes[i] == '\n') lines++;
+            else if(bytes[i] == '\r') {
+                lines++;
+                if(i + 1 < end && bytes[i + 1] == '\n') i++;
+            }
+        }
+        if(end > start && bytes[end - 1] != '\n' && bytes[end - 1] != '\r') lines++;
+        return lines;
+    }
+
+    /**Parses a chunk's lines into songs, starting at index first.
+     * The lines are parsed straight from the bytes (see SongLineParser), split the same way countLines() counts them, so the chunk is never decoded into one big String.
+     * Stops at the first invalid line and returns its exception, or returns null if every line was valid.
+    */
+    private static Exception parseChunk(byte[] bytes, int start, int end, Song[] songs, int first) {
+        SongLineParser parser = new SongLineParser();
+        int index = first;
+        int lineStart = start;
+        while(lineStart < end) {
+            int lineEnd = lineStart;
+            while(lineEnd < end && bytes[lineEnd] != '\n' && bytes[lineEnd] != '\r') lineEnd++;
+
+            Song song = parser.parse(bytes, lineStart, lineEnd);
+            if(song == null) {
+                try {
+                    parser.throwProblem(new String(bytes, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8));
+                }
+                catch (IOException | NumberFormatException e) {
+                    return e;
+                }
+            }
+            songs[index++] = song;
+
+            //Past the line ending, \r\n being one ending
+            if(lineEnd < end && bytes[lineEnd] == '\r' && lineEnd + 1 < end && bytes[lineEnd + 1] == '\n') lineEnd++;
+            lineStart = lineEnd + 1;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,109 @@
+import java.util.Arrays;
+import java.util.function.IntFunction;
+
+/**Case-insensitive hash index from a song field (name or artist) to the slots of every song with that value.
+ * Replaces looping over the whole list to find a song, a lookup only looks at the songs whose value hashes to the same bucket.
+ * The index is built from int arrays rather than a map of objects, so it costs a few ints per song. It doesn't store the values themselves, they are read back from the song store through valueOfSlot when a candidate needs checking.
+ * Each bucket is a doubly linked chain of slots threaded through next and previous, so a slot can be unlinked without walking its chain (an artist's chain can be very long).
+*/
+public class SongIndex {
+    private static final int NONE = -1;
+
+    private final IntFunction<String> valueOfSlot;
+
+    private int[] buckets = new int[16]; //First slot in each chain
+    private int[] next = new int[16];
+    private int[] previous = new int[16];
+    private int[] hashes = new int[16]; //Hash of each slot's value, kept so the table can grow without reading every value back
+    private int count = 0;
+
+    /**Creates an empty index that reads the indexed value of a slot through valueOfSlot*/
+    public SongIndex(IntFunction<String> valueOfSlot) {
+        this.valueOfSlot = valueOfSlot;
+        Arrays.fill(buckets, NONE);
+    }
+
+    /**Records that the song in the slot has the value*/
+    public void add(String value, int slot) {
+        if(slot >= next.length) growSlots(slot + 1);
+        if(count + 1 > buckets.length * 3 / 4) growBuckets();
+
+        int hash = hash(value);
+        int bucket = hash & (buckets.length - 1);
+        hashes[slot] = hash;
+        previous[slot] = NONE;
+        next[slot] = buckets[bucket];
+        if(buckets[bucket] != NONE) previous[buckets[bucket]] = slot;
+        buckets[bucket] = slot;
+        count++;
+    }
+
+    /**Removes the slot from the index, it must have been added and not removed since*/
+    public void remove(int slot) {
+        if(previous[slot] != NONE) next[previous[slot]] = next[slot];
+        else buckets[hashes[slot] & (buckets.length - 1)] = next[slot];
+        if(next[slot] != NONE) previous[next[slot]] = previous[slot];
+        count--;
+    }
+
+    /**Returns the slots of every song with the value, ignoring case, in ascending order*/
+    public int[] find(String value) {
+        int hash = hash(value);
+        int[] found = new int[4];
+        int foundCount = 0;
+
+        for (int slot = buckets[hash & (buckets.length - 1)]; slot != NONE; slot = next[slot]) {
+            if(hashes[slot] != hash || !value.equalsIgnoreCase(valueOfSlot.apply(slot))) continue; //Another value in the same bucket
+
+            if(foundCount == found.length) found = Arrays.copyOf(found, foundCount * 2);
+            found[foundCount++] = slot;
+        }
+
+        found = Arrays.copyOf(found, foundCount);
+        Arrays.sort(found); //Chains are newest first, callers want list order
+        return found;
+    }
+
+    /**Removes everything from the index*/
+    public void clear() {
+        Arrays.fill(buckets, NONE);
+        count = 0;
+    }
+
+    /**Doubles the number of buckets and relinks every slot*/
+    private void growBuckets() {
+        int[] old = buckets;
+        buckets = new int[old.length * 2];
+        Arrays.fill(buckets, NONE);
+
+        for (int head : old) {
+            int slot = head;
+            while(slot != NONE) {
+                int following = next[slot];
+                int bucket = hashes[slot] & (buckets.length - 1);
+                previous[slot] = NONE;
+                next[slot] = buckets[bucket];
+                if(buckets[bucket] != NONE) previous[buckets[bucket]] = slot;
+                buckets[bucket] = slot;
+                slot = following;
+            }
+        }
+    }
+
+    /**Grows the per-slot arrays to fit at least the number of slots*/
+    private void growSlots(int slots) {
+        int capacity = Math.max(slots, next.length + (next.length >> 1));
+        next = Arrays.copyOf(next, capacity);
+        previous = Arrays.copyOf(previous, capacity);
+        hashes = Arrays.copyOf(hashes, capacity);
+    }
+
+    /**Case-insensitive hash, consistent with equalsIgnoreCase() and computed without making a lower case copy of the value*/
+    private static int hash(String value) {
+        int hash = 0;
+        for (int i = 0; i < value.length(); i++) {
+            hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(value.charAt(i)));
+        }
+        return hash ^ (hash >>> 16); //Spreads the high bits into the low bits used to pick a bucket
+    }
+}
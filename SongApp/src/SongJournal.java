@@ -0,0 +1,439 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**Append-only log of the changes made to the song list since it was last written out in full.
+ * Rewriting the entire song file after every add/remove/update meant a one song change cost as much as the size of the library, so changes are now appended here instead and folded into the song file every so often (see SongLibrary.compact()).
+ * The first line of the journal records the size and checksum of the song file it applies to. If the song file doesn't match, the journal belongs to an older version of the file (the program must have stopped after the new file was written but before the journal was cleared) and is ignored, so changes are never applied twice.
+ * Every record carries its own checksum, and anything after the first torn or damaged record is cut off, so a crash half-way through a write can only lose the change that was being written.
+ * The first line also holds the version of the song list the song file was written at, and every record moves the version on by one, so the journal's version (see getVersion()) says exactly which changes an instance of the program has seen.
+ * Other instances using the same song file append to the same journal, so before writing, SongLibrary checks that nobody has written since (see isCurrent()) and reads in other instances' records with readNew() rather than reloading everything.
+ * How soon written records are forced to the disk depends on the Durability the journal is opened with, see flush() and sync().
+*/
+public class SongJournal implements Closeable {
+    private static final String HEADER_PREFIX = "#snapshot";
+    private static final int MAX_PENDING_RECORDS = 10_000; //Beyond this, rewriting the song file is cheaper than journaling (and holding) every record
+
+    private boolean overflowed = false;
+
+    private final Path path;
+    private final Path tempPath;
+    private final Durability durability;
+    private FileChannel channel;
+
+    //The song file this journal applies to, and the version of the song list it was written at
+    private long snapshotSize;
+    private long snapshotChecksum;
+    private long baseVersion;
+
+    private long length = 0; //Bytes of the journal this object has written or read, anything past this was written by another instance
+    private int writtenCount = 0; //Records in the journal on disk, written here or read in from other instances
+
+    //Records waiting to be written, so that all the records of a single change reach the disk in one write
+    private final StringBuilder pending = new StringBuilder();
+    private int recordCount = 0;
+    private int pendingCount = 0;
+
+    //Bytes written by flush() over the life of this object and how many of them are known to be on the disk, neither goes back to 0 when the journal is replaced
+    //written is only changed under SongLibrary's write lock but read by sync() without it, synced is guarded by syncLock
+    private volatile long written = 0;
+    private long synced = 0;
+    private final Object syncLock = new Object();
+
+    /**Sets the path of the journal and how hard to work at getting records onto the disk, nothing is read or written until open() is called*/
+    public SongJournal(Path path, Durability durability) {
+        this.path = path;
+        this.tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        this.durability = durability;
+    }
+
+    /**The first line of a journal: the size and checksum of the song file it applies to and the version of the song list that file holds*/
+    public record Header(long snapshotSize, long snapshotChecksum, long version) {}
+
+    /**Opens the journal for the song file with the given size and checksum.
+     * If the journal belongs to that song file, its records are applied to songs (which holds the contents of the song file).
+     * Otherwise, a fresh journal is started.
+     * Returns the number of records that were applied.
+    */
+    public int open(List<Song> songs, long snapshotSize, long snapshotChecksum) throws IOException {
+        long readStart = System.nanoTime();
+        int applied = 0;
+        long validLength = -1; //Length of the journal up to the end of the last intact record, -1 if the journal has to be replaced
+        long freshVersion = 0; //Version to start a fresh journal at
+
+        if(Files.exists(path)) {
+            byte[] bytes = Files.readAllBytes(path);
+            Metrics.recordRead("read journal", bytes.length, readStart);
+            int lineEnd = indexOf(bytes, 0);
+            Header header = lineEnd == -1 ? null : parseHeader(new String(bytes, 0, lineEnd, StandardCharsets.UTF_8));
+
+            //A journal for another song file still moves the version on past every change it holds, so no instance that saw them can mistake the new file for one it already has
+            if(header != null) freshVersion = header.version() + countLines(bytes);
+
+            //Only replay the journal if it was written against the song file that is on disk now
+            if(header != null && header.snapshotSize() == snapshotSize && header.snapshotChecksum() == snapshotChecksum) {
+                baseVersion = header.version();
+                int start = lineEnd + 1;
+                validLength = start;
+
+                while((lineEnd = indexOf(bytes, start)) != -1) { //A record without a line ending is a torn write and is ignored
+                    if(!apply(songs, new String(bytes, start, lineEnd - start, StandardCharsets.UTF_8))) break;
+                    applied++;
+                    start = lineEnd + 1;
+                    validLength = start;
+                }
+            }
+        }
+
+        if(validLength == -1) {
+            startFresh(snapshotSize, snapshotChecksum, freshVersion);
+            return 0;
+        }
+
+        this.snapshotSize = snapshotSize;
+        this.snapshotChecksum = snapshotChecksum;
+        channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        channel.truncate(validLength); //Cuts off any damaged tail so that new records aren't appended after it
+        length = validLength;
+        recordCount = applied;
+        writtenCount = applied;
+        pending.setLength(0);
+        pendingCount = 0;
+        overflowed = false;
+        return applied;
+    }
+
+    /**Returns the version of the song list the journal on disk is at, as far as this object knows: the song file's version plus every record written or read since*/
+    public long getVersion() {
+        return baseVersion + writtenCount;
+    }
+
+    /**Returns the version the song list will be at once every record appended so far is written, which is the version of the list in memory*/
+    public long getPendingVersion() {
+        return baseVersion + recordCount;
+    }
+
+    /**Returns the header this journal was started with, or has read from another instance's journal*/
+    public Header getHeader() {
+        return new Header(snapshotSize, snapshotChecksum, baseVersion);
+    }
+
+    /**Returns true if records have been appended that haven't been written yet*/
+    public boolean hasPending() {
+        return pendingCount > 0 || overflowed;
+    }
+
+    /**Returns the header of the journal on disk, or null if there isn't a readable one*/
+    public Header readHeader() throws IOException {
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(256); //Far longer than any header
+            while(buffer.hasRemaining() && in.read(buffer) != -1) {
+                //Reads until full or the end of the file
+            }
+            byte[] bytes = Arrays.copyOf(buffer.array(), buffer.position());
+            int lineEnd = indexOf(bytes, 0);
+            return lineEnd == -1 ? null : parseHeader(new String(bytes, 0, lineEnd, StandardCharsets.UTF_8));
+        }
+        catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**Returns true if the journal on disk is exactly what this object last wrote or read, meaning no other instance has written to it since.
+     * The caller must hold the song file lock (see SongLibrary) so that nobody can write between this check and the caller's own write
+    */
+    public boolean isCurrent() throws IOException {
+        return Files.exists(path) && Files.size(path) == length && getHeader().equals(readHeader());
+    }
+
+    /**Applies the records other instances have added to the journal since this object last wrote or read it to songs, which must hold the song list as of getVersion().
+     * A torn record at the end (another instance stopped part way through writing it) is cut off.
+     * Returns false if a record couldn't be applied, in which case songs holds the records before it and the caller should load everything again instead.
+     * The caller must hold the song file lock, and there must be no records waiting to be written (see hasPending())
+    */
+    public boolean readNew(List<Song> songs) throws IOException {
+        long start = System.nanoTime();
+        long size = Files.size(path);
+        if(size < length) return false; //Replaced by a shorter journal, which readHeader() would have seen as a different one
+        if(size == length) return true;
+
+        byte[] bytes = new byte[(int) (size - length)];
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while(buffer.hasRemaining() && in.read(buffer, length + buffer.position()) != -1) {
+                //Reads until the end of what was there when we looked
+            }
+        }
+        Metrics.recordRead("read journal", bytes.length, start);
+
+        int lineStart = 0;
+        int lineEnd;
+        while((lineEnd = indexOf(bytes, lineStart)) != -1) {
+            if(!apply(songs, new String(bytes, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8))) return false;
+            length += lineEnd + 1 - lineStart;
+            recordCount++;
+            writtenCount++;
+            lineStart = lineEnd + 1;
+        }
+        if(lineStart < bytes.length) channel.truncate(length); //Nobody else can be writing while we hold the lock, so the rest is a torn write
+        return true;
+    }
+
+    /**Switches to a journal another instance has started for a new song file it wrote (see SongLibrary.refreshIfChanged()), without reading the song file.
+     * Only correct if the header's version is this journal's version, so the new song file holds exactly the songs already in memory
+    */
+    public void adopt(Header header) throws IOException {
+        close();
+        snapshotSize = header.snapshotSize();
+        snapshotChecksum = header.snapshotChecksum();
+        baseVersion = header.version();
+        channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        length = (header(snapshotSize, snapshotChecksum, baseVersion) + "\n").getBytes(StandardCharsets.UTF_8).length;
+        recordCount = 0;
+        writtenCount = 0;
+    }
+
+    /**Records that a song was added to the end of the list*/
+    public void appendAdd(Song song) {
+        append("A\t" + encode(song));
+    }
+
+    /**Records that the song at the index was removed*/
+    public void appendRemove(int index) {
+        append("D\t" + index);
+    }
+
+    /**Records that a song was inserted at the index, as done when a removal is undone*/
+    public void appendInsert(int index, Song song) {
+        append("I\t" + index + "\t" + encode(song));
+    }
+
+    /**Records that the song at the index was replaced*/
+    public void appendSet(int index, Song song) {
+        append("S\t" + index + "\t" + encode(song));
+    }
+
+    /**Returns true if more records were appended since the last flush than are worth journaling.
+     * The pending records have been dropped, so the caller has to write out the whole song file instead (see SongLibrary.flush()).
+    */
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    /**Writes all records appended since the last flush to the journal in a single write.
+     * With fsync durability the records are forced to the disk before this returns. Otherwise they have only been handed to the operating system, and with group durability the caller should call sync() once it has let go of its locks.
+    */
+    public void flush() throws IOException {
+        if(overflowed) throw new IllegalStateException("Journal records were dropped, the song file has to be rewritten instead");
+        if(pending.length() == 0) return;
+
+        long start = System.nanoTime();
+        ByteBuffer buffer = ByteBuffer.wrap(pending.toString().getBytes(StandardCharsets.UTF_8));
+        while(buffer.hasRemaining()) channel.write(buffer, length + buffer.position()); //Written at the end as we know it, which isCurrent() has checked is the real end
+        Metrics.recordWrite("write journal", buffer.capacity(), start);
+        length += buffer.capacity();
+        written += buffer.capacity();
+        writtenCount = recordCount;
+        pending.setLength(0);
+        pendingCount = 0;
+
+        if(durability == Durability.FSYNC) sync();
+    }
+
+    /**Waits until every record flushed so far, by any thread, is on the disk. Does nothing with none durability.
+     * This is group commit: while one thread is forcing the journal, others can flush their records and queue up here, and the next force then takes all of theirs to the disk at once, so each of them waits for one force rather than for one each.
+     * That only works if the callers aren't holding SongLibrary's write lock while they wait, which would stop the others flushing
+    */
+    public void sync() throws IOException {
+        if(!durability.forcesChanges()) return;
+
+        long target = written;
+        synchronized (syncLock) {
+            if(synced >= target || channel == null) return; //Forced by somebody else while we queued (or already by close())
+
+            long upTo = written; //Everything flushed up to now, including records flushed by others while we queued
+            long start = System.nanoTime();
+            channel.force(false);
+            Metrics.recordSync("sync journal", start);
+            synced = upTo;
+        }
+    }
+
+    /**Returns the number of records in the journal, including those that haven't been flushed yet */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**Writes an empty journal for the song file with the given size and checksum, holding the song list at the given version, to a temporary file.
+     * finishReset() then puts it in place, this is split in two so the new song file can be moved into place in between.
+    */
+    public void beginReset(long snapshotSize, long snapshotChecksum, long version) throws IOException {
+        Files.writeString(tempPath, header(snapshotSize, snapshotChecksum, version) + "\n", StandardCharsets.UTF_8);
+        this.snapshotSize = snapshotSize;
+        this.snapshotChecksum = snapshotChecksum;
+        baseVersion = version;
+    }
+
+    /**Replaces the journal with the one written by beginReset()*/
+    public void finishReset() throws IOException {
+        close();
+        durability.replace(tempPath, path);
+        channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        length = Files.size(path);
+        pending.setLength(0);
+        recordCount = 0;
+        writtenCount = 0;
+        pendingCount = 0;
+        overflowed = false;
+    }
+
+    /**Closes the journal file, forcing flushed records to the disk first if the durability asks for it. Unflushed records are discarded*/
+    @Override
+    public void close() throws IOException {
+        sync();
+        synchronized (syncLock) {
+            if(channel != null) channel.close();
+            channel = null;
+            synced = written; //Nothing more can be forced through this file, and the next one starts from here
+        }
+    }
+
+    /**Computes the checksum used for the song file and for each record*/
+    public static long checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    /**Starts a new, empty journal for the given song file*/
+    private void startFresh(long snapshotSize, long snapshotChecksum, long version) throws IOException {
+        beginReset(snapshotSize, snapshotChecksum, version);
+        finishReset();
+    }
+
+    /**Adds a record and its checksum to the pending writes*/
+    private void append(String record) {
+        recordCount++;
+        if(overflowed) return;
+
+        if(++pendingCount > MAX_PENDING_RECORDS) {
+            //A bulk change such as an import, stop buffering and let the song file be rewritten instead
+            overflowed = true;
+            pending.setLength(0);
+            return;
+        }
+        pending.append(record).append('\t').append(Long.toHexString(checksum(record.getBytes(StandardCharsets.UTF_8)))).append('\n');
+    }
+
+    /**Applies a single record to the song list.
+     * Returns false if the record is damaged or doesn't fit the list, in which case replay stops there.
+    */
+    private static boolean apply(List<Song> songs, String line) {
+        int checksumStart = line.lastIndexOf('\t');
+        if(checksumStart == -1) return false;
+
+        String record = line.substring(0, checksumStart);
+        if(!line.substring(checksumStart + 1).equals(Long.toHexString(checksum(record.getBytes(StandardCharsets.UTF_8))))) return false;
+
+        String[] fields = record.split("\t", -1);
+        try {
+            switch(fields[0]) {
+                case "A":
+                    songs.add(decode(fields, 1));
+                    return true;
+                case "D":
+                    songs.remove(Integer.parseInt(fields[1]));
+                    return true;
+                case "I":
+                    songs.add(Integer.parseInt(fields[1]), decode(fields, 2));
+                    return true;
+                case "S":
+                    songs.set(Integer.parseInt(fields[1]), decode(fields, 2));
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        catch (RuntimeException e) {
+            //Wrong number of fields, bad number or an index outside the list, none of which a record we wrote would contain
+            return false;
+        }
+    }
+
+    /**Returns the first line of a journal belonging to the given song file*/
+    private static String header(long snapshotSize, long snapshotChecksum, long version) {
+        return HEADER_PREFIX + " " + snapshotSize + " " + Long.toHexString(snapshotChecksum) + " " + version;
+    }
+
+    /**Reads the first line of a journal, or returns null if it isn't one. Journals from before versions were added have none, which counts as version 0*/
+    private static Header parseHeader(String line) {
+        String[] fields = line.split(" ");
+        if((fields.length != 3 && fields.length != 4) || !fields[0].equals(HEADER_PREFIX)) return null;
+        try {
+            return new Header(Long.parseLong(fields[1]), Long.parseUnsignedLong(fields[2], 16), fields.length == 4 ? Long.parseLong(fields[3]) : 0);
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**Returns the number of line endings in the bytes*/
+    private static int countLines(byte[] bytes) {
+        int lines = 0;
+        for (byte b : bytes) {
+            if(b == '\n') lines++;
+        }
+        return lines;
+    }
+
+    /**Formats a song as tab-separated fields*/
+    private static String encode(Song song) {
+        return escape(song.getName()) + "\t" + escape(song.getArtist()) + "\t" + song.getPlays();
+    }
+
+    /**Rebuilds a song from the fields starting at the offset*/
+    private static Song decode(String[] fields, int offset) {
+        if(fields.length != offset + 3) throw new IllegalArgumentException();
+        return new Song(unescape(fields[offset]), unescape(fields[offset + 1]), Integer.parseInt(fields[offset + 2]));
+    }
+
+    /**Escapes the characters that separate fields and records*/
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    /**Reverses escape()*/
+    private static String unescape(String value) {
+        if(value.indexOf('\\') == -1) return value;
+
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if(c == '\\' && i + 1 < value.length()) {
+                c = value.charAt(++i);
+                if(c == 't') c = '\t';
+                else if(c == 'n') c = '\n';
+                else if(c == 'r') c = '\r';
+            }
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    /**Returns the index of the next line ending at or after start, or -1 if there isn't one*/
+    private static int indexOf(byte[] bytes, int start) {
+        for (int i = start; i < bytes.length; i++) {
+            if(bytes[i] == '\n') return i;
+        }
+        return -1;
+    }
+}
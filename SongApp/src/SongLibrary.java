@@ -0,0 +1,1503 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**Keeps the song list resident in memory for the whole lifetime of the program.
+ * Previously every command re-read and re-parsed the song file, which meant the cost of a single command grew with the size of the library.
+ * The file is now only parsed again when its modification time or size no longer match what this object last loaded or wrote, which only happens if someone edits the file by hand while the program is running.
+ * Changes go through add(), remove() and set() so they can be recorded in the journal and in the SongChange handed to the undo history by commit(), the song file itself is only rewritten by compact(), which runs in the background every so often and when the program shuts down.
+ * Songs are kept in slots. Removing a song empties its slot instead of shifting every later song down (slots are never reused, which is what lets undo put a song back exactly where it was), and the name and artist indexes map straight to slots, so finding and removing a song no longer involves looping over the list.
+ * A song's position in the list (which is what the journal and the commands deal in) is worked out from its slot with a RankTree.
+ * Slots are also kept sorted by play count in a PlayCountIndex for the play count queries.
+ * The songs themselves are held in a SongStore, by default a ColumnarSongStore, so commands that only need a field or two should read through cursor() rather than getSongs(), which has to create a Song object for each song.
+ * Every method is safe to call from several threads at once (the server mode has one per client). Reads and compaction share a read lock and changes take a write lock, so readers only ever wait for changes.
+ * Several copies of the program (on this computer, or sharing the folder) can use the same song file. Every write to it or its journal happens under a lock on a .lock file next to it, and only if the journal is still at the version this copy last saw (see flush()).
+ * The folder is watched for changes, and another copy's changes are read in from the journal when the next command starts rather than by loading everything again (see refreshIfChanged()).
+ * Whether saved changes are also forced to the disk before a command finishes is set by the Durability chosen with the songapp.durability system property (see flush() and sync()).
+ * Plays reported with recordPlays() are only counted to begin with, and added to the songs' play counts every second and before every command (see mergePlays()).
+ * For libraries bigger than the heap, songapp.storage=paged keeps the songs on disk in a PagedSongStore instead. The indexes would then take more memory than is left, so none of them are kept: lookups look at every song (see SongScans), positions come from the store, and the file is loaded a line at a time rather than read whole (see isPaged()).
+*/
+public class SongLibrary implements Closeable {
+    private static final int COMPACTION_RECORD_THRESHOLD = 1000; //Journal length at which the song file is rewritten straight away
+    private static final long COMPACTION_INTERVAL_MILLIS = 30_000; //Otherwise any outstanding changes are written out after this long
+    private static final long COMPACTION_CHECK_SECONDS = 5;
+    private static final long PLAY_MERGE_MILLIS = 1000; //How often counted plays are added to the songs when no command comes along to do it sooner
+    private static final int PLAYED_SLOTS_CACHED = 4096; //How many song names recordPlays() remembers the slot of when the songs are kept on disk
+
+    private final Path path;
+    private final Path tempPath;
+    private final Durability durability;
+    private final SongJournal journal;
+    private final ScheduledExecutorService compactor;
+
+    private final List<Song> view = new SongView(); //Read-only view handed out to the commands so that every change has to go through this class
+
+    private SongStore store;
+    private PagedSongStore pages; //The same store when the songs are kept on disk, null otherwise
+    private RankTree ranks; //Null when the songs are kept on disk, the store works out positions itself
+    private int size;
+    private final SongIndex names = new SongIndex(slot -> store.getName(slot));
+    private final SongIndex artists = new SongIndex(slot -> store.getArtist(slot));
+    private final PlayCountIndex playCounts = new PlayCountIndex();
+    private final LibraryStats stats = new LibraryStats(); //Totals for stats, artist_totals, top_artists and plays_histogram, kept up to date with every change (the per-artist ones once first asked for)
+
+    //Names and artists in alphabetical order for completion, only built the first time someone asks for a completion since most sessions never do (see complete())
+    private CompletionIndex nameCompletions;
+    private CompletionIndex artistCompletions;
+    //Readers can ask at the same time, only one of them should build each of the completion and search indexes and the artist totals
+    //One lock for each, so that someone who needs one of them never waits for another to be built
+    private final Object completionBuildLock = new Object();
+    private final Object searchBuildLock = new Object();
+    private final Object artistBuildLock = new Object();
+
+    //Words in names and artists for searching, built the first time someone searches like the completion indexes, and thrown away to be built again when too much of it is out of date (see SearchIndex)
+    private SearchIndex searchIndex;
+    private BitSet changedSinceCopy; //Slots changed since warmUp() copied the songs to build an index from, null when it isn't building one
+    private int loadCount; //Goes up every time the songs are loaded again, after which an index warmUp() is building from a copy of the old ones is no use
+
+    /**Puts an index warmUp() built from a copy of the songs in place, after taking the songs in the changed slots of the copy out of it and adding the library's*/
+    private interface WarmedUp<T> {
+        void use(T built, SongStore copy, BitSet changed);
+    }
+
+    private boolean binary; //Whether the song file is in SongBinaryFormat rather than text, compaction writes it back in the same format
+
+    private SongChange pending = new SongChange(); //Operations made since the last commit
+    private final PlayCounter plays = new PlayCounter(); //Plays recorded but not yet added to the songs, by slot
+    private final List<SongPlays> unsavedPlays = new ArrayList<>(); //Plays merged into a batch of changes that hasn't been written yet, by song, so a reload that throws the batch away can count them again (see mergePlays())
+
+    //Plays for a song, named rather than given by slot, so they can be found again once the songs are in different slots
+    private record SongPlays(String name, String artist, long plays) {}
+
+    //The first slot holding each song name recordPlays() has been asked for (or -1 if none does), by the name in lower case, only used when the songs are kept on disk where finding a name means looking at every song
+    //Accessed in order so the least recently played names are forgotten first, a name is forgotten as soon as a song with it is added or removed (see index()), so what's here is always right
+    private final Map<String, Integer> playedSlots = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > PLAYED_SLOTS_CACHED;
+        }
+    };
+
+    //Stamp of the file as it was when last loaded or written, used to detect outside changes
+    //Volatile since compactions update them while other threads may be checking them (see refreshIfChanged())
+    private volatile long lastModified = -1;
+    private volatile long lastSize = -1;
+    private long lastCompaction = System.currentTimeMillis();
+
+    //Reads share the read lock so they never wait for each other, changes take the write lock (see readLock() and writeLock())
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock readLock = lock.readLock();
+    private final Lock writeLock = lock.writeLock();
+    private final Lock compactionLock = new ReentrantLock();
+
+    //Lock on the .lock file next to the song file, shared with other copies of the program (see lockFile()). The song file and journal are replaced when compacted, so can't be locked themselves
+    private final FileChannel lockChannel;
+    private final ReentrantLock fileLockHolder = new ReentrantLock(); //The operating system lock belongs to the whole program, so threads take turns holding it through this
+    private FileLock fileLock;
+
+    //Reads in other copies' changes as soon as they're written, null if the folder can't be watched, in which case they're only read in when the next command starts
+    private final WatchService watcher;
+
+    /**Loads the library from the specified file, replaying any changes from its journal*/
+    public SongLibrary(Path path) throws IOException {
+        this.path = path;
+        this.tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        this.durability = Durability.fromProperty();
+        this.journal = new SongJournal(path.resolveSibling(path.getFileName() + ".journal"), durability);
+        this.lockChannel = FileChannel.open(path.resolveSibling(path.getFileName() + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        load();
+        watcher = watchFolder();
+
+        //Daemon thread so it never keeps the program alive by itself
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "song-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(this::compactInBackground, COMPACTION_CHECK_SECONDS, COMPACTION_CHECK_SECONDS, TimeUnit.SECONDS);
+        compactor.scheduleWithFixedDelay(this::mergePlaysInBackground, PLAY_MERGE_MILLIS, PLAY_MERGE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**Returns a read-only view of the songs currently held in memory */
+    public List<Song> getSongs() {
+        return view;
+    }
+
+    //The orders forEachSong() can list songs in, list being the order they were added in
+    public static final List<String> SORT_ORDERS = List.of("list", "name", "artist", "plays");
+
+    /**Receives songs one at a time without a Song being made for each, see forEachSong()*/
+    public interface SongVisitor {
+        void visit(String name, String artist, int plays);
+    }
+
+    /**Returns a cursor over the songs in list order.
+     * The library must not be changed while the cursor is in use, so callers should hold readLock() until they are done with it.
+    */
+    public SongCursor cursor() {
+        return new SongCursor() {
+            private int slot = -1;
+
+            @Override
+            public boolean next() {
+                do slot++; while(slot < store.slotCount() && !store.isUsed(slot));
+                return slot < store.slotCount();
+            }
+
+            @Override
+            public String getName() {
+                return store.getName(slot);
+            }
+
+            @Override
+            public String getArtist() {
+                return store.getArtist(slot);
+            }
+
+            @Override
+            public int getPlays() {
+                return store.getPlays(slot);
+            }
+        };
+    }
+
+    /**Passes up to count songs to the visitor in the order ("list", "name", "artist" or "plays", see SORT_ORDERS), starting from the from'th song in that order (counting from 0).
+     * Every order comes from an index that's already sorted (the completion indexes for name and artist, the play count index for plays), so nothing is sorted here and a page from part way through costs about as much as the first one.
+     * When the songs are kept on disk there are no such indexes, so every song is looked at to find the page instead (see SongScans.forEachSorted()).
+     * Names and artists that are the same apart from case, and songs with the same plays, stay in list order. Descending reverses the whole order, ties included.
+     * Holds the read lock throughout, so the visitor shouldn't be slow (output is buffered, see OutputSink)
+    */
+    public void forEachSong(String order, boolean descending, int from, int count, SongVisitor visitor) {
+        readLock.lock();
+        try {
+            IntConsumer visit = slot -> visitor.visit(store.getName(slot), store.getArtist(slot), store.getPlays(slot));
+            if(pages != null && !order.equals("list")) {
+                SongScans.forEachSorted(store, order, descending, from, count, visit);
+                return;
+            }
+            switch(order) {
+                case "name" -> {
+                    buildCompletions();
+                    nameCompletions.forEachFromRank(from, count, descending, visit);
+                }
+                case "artist" -> {
+                    buildCompletions();
+                    artistCompletions.forEachFromRank(from, count, descending, visit);
+                }
+                case "plays" -> playCounts.forEachFromRank(from, count, descending, visit);
+                default -> forEachInListOrder(from, count, descending, visit);
+            }
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**Returns the number of songs with between min and max plays (both inclusive), counted from the play count index without visiting them*/
+    public int countPlaysBetween(int min, int max) {
+        readLock.lock();
+        try {
+            if(min > max) return 0;
+            if(pages != null) return SongScans.countPlaysBetween(store, min, max);
+            return playCounts.countAtMost(max) - playCounts.countBelow(min);
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**Passes up to count of the songs with between min and max plays (both inclusive) to the visitor, in ascending order of plays (list order if the songs are kept on disk), starting from the from'th of them (counting from 0)*/
+    public void forEachPlaysBetween(int min, int max, int from, int count, SongVisitor visitor) {
+        readLock.lock();
+        try {
+            if(pages != null) {
+                SongScans.forEachPlaysBetween(store, min, max, from, count, slot -> visitor.visit(store.getName(slot), store.getArtist(slot), store.getPlays(slot)));
+                return;
+            }
+            int matching = countPlaysBetween(min, max);
+            if(from >= matching) return;
+            playCounts.forEachFromRank(playCounts.countBelow(min) + from, Math.min(count, matching - from), false, slot -> visitor.visit(store.getName(slot), store.getArtist(slot), store.getPlays(slot)));
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**Returns the lock that every read of the library takes.
+     * Any number of threads can hold it at once, so readers never wait for each other, only for a change to finish.
+     * Callers that make several reads which have to agree with each other (such as walking a cursor) should hold it around all of them.
+    */
+    public Lock readLock() {
+        return readLock;
+    }
+
+    /**Returns the lock that every change to the library takes, only one thread can hold it and only while nobody holds readLock().
+     * Callers that look something up and then change it (such as removing a song by name) should hold it around both, so nobody else can change the library in between.
+    */
+    public Lock writeLock() {
+        return writeLock;
+    }
+
+    /**Returns true if the songs are kept on disk in a PagedSongStore rather than in memory*/
+    public boolean isPaged() {
+        return pages != null;
+    }
+
+    /**Returns how much of the page cache's budget the songs kept on disk are using, and the budget, both in bytes. Only for a paged library (see isPaged())*/
+    public long[] getPageCacheBytes() {
+        return new long[] {pages.getCachedBytes(), pages.getBudget()};
+    }
+
+    /**Returns how hard the library works to get saved changes onto the disk*/
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**Returns the path of the file backing this library */
+    public Path getPath() {
+        return path;
+    }
+
+    /**Brings the library up to date with changes made to the song file or journal by another copy of the program, or by hand, called before every command.
+     * Usually the watcher thread has already read another copy's changes in (see watchFolder()), so this only has to check that nothing has changed since, which is a look at the size and time of the two files.
+     * Anything the watcher couldn't apply (the file edited by hand, or changes that don't follow on from ours) means the whole file is loaded again.
+     * Returns true only if the whole file was loaded again, in which case recorded changes no longer line up with the songs and can't be undone.
+    */
+    public boolean refreshIfChanged() throws IOException {
+        //Checked under the read lock, since the write lock would hold up every reader on every command
+        readLock.lock();
+        try {
+            lockFile();
+            try {
+                if(!changedOnDisk() && journal.isCurrent()) return false;
+            }
+            finally {
+                unlockFile();
+            }
+        }
+        finally {
+            readLock.unlock();
+        }
+
+        writeLock.lock();
+        try {
+            lockFile();
+            try {
+                return catchUp(true);
+            }
+            finally {
+                unlockFile();
+            }
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**Returns the number of songs */
+    public int size() {
+        readLock.lock();
+        try {
+            return size;
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**Returns the position of the first song with the name, or -1 if there isn't one.
+     * Whether the name has to match exactly or can differ in case is decided by ignoreCase.
+    */
+    public int indexOf(String name, boolean ignoreCase) {
+        readLock.lock();
+        try {
+            //The index ignores case, so an exact match still has to check each candidate
+            for (int slot : findSlots(names, name)) {
+                if(ignoreCase || store.getName(slot).equals(name)) return rankOf(slot);
+            }
+            return -1;
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**Returns every song with the name, ignoring case, in list order*/
+    public List<Song> findByName(String name) {
+        readLock.lock();
+        try {
+            return songsInSlots(findSlots(names, name));
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**Returns every song by the artist, ignoring case, in list order*/
+    public List<Song> findByArtist(String artist) {
+        readLock.lock();
+        try {
+            return songsInSlots(findSlots(artists, artist));
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**Returns the count most played songs, most played first*/
+    public List<Song> topByPlays(int count) {
+        readLock.lock();
+        try {
+            List<Song> found = new ArrayList<>(Math.min(count, size));
+            if(pages != null) SongScans.forEachTop(store, count, slot -> found.add(store.get(slot)));
+            else playCounts.forEachTop(count, slot -> found.add(store.get(slot)));
+            return found;
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**Returns up to limit distinct song names starting with the prefix, ignoring case, in alphabetical order.
+     * Nothing is completed when the songs are kept on disk, since there's no memory for the index and looking at every song on every key press would be too slow
+    */
+    public List<String> completeNames(String prefix, int limit) {
+        readLock.lock();
+        try {
+            if(pages != null) return List.of();
+            buildCompletions();
+            return nameCompletions.complete(prefix, limit);
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**Returns up to limit distinct artists starting with the prefix, ignoring case, in alphabetical order, nothing when the songs are kept on disk (see completeNames())*/
+    public List<String> completeArtists(String prefix, int limit) {
+        readLock.lock();
+        try {
+            if(pages != null) return List.of();
+            buildCompletions();
+            return artistCompletions.complete(prefix, limit);
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**Returns up to limit songs matching any of the words in the text, allowing for small spelling mistakes, best match first (see SearchIndex).
+     * When the songs are kept on disk, it's instead the first songs whose name or artist contains the text (see SongScans.search())
+    */
+    public List<Song> search(String text, int limit) {
+        readLock.lock();
+        try {
+            if(pages != null) return songsInSlots(SongScans.search(store, text, limit));
+            buildSearchIndex();
+            return songsInSlots(searchIndex.search(text, limit, names.find(text.strip())));
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**Builds the completion and search indexes and the artist totals now, rather than the first time someone asks for them, for a background thread to call once the library has loaded (see Main.startLoadingLibrary()).
+     * Each is built from a copy of the songs without holding the lock, so changing songs doesn't wait for it (and nor does reading, which would otherwise queue up behind the change).
+     * It's then put in place under the write lock, which is only held long enough to catch it up with the slots changed while it was being built.
+     * A command that needs an index before it's in place builds it itself, as if it had been the first to ask. Does nothing when the songs are kept on disk, where there are no such indexes (see SongScans)
+    */
+    public void warmUp() {
+        warmUp(searchBuildLock, () -> searchIndex != null, SearchIndex::new, (built, copy, changed) -> {
+            forEachUsed(changed, copy, built::remove);
+            built.readFrom(store);
+            forEachUsed(changed, store, built::add);
+            searchIndex = built;
+        });
+        warmUp(completionBuildLock, () -> artistCompletions != null, SongLibrary::completionsOf, (built, copy, changed) -> {
+            forEachUsed(changed, copy, slot -> {
+                built[0].remove(slot);
+                built[1].remove(slot);
+            });
+            built[0].readFrom(slot -> store.getName(slot));
+            built[1].readFrom(slot -> store.getArtist(slot));
+            forEachUsed(changed, store, slot -> {
+                built[0].add(slot);
+                built[1].add(slot);
+            });
+            nameCompletions = built[0];
+            artistCompletions = built[1]; //Set last, it's what buildCompletions() looks at
+        });
+        warmUp(artistBuildLock, stats::hasArtists, LibraryStats::recompute, (built, copy, changed) -> {
+            forEachUsed(changed, copy, slot -> built.remove(copy.getArtist(slot), copy.getPlays(slot)));
+            forEachUsed(changed, store, slot -> built.add(store.getArtist(slot), store.getPlays(slot)));
+            stats.useArtists(built);
+        });
+    }
+
+    /**Builds one index for warmUp() with build from a copy of the store taken under the read lock, then hands it to use under the write lock, unless someone built it first.
+     * If the songs were loaded again in the meantime, the copy is of songs the library no longer has, so it starts again from the new ones
+    */
+    private <T> void warmUp(Object buildLock, BooleanSupplier isBuilt, Function<SongStore, T> build, WarmedUp<T> use) {
+        while(true) {
+            SongStore copy;
+            int copiedAt;
+            readLock.lock();
+            try {
+                if(pages != null) return;
+                synchronized (buildLock) { //A command that needed it may have built it already
+                    if(isBuilt.getAsBoolean()) return;
+                }
+                copy = store.copy();
+                copiedAt = loadCount;
+                changedSinceCopy = new BitSet(); //Only written under the write lock from here on, which can't be held while this is
+            }
+            finally {
+                readLock.unlock();
+            }
+
+            T built = build.apply(copy);
+
+            writeLock.lock();
+            try {
+                BitSet changed = changedSinceCopy;
+                changedSinceCopy = null;
+                if(isBuilt.getAsBoolean()) return; //Built by a command that needed it in the meantime
+                if(loadCount == copiedAt) {
+                    use.use(built, copy, changed);
+                    return;
+                }
+            }
+            finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    /**Passes each of the slots that holds a song in the store, slots past the end of it (added after a copy was made) are skipped*/
+    private static void forEachUsed(BitSet slots, SongStore store, IntConsumer action) {
+        for (int slot = slots.nextSetBit(0); slot >= 0 && slot < store.slotCount(); slot = slots.nextSetBit(slot + 1)) {
+            if(store.isUsed(slot)) action.accept(slot);
+        }
+    }
+
+    /**Returns the number of songs, the number of artists and the total, fewest, median and most plays, in that order, or null if there are no songs.
+     * The number of artists is -1 when the songs are kept on disk, counting them takes memory for every artist (see artistTotals())
+    */
+    public long[] summary() {
+        readLock.lock();
+        try {
+            if(size == 0) return null;
+            int[] plays = playsAtRanks(0, (size - 1) / 2, size - 1);
+            if(pages != null) return new long[] {stats.getSongCount(), -1, stats.getTotalPlays(), plays[0], plays[1], plays[2]};
+
+            buildArtists();
+            return new long[] {stats.getSongCount(), stats.getArtistCount(), stats.getTotalPlays(), plays[0], plays[1], plays[2]};
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**Returns every artist's number of songs and total plays, in alphabetical order.
+     * Not for a paged library (see isPaged()), the totals are kept for every artist at once and a library bigger than memory can have more artists than fit
+    */
+    public List<LibraryStats.ArtistTotal> artistTotals() {
+        readLock.lock();
+        try {
+            buildArtists();
+            return stats.getArtistTotals();
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**Returns the count artists with the most plays over all their songs, most played first, not for a paged library (see artistTotals())*/
+    public List<LibraryStats.ArtistTotal> topArtists(int count) {
+        readLock.lock();
+        try {
+            synchronized (artistBuildLock) { //Also builds the artists by plays the first time
+                stats.buildArtists(store);
+                return stats.getTopArtists(count);
+            }
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**Returns how many songs there are with each range of play counts (see LibraryStats.HISTOGRAM_BUCKETS)*/
+    public long[] playsHistogram() {
+        readLock.lock();
+        try {
+            return stats.getHistogram();
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**Returns the play count that the percentage of songs have at most (the nearest rank percentile), or -1 if there are no songs*/
+    public int playsAtPercentile(double percent) {
+        readLock.lock();
+        try {
+            if(size == 0) return -1;
+            int rank = (int) Math.ceil(percent / 100 * size) - 1;
+            return playsAtRanks(Math.max(0, Math.min(size - 1, rank)))[0];
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**Works out the totals again from every song, in parallel, and returns every way the running totals differ from them (an empty list if they agree)*/
+    public List<String> checkStats() {
+        readLock.lock();
+        try {
+            List<String> differences = stats.checkAgainst(LibraryStats.recompute(store, pages == null)); //The per-artist totals are never worked out when the songs are kept on disk
+            if(stats.getSongCount() != size) differences.add("Songs: " + stats.getSongCount() + " but the library holds " + size);
+            return differences;
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**Adds a song to the end of the list*/
+    public void add(Song song) {
+        writeLock.lock();
+        try {
+            int slot = store.append(null);
+            fillSlot(slot, song);
+            pending.recordAdd(slot, song);
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**Removes the song at the index*/
+    public void remove(int index) {
+        writeLock.lock();
+        try {
+            int slot = slotOf(index);
+            pending.recordRemove(slot, store.get(slot));
+            emptySlot(slot);
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**Replaces the song at the index*/
+    public void set(int index, Song song) {
+        writeLock.lock();
+        try {
+            int slot = slotOf(index);
+            pending.recordSet(slot, store.get(slot), song);
+            replaceSlot(slot, song);
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**Counts plays of the first song with the name (ignoring case), returning false if there isn't one.
+     * Only the read lock is taken, so any number of threads can record plays at once, alongside any other reader (see PlayCounter). The plays are added to the song's play count and saved by mergePlays(), which happens before the next command, so every command sees the plays recorded before it
+    */
+    public boolean recordPlays(String name, int count) {
+        readLock.lock();
+        try {
+            int slot = pages == null ? firstSlot(findSlots(names, name)) : playedSlot(name);
+            if(slot == -1) return false;
+            plays.add(slot, count);
+            return true;
+        }
+        finally {
+            readLock.unlock();
+        }
+    }
+
+    /**Returns the number of plays recorded but not yet added to the songs*/
+    public long getWaitingPlays() {
+        return plays.getWaitingPlays();
+    }
+
+    /**Adds the plays counted by recordPlays() to the songs' play counts and writes them to the journal, in one write however many songs were played.
+     * Merged plays don't go into anybody's undo history, a play isn't something to take back. Play counts stop at the largest int rather than wrapping round.
+     * If changes are waiting to be written (a script only writes its changes at the end, and a command at the console doesn't hold the write lock between its steps), the plays join them and are written when they are, so later commands still see them. Should that batch be thrown away because another copy saved first, the plays are counted again once the song file has been loaded (see load()).
+     * If the song file needs loading again, nothing is merged and the plays wait for the next time
+    */
+    public void mergePlays() throws IOException {
+        if(plays.isEmpty()) return; //Without the write lock, so commands only pay for merging when there's something to merge
+
+        writeLock.lock();
+        try {
+            lockFile();
+            try {
+                catchUp(false); //So the plays are written after any changes another copy has made, does nothing while changes are waiting
+                if(changedOnDisk() || !journal.isCurrent()) return; //Only a command can load the file again (see refreshIfChanged()), the plays are merged after that
+
+                boolean batched = journal.hasPending(); //Whoever made the waiting changes writes them, plays and all
+                plays.drain((slot, count) -> {
+                    if(!store.isUsed(slot)) return;
+                    Song song = store.get(slot);
+                    replaceSlot(slot, new Song(song.getName(), song.getArtist(), (int) Math.min(Integer.MAX_VALUE, song.getPlays() + count)));
+                    if(batched) unsavedPlays.add(new SongPlays(song.getName(), song.getArtist(), count));
+                });
+                if(!batched) flush();
+            }
+            finally {
+                unlockFile();
+            }
+        }
+        finally {
+            writeLock.unlock();
+        }
+        sync();
+    }
+
+    /**Run periodically by the compactor thread, merges plays that no command has come along to merge*/
+    private void mergePlaysInBackground() {
+        try {
+            mergePlays();
+        }
+        catch (IOException e) {
+            //The plays are either still counted or in the journal waiting to be written, so the next merge or command tries again
+        }
+    }
+
+    /**Writes the changes made since the last commit to the journal and returns them so they can be added to the undo history.
+     * Called once per command so that a command is persisted with a single write no matter how many songs it changes.
+     * Commands that change too many songs to be worth journaling, such as a large import, rewrite the song file instead, which is still a single write.
+    */
+    public SongChange commit() throws IOException {
+        SongChange change;
+        writeLock.lock();
+        try {
+            flush();
+            change = takeChange();
+        }
+        finally {
+            writeLock.unlock();
+        }
+        sync();
+        return change;
+    }
+
+    /**Writes the changes made since the last flush to the journal (or rewrites the song file if there are too many of them), without ending the current change.
+     * This is a compare-and-swap: the changes are only written if the journal is still at the version they were made against, checked and written under the song file lock.
+     * If another copy of the program has written first, the changes are thrown away and the song file loaded again with theirs, and false is returned so the user can be told and any recorded changes forgotten.
+     * The changes are on the disk when this returns, as far as the durability asks for, unless the caller holds the write lock. Waiting for the disk while holding it would stop other threads saving their changes alongside, so such callers (see SongServer) must call sync() once they have let go of it.
+    */
+    public boolean flush() throws IOException {
+        writeLock.lock();
+        try {
+            lockFile();
+            try {
+                if(!journal.hasPending()) return true;
+                if((changedOnDisk() && !adoptRewrite()) || !journal.isCurrent()) {
+                    load();
+                    return false;
+                }
+
+                if(journal.isOverflowed()) compact();
+                else journal.flush();
+                unsavedPlays.clear(); //Written along with everything else
+            }
+            finally {
+                unlockFile();
+            }
+        }
+        finally {
+            writeLock.unlock();
+        }
+
+        if(!lock.isWriteLockedByCurrentThread()) sync();
+        return true;
+    }
+
+    /**Waits until every change flushed so far is on the disk (see SongJournal.sync()), must be called without holding the write lock*/
+    public void sync() throws IOException {
+        journal.sync();
+    }
+
+    /**Returns the changes made since the last commit or takeChange() so they can be added to the undo history, without writing anything.
+     * A script takes one change per command so each can still be undone on its own, but only flushes once at the end.
+    */
+    public SongChange takeChange() {
+        writeLock.lock();
+        try {
+            SongChange change = pending;
+            pending = new SongChange();
+            return change;
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**Undoes a change by playing its operations backwards.
+     * Each operation first checks that its slot still holds what the change left there. If it doesn't (the library has since been reloaded or changed underneath it) the operations already undone are redone and false is returned, leaving the library as it was.
+    */
+    public boolean revert(SongChange change) {
+        writeLock.lock();
+        try {
+            List<SongChange.Operation> operations = change.getOperations();
+
+            for (int i = operations.size() - 1; i >= 0; i--) {
+                if(!undoOperation(operations.get(i))) {
+                    for (int j = i + 1; j < operations.size(); j++) redoOperation(operations.get(j));
+                    return false;
+                }
+            }
+            return true;
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**Redoes a change that was undone by revert(), playing its operations forwards with the same checks*/
+    public boolean reapply(SongChange change) {
+        writeLock.lock();
+        try {
+            List<SongChange.Operation> operations = change.getOperations();
+
+            for (int i = 0; i < operations.size(); i++) {
+                if(!redoOperation(operations.get(i))) {
+                    for (int j = i - 1; j >= 0; j--) undoOperation(operations.get(j));
+                    return false;
+                }
+            }
+            return true;
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**Writes the whole list to the song file and starts a new, empty journal.
+     * The new file is written next to the old one and then moved over it, so the song file on disk is always either the old or the new version and never a partially written one.
+    */
+    public void compact() throws IOException {
+        //Compaction only reads the songs, so readers can carry on while the file is written, the compaction lock keeps two compactions from interleaving their journal resets
+        readLock.lock();
+        compactionLock.lock();
+        try {
+            lockFile();
+            try {
+                if(journal.isCurrent() && !changedOnDisk()) writeSnapshot(); //Otherwise another copy has written changes this one hasn't got, which the new file would lose
+            }
+            finally {
+                unlockFile();
+            }
+        }
+        finally {
+            compactionLock.unlock();
+            readLock.unlock();
+        }
+    }
+
+    /**Does the work of compact(), the caller must hold the read (or write) lock, the compaction lock and the song file lock*/
+    private void writeSnapshot() throws IOException {
+        long start = System.nanoTime();
+        long checksum;
+        if(binary) {
+            SongBinaryFormat.write(view, size, tempPath);
+            checksum = SongBinaryFormat.checksum(tempPath);
+        }
+        else {
+            CRC32 crc = new CRC32();
+            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new CheckedOutputStream(Files.newOutputStream(tempPath), crc), StandardCharsets.UTF_8))) {
+                Main.writeSongs(view, writer);
+            }
+            checksum = crc.getValue();
+        }
+
+        //Order matters here, see SongJournal for why a journal is only replayed against the song file it was written for
+        long size = Files.size(tempPath);
+        journal.beginReset(size, checksum, journal.getPendingVersion()); //The new file holds every change, including any not written to the journal yet
+        durability.replace(tempPath, path);
+        journal.finishReset();
+        Metrics.recordWrite("rewrite song file", size, start);
+
+        recordFileStamp(); //Our own write shouldn't be mistaken for an outside change
+        lastCompaction = System.currentTimeMillis();
+        unsavedPlays.clear(); //The new file has every change, including those not written to the journal yet
+    }
+
+    /**Stops background compaction and writes out any outstanding changes*/
+    @Override
+    public void close() throws IOException {
+        writeLock.lock();
+        try {
+            compactor.shutdown();
+            mergePlays();
+            if(journal.getRecordCount() > 0) compact();
+            journal.close();
+            store.close();
+            if(watcher != null) watcher.close();
+            lockChannel.close();
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**Run periodically by the compactor thread, rewrites the song file once the journal is long or old enough*/
+    private void compactInBackground() {
+        readLock.lock();
+        compactionLock.lock();
+        try {
+            int records = journal.getRecordCount();
+            if(records == 0) return;
+            if(records < COMPACTION_RECORD_THRESHOLD && System.currentTimeMillis() - lastCompaction < COMPACTION_INTERVAL_MILLIS) return;
+
+            lockFile();
+            try {
+                if(journal.isCurrent() && !changedOnDisk()) writeSnapshot(); //Otherwise this copy is behind, and will try again once it has caught up
+            }
+            finally {
+                unlockFile();
+            }
+        }
+        catch (IOException e) {
+            //The changes are still safe in the journal, so it is enough to let the user know and try again next time
+            System.out.println("--Notice-- Sorry, we weren't able to save your song list in the background: " + e.getMessage());
+        }
+        finally {
+            compactionLock.unlock();
+            readLock.unlock();
+        }
+    }
+
+    /**Returns true if the file's modification time or size no longer match what was last loaded or written*/
+    private boolean changedOnDisk() throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        return attributes.lastModifiedTime().toMillis() != lastModified || attributes.size() != lastSize;
+    }
+
+    /**Parses the whole file into memory and applies the journal on top of it, under the song file lock so another copy can't be part way through replacing either.
+     * Plays not yet saved are kept by song across the reload and counted again for the same songs afterwards, since the slots they were counted by won't hold the same songs
+    */
+    private void load() throws IOException {
+        List<SongPlays> waiting = takeWaitingPlays();
+        lockFile();
+        try {
+            loadLocked();
+        }
+        finally {
+            unlockFile();
+        }
+        countAgain(waiting);
+    }
+
+    /**Takes every play not yet saved, those still being counted and those merged into changes that haven't been written, by song*/
+    private List<SongPlays> takeWaitingPlays() {
+        List<SongPlays> waiting = new ArrayList<>(unsavedPlays);
+        unsavedPlays.clear();
+        if(store != null) plays.drain((slot, count) -> {
+            if(store.isUsed(slot)) waiting.add(new SongPlays(store.getName(slot), store.getArtist(slot), count));
+        });
+        return waiting;
+    }
+
+    /**Counts plays taken by takeWaitingPlays() again for the first song with the same name and artist, in one pass over the songs.
+     * Plays for songs that are no longer there (removed or renamed in the file that was loaded) can't be counted for anything, so the user is told how many were dropped
+    */
+    private void countAgain(List<SongPlays> waiting) {
+        if(waiting.isEmpty()) return;
+
+        Map<String, Long> bySong = new HashMap<>();
+        for (SongPlays songPlays : waiting) bySong.merge(songPlays.name() + '\n' + songPlays.artist(), songPlays.plays(), Long::sum); //Names and artists never hold a line break
+        for (int slot = 0; slot < store.slotCount() && !bySong.isEmpty(); slot++) {
+            if(!store.isUsed(slot)) continue;
+            Long count = bySong.remove(store.getName(slot) + '\n' + store.getArtist(slot));
+            if(count != null) plays.add(slot, count);
+        }
+
+        long dropped = 0;
+        for (long count : bySong.values()) dropped += count;
+        if(dropped > 0) System.out.println("--Notice-- Sorry, " + dropped + " plays were for songs that are no longer in the song list, so they have been dropped");
+    }
+
+    /**Does the work of load(), the caller must hold the song file lock*/
+    private void loadLocked() throws IOException {
+        long start = System.nanoTime();
+        List<Song> loaded;
+        long fileSize;
+        long checksum;
+
+        recordFileStamp(); //Before reading, so an edit made while we read is still seen as a change afterwards
+        binary = SongBinaryFormat.isBinary(path);
+        if(!binary && SongStore.isPaged()) {
+            //The file can be bigger than memory, so it's read a line at a time straight into the store, and the journal is replayed onto the library itself
+            journal.close();
+            startSongs(0);
+            checksum = SongFileParser.parse(path, this::appendSong);
+            finishSongs();
+            fileSize = Files.size(path);
+            Metrics.recordRead("load song file", fileSize, start);
+            journal.open(new ReplayList(), fileSize, checksum);
+            return;
+        }
+        if(binary) {
+            loaded = new ArrayList<>(SongBinaryFormat.read(path));
+            fileSize = Files.size(path);
+            checksum = SongBinaryFormat.checksum(path);
+        }
+        else {
+            byte[] bytes = Files.readAllBytes(path);
+            loaded = new ArrayList<>(SongFileParser.parse(bytes)); //Formatting file lines into a Song list, using every core
+            fileSize = bytes.length;
+            checksum = SongJournal.checksum(bytes);
+        }
+        Metrics.recordRead("load song file", fileSize, start); //Includes parsing, which is most of it
+
+        journal.close();
+        journal.open(loaded, fileSize, checksum);
+        setSongs(loaded);
+    }
+
+    /**Reverses a single operation if its slot still holds what the operation left there*/
+    private boolean undoOperation(SongChange.Operation operation) {
+        if(!slotHolds(operation.slot, operation.after)) return false;
+
+        switch(operation.kind) {
+            case ADD -> emptySlot(operation.slot);
+            case REMOVE -> fillSlot(operation.slot, operation.before);
+            case SET -> replaceSlot(operation.slot, operation.before);
+        }
+        return true;
+    }
+
+    /**Repeats a single operation if its slot still holds what the operation found there*/
+    private boolean redoOperation(SongChange.Operation operation) {
+        if(!slotHolds(operation.slot, operation.before)) return false;
+
+        switch(operation.kind) {
+            case ADD, REMOVE -> {
+                if(operation.after == null) emptySlot(operation.slot);
+                else fillSlot(operation.slot, operation.after);
+            }
+            case SET -> replaceSlot(operation.slot, operation.after);
+        }
+        return true;
+    }
+
+    /**Returns true if the slot holds a song with exactly these details (or is empty, for null)*/
+    private boolean slotHolds(int slot, Song song) {
+        if(slot >= store.slotCount()) return false;
+        if(song == null) return !store.isUsed(slot);
+        return store.isUsed(slot) && store.getPlays(slot) == song.getPlays() && store.getArtist(slot).equals(song.getArtist()) && store.getName(slot).equals(song.getName());
+    }
+
+    /**Puts a song into an empty slot and journals it as an insert at its position (or an add, if it ends up last)*/
+    private void fillSlot(int slot, Song song) {
+        putInSlot(slot, song);
+
+        int index = rankOf(slot);
+        if(index == size - 1) journal.appendAdd(song);
+        else journal.appendInsert(index, song);
+    }
+
+    /**Empties a slot and journals the removal*/
+    private void emptySlot(int slot) {
+        journal.appendRemove(rankOf(slot));
+        clearSlot(slot);
+    }
+
+    /**Replaces the song in a slot and journals it*/
+    private void replaceSlot(int slot, Song song) {
+        changeSlot(slot, song);
+        journal.appendSet(rankOf(slot), song);
+    }
+
+    /**Puts a song into an empty slot, without journaling it*/
+    private void putInSlot(int slot, Song song) {
+        store.set(slot, song);
+        if(ranks != null) ranks.add(slot);
+        index(song, slot);
+        size++;
+    }
+
+    /**Empties a slot, without journaling it*/
+    private void clearSlot(int slot) {
+        plays.forget(slot); //They were for the song being removed, not whatever goes in the slot next
+        unindex(slot);
+        store.set(slot, null);
+        if(ranks != null) ranks.remove(slot);
+        size--;
+    }
+
+    /**Replaces the song in a slot, without journaling it*/
+    private void changeSlot(int slot, Song song) {
+        unindex(slot);
+        store.set(slot, song);
+        index(song, slot);
+    }
+
+    /**Replaces every song, packing them into the first slots and rebuilding the indexes*/
+    private void setSongs(List<Song> newSongs) throws IOException {
+        startSongs(newSongs.size());
+        for (Song song : newSongs) appendSong(song);
+        finishSongs();
+    }
+
+    /**Empties the library into a new store, ready for songs to be added in list order by appendSong() and then finishSongs() to be called*/
+    private void startSongs(int expectedSongs) throws IOException {
+        pending = new SongChange(); //Slots are about to be renumbered, so any uncommitted operations no longer make sense
+        if(store != null) store.close();
+        store = SongStore.create(expectedSongs, path);
+        pages = store instanceof PagedSongStore paged ? paged : null;
+        ranks = null;
+        size = 0;
+        plays.clear(); //The songs are about to be in different slots, load() has already taken the plays to count them again
+        playedSlots.clear();
+        loadCount++;
+
+        names.clear();
+        artists.clear();
+        nameCompletions = null; //Rebuilt from the new songs the next time they're needed
+        artistCompletions = null;
+        searchIndex = null;
+        stats.clear();
+    }
+
+    /**Adds a song to the end of a library being loaded*/
+    private void appendSong(Song song) {
+        int slot = store.append(song);
+        if(pages == null) {
+            names.add(song.getName(), slot);
+            artists.add(song.getArtist(), slot);
+        }
+        stats.add(song.getArtist(), song.getPlays());
+        size++;
+    }
+
+    /**Builds the indexes that are quicker to build once every song has been added*/
+    private void finishSongs() {
+        if(pages != null) return; //Nothing is indexed when the songs are kept on disk
+
+        ranks = new RankTree(size); //The songs fill the first slots
+        playCounts.rebuild(store); //Sorting everything at once is cheaper than inserting one at a time
+    }
+
+    /**Adds a song to every index*/
+    private void index(Song song, int slot) {
+        if(changedSinceCopy != null) changedSinceCopy.set(slot);
+        stats.add(song.getArtist(), song.getPlays());
+        if(pages != null) { //Only the totals are kept when the songs are on disk
+            forgetPlayedSlot(song.getName()); //This song may now be the first with its name
+            return;
+        }
+
+        names.add(song.getName(), slot);
+        artists.add(song.getArtist(), slot);
+        playCounts.add(song.getPlays(), slot);
+        if(nameCompletions != null) {
+            nameCompletions.add(slot);
+            artistCompletions.add(slot);
+        }
+        if(searchIndex != null) searchIndex.add(slot);
+    }
+
+    /**Removes the song in the slot from every index, must be called before the slot is changed*/
+    private void unindex(int slot) {
+        if(changedSinceCopy != null) changedSinceCopy.set(slot);
+        stats.remove(store.getArtist(slot), store.getPlays(slot));
+        if(pages != null) {
+            forgetPlayedSlot(store.getName(slot));
+            return;
+        }
+
+        if(nameCompletions != null) {
+            nameCompletions.remove(slot);
+            artistCompletions.remove(slot);
+        }
+        if(searchIndex != null) {
+            searchIndex.remove(slot);
+            if(searchIndex.needsRebuild()) searchIndex = null;
+        }
+        names.remove(slot);
+        artists.remove(slot);
+        playCounts.remove(store.getPlays(slot), slot);
+    }
+
+    /**Returns the first slot holding a song with the name (ignoring case), or -1 if there isn't one, when the songs are kept on disk.
+     * Names played before are remembered, so a song played over and over costs a scan of the songs the first time and a map lookup after that. The caller must hold the read (or write) lock
+    */
+    private int playedSlot(String name) {
+        String key = name.toLowerCase(Locale.ROOT);
+        synchronized (playedSlots) { //Readers record plays at the same time, and an access-ordered map changes on every lookup
+            Integer slot = playedSlots.get(key);
+            if(slot != null && (slot == -1 || store.getName(slot).equalsIgnoreCase(name))) return slot; //Checked since two names can be the same in lower case without being equal ignoring case
+        }
+
+        int slot = firstSlot(SongScans.find(store, store::getName, name));
+        synchronized (playedSlots) {
+            playedSlots.put(key, slot);
+        }
+        return slot;
+    }
+
+    /**Forgets where the first song with the name is, for when a song with it is added or removed*/
+    private void forgetPlayedSlot(String name) {
+        synchronized (playedSlots) {
+            playedSlots.remove(name.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /**Returns the first of the slots, or -1 if there are none*/
+    private static int firstSlot(int[] slots) {
+        return slots.length == 0 ? -1 : slots[0];
+    }
+
+    /**Builds the search index if it hasn't been yet, the caller must hold the read (or write) lock*/
+    private void buildSearchIndex() {
+        synchronized (searchBuildLock) {
+            if(searchIndex == null) searchIndex = new SearchIndex(store);
+        }
+    }
+
+    /**Builds the per-artist totals if they haven't been yet, the caller must hold the read (or write) lock*/
+    private void buildArtists() {
+        synchronized (artistBuildLock) {
+            stats.buildArtists(store);
+        }
+    }
+
+    /**Builds the completion indexes if they haven't been yet, the caller must hold the read (or write) lock*/
+    private void buildCompletions() {
+        synchronized (completionBuildLock) {
+            if(artistCompletions != null) return;
+
+            CompletionIndex builtNames = new CompletionIndex(slot -> store.getName(slot));
+            CompletionIndex builtArtists = new CompletionIndex(slot -> store.getArtist(slot));
+            builtNames.rebuild(store);
+            builtArtists.rebuild(store);
+
+            nameCompletions = builtNames;
+            artistCompletions = builtArtists; //Set last, it's what the check above looks at
+        }
+    }
+
+    /**Returns name and artist completion indexes, in that order, built from and reading from the store, for warmUp() to build from a copy*/
+    private static CompletionIndex[] completionsOf(SongStore store) {
+        CompletionIndex builtNames = new CompletionIndex(store::getName);
+        CompletionIndex builtArtists = new CompletionIndex(store::getArtist);
+        builtNames.rebuild(store);
+        builtArtists.rebuild(store);
+        return new CompletionIndex[] {builtNames, builtArtists};
+    }
+
+    /**Passes the slots of up to count songs in list order (or reversed), starting from the from'th, found with the rank tree and then walked slot by slot*/
+    private void forEachInListOrder(int from, int count, boolean descending, IntConsumer action) {
+        if(from >= size || count <= 0) return;
+        int step = descending ? -1 : 1;
+        for (int slot = slotAt(descending ? size - 1 - from : from); slot >= 0 && slot < store.slotCount() && count > 0; slot += step) {
+            if(!store.isUsed(slot)) continue;
+            action.accept(slot);
+            count--;
+        }
+    }
+
+    /**Returns the slot of the song at the position, throwing if there is no such song*/
+    private int slotOf(int index) {
+        if(index < 0 || index >= size) throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + size);
+        return slotAt(index);
+    }
+
+    /**Returns the slot holding the song at the position*/
+    private int slotAt(int index) {
+        return pages != null ? pages.select(index) : ranks.select(index);
+    }
+
+    /**Returns the position in the list of the song in the slot*/
+    private int rankOf(int slot) {
+        return pages != null ? pages.rank(slot) : ranks.rank(slot);
+    }
+
+    /**Returns the slots of the songs with the value in the index's field, ignoring case, from the index or by looking at every song if the songs are kept on disk*/
+    private int[] findSlots(SongIndex index, String value) {
+        if(pages == null) return index.find(value);
+        return SongScans.find(store, index == names ? store::getName : store::getArtist, value);
+    }
+
+    /**Returns the plays of the songs at each rank in order of plays, from the play count index or by looking at every song if the songs are kept on disk*/
+    private int[] playsAtRanks(int... positions) {
+        if(pages != null) return SongScans.playsAtRanks(store, positions);
+
+        int[] plays = new int[positions.length];
+        for (int i = 0; i < positions.length; i++) plays[i] = playCounts.playsAtRank(positions[i]);
+        return plays;
+    }
+
+    /**Returns the songs in the slots, in the order given*/
+    private List<Song> songsInSlots(int[] slots) {
+        List<Song> found = new ArrayList<>(slots.length);
+        for (int slot : slots) found.add(store.get(slot));
+        return found;
+    }
+
+    /**Read-only list of the songs in list order, skipping empty slots*/
+    private class SongView extends AbstractList<Song> {
+        @Override
+        public Song get(int index) {
+            readLock.lock();
+            try {
+                return store.get(slotOf(index));
+            }
+            finally {
+                readLock.unlock();
+            }
+        }
+
+        @Override
+        public int size() {
+            readLock.lock();
+            try {
+                return size;
+            }
+            finally {
+                readLock.unlock();
+            }
+        }
+
+        /**Walks the slots directly, which is O(1) per song rather than the O(log n) of get().
+         * Like cursor(), callers should hold readLock() while iterating.
+        */
+        @Override
+        public Iterator<Song> iterator() {
+            return new Iterator<>() {
+                private int slot = nextUsed(0);
+
+                @Override
+                public boolean hasNext() {
+                    return slot < store.slotCount();
+                }
+
+                @Override
+                public Song next() {
+                    if(!hasNext()) throw new NoSuchElementException();
+                    Song song = store.get(slot);
+                    slot = nextUsed(slot + 1);
+                    return song;
+                }
+
+                private int nextUsed(int from) {
+                    while(from < store.slotCount() && !store.isUsed(from)) from++;
+                    return from;
+                }
+            };
+        }
+    }
+
+    /**Applies the changes other copies of the program have written since this one last wrote or read, from the end of the journal, the same as they would be applied on loading.
+     * If another copy has rewritten the song file at the version already in memory, the new file is taken on without reading it (see adoptRewrite()).
+     * Anything else means the whole file has to be loaded again, which is only done if mayReload, since it means recorded changes can no longer be undone.
+     * Returns true if the file was loaded again. Nothing is done while this copy has changes that haven't been written, they were made against what's in memory now (see flush()).
+     * The caller must hold the write lock and the song file lock
+    */
+    private boolean catchUp(boolean mayReload) throws IOException {
+        if(journal.hasPending()) return false;
+
+        boolean upToDate = (!changedOnDisk() || adoptRewrite()) && (journal.isCurrent() || journal.readNew(new ReplayList()));
+        if(upToDate || !mayReload) return false;
+
+        load(); //A file edited by hand, or another copy's changes that don't fit ours (which shouldn't happen), loading everything again always gets back in step
+        return true;
+    }
+
+    /**Run by the watcher thread when the song file or journal changes, reads in another copy's changes straight away.
+     * This keeps the library current while the user is at the menu or typing an answer, so a change they then make follows on from the other copy's and can be saved (see flush()).
+     * Anything that would need a full reload is left for the next command, since sessions have to forget their recorded changes when that happens
+    */
+    private void catchUpInBackground() {
+        writeLock.lock();
+        try {
+            lockFile();
+            try {
+                catchUp(false);
+            }
+            finally {
+                unlockFile();
+            }
+        }
+        catch (IOException e) {
+            //Tried again by the next command, which can tell the user if it still fails
+        }
+        finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**Switches to the new journal if another copy of the program has rewritten the song file at exactly the version in memory, so without any change this copy hasn't got, which saves reading the file.
+     * A file edited by hand still has the old journal, and one rewritten after more changes has a later version, both of which have to be loaded.
+     * Returns true if the new file was taken on. The caller must hold the write lock and the song file lock
+    */
+    private boolean adoptRewrite() throws IOException {
+        SongJournal.Header header = journal.readHeader();
+        if(header == null || header.equals(journal.getHeader()) || header.version() != journal.getVersion()) return false;
+        if(header.snapshotSize() != Files.size(path) || SongBinaryFormat.isBinary(path) != binary) return false; //Only the size is checked, reading the file to check its checksum would cost as much as loading it
+
+        journal.adopt(header);
+        recordFileStamp();
+        return true;
+    }
+
+    /**Takes the song file lock, shared with other copies of the program, waiting for it if need be. Can be taken again by a thread that already holds it, and must be released by unlockFile() as many times*/
+    private void lockFile() throws IOException {
+        fileLockHolder.lock();
+        if(fileLockHolder.getHoldCount() > 1) return; //Already holding the operating system lock, asking for it again would throw
+        try {
+            fileLock = lockChannel.lock();
+        }
+        catch (IOException | RuntimeException e) {
+            fileLockHolder.unlock();
+            throw e;
+        }
+    }
+
+    /**Releases the song file lock taken by lockFile()*/
+    private void unlockFile() throws IOException {
+        try {
+            if(fileLockHolder.getHoldCount() == 1) fileLock.release();
+        }
+        finally {
+            fileLockHolder.unlock();
+        }
+    }
+
+    /**Starts a daemon thread that catches up whenever the song file or its journal is created, changed or replaced, returns null if the folder can't be watched*/
+    private WatchService watchFolder() {
+        Path folder = path.toAbsolutePath().getParent();
+        Path fileName = path.getFileName();
+        Path journalName = path.resolveSibling(path.getFileName() + ".journal").getFileName();
+        WatchService service;
+        try {
+            service = folder.getFileSystem().newWatchService();
+            folder.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        }
+        catch (IOException | UnsupportedOperationException e) {
+            return null;
+        }
+
+        Thread thread = new Thread(() -> {
+            try {
+                while(true) {
+                    WatchKey key = service.take();
+                    boolean changed = false;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        //Events can be lost if too many arrive at once, in which case anything might have changed
+                        if(event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(event.context()) || journalName.equals(event.context())) changed = true;
+                    }
+                    if(changed) catchUpInBackground(); //Our own writes are seen too, which finds nothing to do
+                    if(!key.reset()) return; //The folder has gone, commands still check for themselves
+                }
+            }
+            catch (InterruptedException | ClosedWatchServiceException e) {
+                //Stopped by close()
+            }
+        }, "song-file-watcher");
+        thread.setDaemon(true); //Never keeps the program alive by itself
+        thread.start();
+        return service;
+    }
+
+    /**Lets SongJournal.readNew() apply another copy's records to the library as if it were a list, without journaling them again or recording them to be undone.
+     * Inserting at a position needs an empty slot there, which there is when the insert undoes a removal this copy has already applied (the only way SongLibrary writes one)
+    */
+    private class ReplayList extends AbstractList<Song> {
+        @Override
+        public Song get(int index) {
+            return store.get(slotOf(index));
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Song set(int index, Song song) {
+            int slot = slotOf(index);
+            Song before = store.get(slot);
+            changeSlot(slot, song);
+            return before;
+        }
+
+        @Override
+        public void add(int index, Song song) {
+            if(index == size) {
+                putInSlot(store.append(null), song);
+                return;
+            }
+            int next = slotOf(index); //Out of range indexes throw, which stops the replay
+            for (int slot = index == 0 ? 0 : slotOf(index - 1) + 1; slot < next; slot++) {
+                if(!store.isUsed(slot)) {
+                    putInSlot(slot, song);
+                    return;
+                }
+            }
+            if(pages == null) throw new IllegalStateException("No empty slot to insert into");
+
+            //Nothing is kept by slot when the songs are on disk, so the songs from here on can be moved up a slot to make one. It takes a pass over them, but only happens when the song file was loaded from scratch since the removal being undone
+            plays.moveUp(next); //They move with their songs
+            playedSlots.clear();
+            for (int slot = store.append(null); slot > next; slot--) store.set(slot, store.get(slot - 1));
+            store.set(next, null);
+            putInSlot(next, song);
+        }
+
+        @Override
+        public Song remove(int index) {
+            int slot = slotOf(index);
+            Song before = store.get(slot);
+            clearSlot(slot);
+            return before;
+        }
+    }
+
+    /**Remembers the modification time and size of the file*/
+    private void recordFileStamp() throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        lastModified = attributes.lastModifiedTime().toMillis();
+        lastSize = attributes.size();
+    }
+}
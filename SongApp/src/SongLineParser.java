@@ -0,0 +1,258 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**Reads lines of the song file format ("name, artist, plays") in a single pass, and writes them with format().
+ * makeSongFromInput() used to split each line with String.split(", "), which made an array and a String for every field including the plays, and reported a bad line by throwing, which costs a stack trace per line on a file full of them.
+ * This goes along the line once, making only the name and artist Strings (and the Song), reads the plays straight from the characters or bytes, and reports a bad line by returning null and saying why in getProblem().
+ * A name or artist containing ", " is written in double quotes, the way CSV files (RFC 4180) quote fields, with any double quote inside doubled, e.g. "Hello, Goodbye", The Beatles, 12. Fields without ", " are written as they are, so files without such songs are unchanged.
+ * A field is only read as quoted if it is quoted properly, i.e. it starts with a double quote and the matching one is followed by ", " (the plays are never quoted, so a quoted field always has another after it). Anything else is read as it is written, quotes included, the way lines were always read, so no old line changes meaning unless it already looked exactly like a quoted field.
+ * Line breaks can't be quoted, since song files are split into lines before they're parsed.
+ * A parser keeps a little state between lines (the problem and a buffer for quoted fields), so each thread needs its own.
+*/
+public class SongLineParser {
+    /**Why a line isn't a song*/
+    public enum Problem {
+        FORMAT, //Not three fields separated by ", "
+        PLAYS //The plays aren't a whole number from 0 to the largest int
+    }
+
+    private Problem problem;
+    private StringBuilder unquoted; //Made the first time a quoted field has a doubled quote in it
+
+    //Where the field just read ended and the next one starts, set by the field readers
+    private int fieldEnd;
+    private int nextField;
+
+    /**Parses a line, returning null if it isn't a song, in which case getProblem() says why*/
+    public Song parse(CharSequence line) {
+        int end = line.length();
+
+        String name = readField(line, 0, end);
+        if(name == null) return failed(Problem.FORMAT);
+        String artist = readField(line, nextField, end);
+        if(artist == null) return failed(Problem.FORMAT);
+
+        int start = nextField;
+        long plays = 0;
+        if(start == end) return failed(Problem.FORMAT); //Only two fields, the second followed by ", "
+        if(line.charAt(start) == '+') start++; //Integer.parseInt() allowed a plus sign, so old files may have them
+        if(start == end) return failed(Problem.PLAYS);
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if(c == ',' && i + 1 < end && line.charAt(i + 1) == ' ') {
+                if(!onlySeparators(line, i, end)) return failed(Problem.FORMAT); //A fourth field
+                if(i == start) return failed(start == nextField ? Problem.FORMAT : Problem.PLAYS); //No digits, String.split() dropped the empty plays too, leaving two fields (or left just the plus sign)
+                break; //String.split() dropped empty fields at the end, so "name, artist, 12, " was always a song
+            }
+            if(c < '0' || c > '9') return failed(hasFourthField(line, i + 1, end) ? Problem.FORMAT : Problem.PLAYS);
+            plays = plays * 10 + (c - '0');
+            if(plays > Integer.MAX_VALUE) return failed(hasFourthField(line, i + 1, end) ? Problem.FORMAT : Problem.PLAYS);
+        }
+
+        problem = null;
+        return new Song(name, artist, (int) plays);
+    }
+
+    /**Parses a line of UTF-8 bytes from start to end (not including any line ending), returning null if it isn't a song, in which case getProblem() says why.
+     * ", " and the double quote are single bytes that never appear inside another character's bytes in UTF-8, so the line is split without decoding it, and only the name and artist are decoded
+    */
+    public Song parse(byte[] bytes, int start, int end) {
+        String name = readField(bytes, start, end);
+        if(name == null) return failed(Problem.FORMAT);
+        String artist = readField(bytes, nextField, end);
+        if(artist == null) return failed(Problem.FORMAT);
+
+        int first = nextField;
+        long plays = 0;
+        if(first == end) return failed(Problem.FORMAT); //Only two fields, the second followed by ", "
+        if(bytes[first] == '+') first++;
+        if(first == end) return failed(Problem.PLAYS);
+        for (int i = first; i < end; i++) {
+            byte b = bytes[i];
+            if(b == ',' && i + 1 < end && bytes[i + 1] == ' ') {
+                if(!onlySeparators(bytes, i, end)) return failed(Problem.FORMAT);
+                if(i == first) return failed(first == nextField ? Problem.FORMAT : Problem.PLAYS);
+                break;
+            }
+            if(b < '0' || b > '9') return failed(hasFourthField(bytes, i + 1, end) ? Problem.FORMAT : Problem.PLAYS);
+            plays = plays * 10 + (b - '0');
+            if(plays > Integer.MAX_VALUE) return failed(hasFourthField(bytes, i + 1, end) ? Problem.FORMAT : Problem.PLAYS);
+        }
+
+        problem = null;
+        return new Song(name, artist, (int) plays);
+    }
+
+    /**Parses a line like parse(), but throws what makeSongFromInput() always has for a line that isn't a song: an IOException if it isn't in the format, a NumberFormatException if the plays aren't valid.
+     * For the places a bad line stops everything anyway (loading the song file), where a thrown exception costs nothing extra
+    */
+    public Song parseOrThrow(CharSequence line) throws IOException {
+        Song song = parse(line);
+        if(song == null) throwProblem(line);
+        return song;
+    }
+
+    /**Throws the exception parseOrThrow() would for the line, after parse() has returned null for it*/
+    public void throwProblem(CharSequence line) throws IOException {
+        if(problem == Problem.FORMAT) throw new IOException("Not in the format name, artist, plays: " + line);
+        throw new NumberFormatException("Invalid play count: " + line);
+    }
+
+    /**Returns why the last line parsed wasn't a song, or null if it was*/
+    public Problem getProblem() {
+        return problem;
+    }
+
+    /**Formats a song's details as a line of the song file, quoting the name or artist if they need it (see the class comment)*/
+    public static String format(String name, String artist, int plays) {
+        StringBuilder line = new StringBuilder(name.length() + artist.length() + 16);
+        appendField(line, name);
+        line.append(", ");
+        appendField(line, artist);
+        return line.append(", ").append(plays).toString();
+    }
+
+    /**Adds a field to a line, in quotes if it contains ", " or starts with a quote (which would otherwise be read as quoted)*/
+    private static void appendField(StringBuilder line, String field) {
+        if(!field.contains(", ") && !field.startsWith("\"")) {
+            line.append(field);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if(c == '"') line.append('"');
+            line.append(c);
+        }
+        line.append('"');
+    }
+
+    /**Records the problem and returns null, for parse() to return*/
+    private Song failed(Problem problem) {
+        this.problem = problem;
+        return null;
+    }
+
+    /**Reads the field starting at start and followed by ", ", setting nextField to just after the separator. Returns null if there's no separator*/
+    private String readField(CharSequence line, int start, int end) {
+        if(start < end && line.charAt(start) == '"' && findQuoteEnd(line, start, end)) {
+            nextField = fieldEnd + 3; //After the closing quote and the separator
+            return unquote(line, start + 1, fieldEnd);
+        }
+
+        for (int i = start; i + 1 < end; i++) {
+            if(line.charAt(i) == ',' && line.charAt(i + 1) == ' ') {
+                nextField = i + 2;
+                return line.subSequence(start, i).toString();
+            }
+        }
+        return null;
+    }
+
+    /**Finds the quote closing a quoted field, setting fieldEnd to it. Returns false if the field isn't quoted properly: no closing quote, or one that isn't followed by ", "*/
+    private boolean findQuoteEnd(CharSequence line, int start, int end) {
+        for (int i = start + 1; i < end; i++) {
+            if(line.charAt(i) != '"') continue;
+            if(i + 1 < end && line.charAt(i + 1) == '"') {
+                i++; //A doubled quote inside the field
+                continue;
+            }
+            fieldEnd = i;
+            return i + 2 < end && line.charAt(i + 1) == ',' && line.charAt(i + 2) == ' '; //The plays always follow, so a quoted field is never last
+        }
+        return false;
+    }
+
+    /**Returns the inside of a quoted field with its doubled quotes made single*/
+    private String unquote(CharSequence line, int start, int end) {
+        int quote = -1;
+        for (int i = start; i < end && quote == -1; i++) {
+            if(line.charAt(i) == '"') quote = i;
+        }
+        if(quote == -1) return line.subSequence(start, end).toString();
+
+        StringBuilder field = buffer();
+        for (int i = start; i < end; i++) {
+            field.append(line.charAt(i));
+            if(line.charAt(i) == '"') i++; //Skips the second of the pair
+        }
+        return field.toString();
+    }
+
+    /**Returns true if another field starts between start and end, i.e. ", " appears and is followed by more than ", " repeated*/
+    private static boolean hasFourthField(CharSequence line, int start, int end) {
+        for (int i = start; i + 1 < end; i++) {
+            if(line.charAt(i) == ',' && line.charAt(i + 1) == ' ') return !onlySeparators(line, i, end);
+        }
+        return false;
+    }
+
+    /**Returns true if everything from start to end is ", " repeated*/
+    private static boolean onlySeparators(CharSequence line, int start, int end) {
+        if((end - start) % 2 != 0) return false;
+        for (int i = start; i < end; i += 2) {
+            if(line.charAt(i) != ',' || line.charAt(i + 1) != ' ') return false;
+        }
+        return true;
+    }
+
+    /**The byte version of readField()*/
+    private String readField(byte[] bytes, int start, int end) {
+        if(start < end && bytes[start] == '"' && findQuoteEnd(bytes, start, end)) {
+            nextField = fieldEnd + 3;
+            return unquote(bytes, start + 1, fieldEnd);
+        }
+
+        for (int i = start; i + 1 < end; i++) {
+            if(bytes[i] == ',' && bytes[i + 1] == ' ') {
+                nextField = i + 2;
+                return new String(bytes, start, i - start, StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    /**The byte version of findQuoteEnd()*/
+    private boolean findQuoteEnd(byte[] bytes, int start, int end) {
+        for (int i = start + 1; i < end; i++) {
+            if(bytes[i] != '"') continue;
+            if(i + 1 < end && bytes[i + 1] == '"') {
+                i++;
+                continue;
+            }
+            fieldEnd = i;
+            return i + 2 < end && bytes[i + 1] == ',' && bytes[i + 2] == ' ';
+        }
+        return false;
+    }
+
+    /**The byte version of unquote()*/
+    private String unquote(byte[] bytes, int start, int end) {
+        String field = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+        return field.indexOf('"') == -1 ? field : unquote(field, 0, field.length());
+    }
+
+    /**The byte version of hasFourthField()*/
+    private static boolean hasFourthField(byte[] bytes, int start, int end) {
+        for (int i = start; i + 1 < end; i++) {
+            if(bytes[i] == ',' && bytes[i + 1] == ' ') return !onlySeparators(bytes, i, end);
+        }
+        return false;
+    }
+
+    /**The byte version of onlySeparators()*/
+    private static boolean onlySeparators(byte[] bytes, int start, int end) {
+        if((end - start) % 2 != 0) return false;
+        for (int i = start; i < end; i += 2) {
+            if(bytes[i] != ',' || bytes[i + 1] != ' ') return false;
+        }
+        return true;
+    }
+
+    /**Returns the emptied buffer for unquoting fields*/
+    private StringBuilder buffer() {
+        if(unquoted == null) unquoted = new StringBuilder();
+        unquoted.setLength(0);
+        return unquoted;
+    }
+}
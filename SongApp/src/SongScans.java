@@ -0,0 +1,181 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+
+/**Answers the questions SongLibrary's indexes answer (finding songs by name or artist, by play count, the most played and the median, listing them sorted) by looking at every song in slot order instead.
+ * Used when the songs are kept on disk (see PagedSongStore): the indexes cost several ints per song however little memory the page cache is given, which for a library bigger than the heap is more memory than there is.
+ * A scan reads the pages one after the other, so each question costs one pass over the songs at the speed of the disk (or the cache), and takes no memory per song.
+*/
+public class SongScans {
+    private static final int HALF_BITS = 16;
+    private static final int HALF_VALUES = 1 << HALF_BITS;
+    private static final int SORT_WINDOW = 1 << 16; //Most songs forEachSorted() keeps in memory at once
+
+    /**A song's slot with what it's sorted by, read once when the song is looked at rather than on every comparison, only used by forEachSorted()*/
+    private record SortKey(String value, int plays, int slot) {}
+
+    /**Returns the slots of every song whose field (read through the function) is the value, ignoring case, in list order*/
+    public static int[] find(SongStore store, IntFunction<String> field, String value) {
+        int[] found = new int[4];
+        int count = 0;
+        for (int slot = 0; slot < store.slotCount(); slot++) {
+            if(!store.isUsed(slot) || !value.equalsIgnoreCase(field.apply(slot))) continue;
+
+            if(count == found.length) found = Arrays.copyOf(found, count * 2);
+            found[count++] = slot;
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**Returns the slots of up to limit songs whose name or artist contains the text, ignoring case, in list order*/
+    public static int[] search(SongStore store, String text, int limit) {
+        String wanted = text.strip().toLowerCase(Locale.ROOT);
+        int[] found = new int[Math.min(limit, 16)];
+        int count = 0;
+        for (int slot = 0; slot < store.slotCount() && count < limit; slot++) {
+            if(!store.isUsed(slot)) continue;
+            if(!store.getName(slot).toLowerCase(Locale.ROOT).contains(wanted) && !store.getArtist(slot).toLowerCase(Locale.ROOT).contains(wanted)) continue;
+
+            if(count == found.length) found = Arrays.copyOf(found, count * 2);
+            found[count++] = slot;
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**Returns the number of songs with between min and max plays (both inclusive)*/
+    public static int countPlaysBetween(SongStore store, int min, int max) {
+        int count = 0;
+        for (int slot = 0; slot < store.slotCount(); slot++) {
+            if(store.isUsed(slot) && store.getPlays(slot) >= min && store.getPlays(slot) <= max) count++;
+        }
+        return count;
+    }
+
+    /**Passes the slots of up to count of the songs with between min and max plays (both inclusive), in list order, starting from the from'th of them (counting from 0)*/
+    public static void forEachPlaysBetween(SongStore store, int min, int max, int from, int count, IntConsumer action) {
+        for (int slot = 0; slot < store.slotCount() && count > 0; slot++) {
+            if(!store.isUsed(slot) || store.getPlays(slot) < min || store.getPlays(slot) > max) continue;
+            if(from > 0) {
+                from--;
+                continue;
+            }
+            action.accept(slot);
+            count--;
+        }
+    }
+
+    /**Passes the slots of the count most played songs, most played first, songs with the same plays latest slot first (the same order as PlayCountIndex.forEachTop())*/
+    public static void forEachTop(SongStore store, int count, IntConsumer action) {
+        if(count <= 0) return;
+
+        PriorityQueue<Long> top = new PriorityQueue<>(); //The least played of those kept so far at the head, it's the one to drop
+        for (int slot = 0; slot < store.slotCount(); slot++) {
+            if(!store.isUsed(slot)) continue;
+            long entry = ((long) store.getPlays(slot) << 32) | slot;
+            if(top.size() < count) top.add(entry);
+            else if(entry > top.peek()) {
+                top.poll();
+                top.add(entry);
+            }
+        }
+
+        long[] entries = new long[top.size()];
+        for (int i = entries.length - 1; i >= 0; i--) entries[i] = top.poll();
+        for (long entry : entries) action.accept((int) entry);
+    }
+
+    /**Passes the slots of up to count songs in the order ("name", "artist" or "plays"), starting from the from'th song in that order (counting from 0), the same order SongLibrary.forEachSong() gets from its indexes.
+     * Like forEachTop(), the songs that come first are kept in a heap while every song is looked at once. At most SORT_WINDOW are kept at a time, so a longer listing takes a pass over the songs for every SORT_WINDOW songs up to the end of it, each carrying on after the last song the one before found
+    */
+    public static void forEachSorted(SongStore store, String order, boolean descending, int from, int count, IntConsumer action) {
+        if(count <= 0) return;
+
+        Comparator<SortKey> ascending = order.equals("plays") ? Comparator.comparingInt(SortKey::plays) : Comparator.comparing(SortKey::value, String.CASE_INSENSITIVE_ORDER);
+        Comparator<SortKey> wanted = descending ? ascending.thenComparingInt(SortKey::slot).reversed() : ascending.thenComparingInt(SortKey::slot);
+        long end = (long) from + count;
+        long found = 0; //Songs in the order before the ones this pass looks for
+        SortKey last = null; //The last of them
+
+        while(found < end) {
+            int keep = (int) Math.min(end - found, SORT_WINDOW);
+            PriorityQueue<SortKey> first = new PriorityQueue<>(wanted.reversed()); //The last in the order of those kept so far at the head, it's the one to drop
+            for (int slot = 0; slot < store.slotCount(); slot++) {
+                if(!store.isUsed(slot)) continue;
+                SortKey key = switch(order) {
+                    case "name" -> new SortKey(store.getName(slot), 0, slot);
+                    case "artist" -> new SortKey(store.getArtist(slot), 0, slot);
+                    default -> new SortKey(null, store.getPlays(slot), slot);
+                };
+                if(last != null && wanted.compare(key, last) <= 0) continue; //Found by an earlier pass
+                if(first.size() < keep) first.add(key);
+                else if(wanted.compare(key, first.peek()) < 0) {
+                    first.poll();
+                    first.add(key);
+                }
+            }
+
+            SortKey[] sorted = new SortKey[first.size()];
+            for (int i = sorted.length - 1; i >= 0; i--) sorted[i] = first.poll();
+            for (int i = 0; i < sorted.length; i++) {
+                if(found + i >= from) action.accept(sorted[i].slot());
+            }
+            if(sorted.length < keep) return; //There are no more songs
+            found += sorted.length;
+            last = sorted[sorted.length - 1];
+        }
+    }
+
+    /**Returns the plays of the song at each rank (counting from 0) in ascending order of plays, ranks must be less than the number of songs.
+     * Found in two passes without sorting: the first counts the songs by the top half of their plays, which says which top half each rank has, and the second counts just the songs with those top halves by the bottom half of their plays
+    */
+    public static int[] playsAtRanks(SongStore store, int... ranks) {
+        long[] highCounts = new long[HALF_VALUES];
+        for (int slot = 0; slot < store.slotCount(); slot++) {
+            if(store.isUsed(slot)) highCounts[high(store.getPlays(slot))]++;
+        }
+
+        int[] highs = new int[ranks.length];
+        long[] remaining = new long[ranks.length]; //How far into its top half each rank is
+        for (int i = 0; i < ranks.length; i++) {
+            long left = ranks[i];
+            int high = 0;
+            while(left >= highCounts[high]) left -= highCounts[high++];
+            highs[i] = high;
+            remaining[i] = left;
+        }
+
+        long[][] lowCounts = new long[ranks.length][];
+        for (int i = 0; i < ranks.length; i++) {
+            for (int j = 0; j < i && lowCounts[i] == null; j++) {
+                if(highs[j] == highs[i]) lowCounts[i] = lowCounts[j]; //Shares the counts with an earlier rank in the same top half
+            }
+            if(lowCounts[i] == null) lowCounts[i] = new long[HALF_VALUES];
+        }
+        for (int slot = 0; slot < store.slotCount(); slot++) {
+            if(!store.isUsed(slot)) continue;
+            int plays = store.getPlays(slot);
+            for (int i = 0; i < ranks.length; i++) {
+                if(high(plays) != highs[i]) continue;
+                lowCounts[i][plays & (HALF_VALUES - 1)]++;
+                break; //Ranks in the same top half share their counts
+            }
+        }
+
+        int[] plays = new int[ranks.length];
+        for (int i = 0; i < ranks.length; i++) {
+            long left = remaining[i];
+            int low = 0;
+            while(left >= lowCounts[i][low]) left -= lowCounts[i][low++];
+            plays[i] = ((highs[i] << HALF_BITS) | low) ^ Integer.MIN_VALUE;
+        }
+        return plays;
+    }
+
+    /**Returns the top half of the plays, with the sign bit flipped so that negative plays count in order before positive ones*/
+    private static int high(int plays) {
+        return (plays ^ Integer.MIN_VALUE) >>> HALF_BITS;
+    }
+}
@@ -0,0 +1,149 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+
+/**Lets many users work on the same song library at once, each connecting over a local socket (a TCP port on the loopback address, or a Unix domain socket).
+ * Every connection gets its own Session, so clients have their own undo history and never see each other's prompts, while the library and the command history are shared.
+ * The protocol is the one-line command grammar from scripts (see Main.runCommand()): a client sends one command per line, with its answers on the same line, and gets back the command's output followed by a line "--Done-- <completion code>".
+ * Commands that only read the library run under its read lock, so any number of them run at the same time, commands that change it have the write lock to themselves for the whole command (see CommandHandler.changesSongs()).
+ * Each connection is served by its own thread, a virtual thread when the JVM has them (Java 21 onwards) and a platform thread otherwise.
+*/
+public class SongServer implements Closeable {
+    public static final String DONE = "--Done-- ";
+
+    private final SocketAddress address;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService connections = newConnectionExecutor();
+
+    /**Starts listening on the address, see parseAddress()*/
+    public SongServer(SocketAddress address) throws IOException {
+        this.address = address;
+        if(address instanceof UnixDomainSocketAddress unixAddress) {
+            Files.deleteIfExists(unixAddress.getPath()); //Left behind if a previous server didn't shut down cleanly
+            serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        }
+        else serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+    }
+
+    /**Turns a port number into a loopback TCP address (only local users can connect), and anything else into the path of a Unix domain socket*/
+    public static SocketAddress parseAddress(String address) {
+        if(address.matches("\\d+")) return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address));
+        return UnixDomainSocketAddress.of(Path.of(address));
+    }
+
+    /**Accepts connections until the server is closed, serving each on its own thread*/
+    public void serve() throws IOException {
+        System.out.println("Serving the song library on " + address + ", stop the program to stop the server");
+        while(serverChannel.isOpen()) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            }
+            catch (IOException e) {
+                if(!serverChannel.isOpen()) return; //Closed while waiting
+                throw e;
+            }
+            connections.execute(() -> serveConnection(channel));
+        }
+    }
+
+    /**Stops accepting connections, connections already open are left to finish*/
+    @Override
+    public void close() throws IOException {
+        serverChannel.close();
+        connections.shutdown();
+        if(address instanceof UnixDomainSocketAddress unixAddress) Files.deleteIfExists(unixAddress.getPath());
+    }
+
+    /**Runs every command the client sends until it disconnects or sends exit*/
+    private void serveConnection(SocketChannel channel) {
+        //Output is collected and sent once the command has finished, so a slow client never holds the library's lock while we wait to send to it
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        Session session = new Session(null, new PrintStream(response, false, StandardCharsets.UTF_8), true);
+        Main.currentSession.set(session);
+
+        try (channel;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+             OutputStream output = Channels.newOutputStream(channel)) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                int completionCode = line.isBlank() ? 1 : runCommand(session, line);
+
+                session.out().println(DONE + completionCode);
+                session.out().flush();
+                response.writeTo(output);
+                output.flush();
+                response.reset();
+
+                if(completionCode == 0) return; //The client has entered the exit command, which only ends their own connection
+            }
+        }
+        catch (IOException e) {
+            //The client went away part way through, nothing to tell them
+        }
+        finally {
+            session.undoHistory.clear(); //Nobody can undo these changes any more, so they shouldn't count towards the memory the metrics command shows
+            Main.currentSession.remove();
+        }
+    }
+
+    /**Runs one command line for the session under the library lock it needs, and writes out any changes it made.
+     * Integer return value represents the completion code
+    */
+    private int runCommand(Session session, String line) throws IOException {
+        String command = line.trim().split(" ", 2)[0];
+        if(Main.library.refreshIfChanged()) session.undoHistory.clear(); //The song file was changed outside the program, so this session's recorded changes no longer line up with the songs
+        Main.mergePlaysBefore(command); //Before taking the command's lock, since merging needs the write lock, and after catching up, since plays aren't merged into a song file that needs loading again
+
+        Lock lock = CommandHandler.changesSongs(command) ? Main.library.writeLock() : Main.library.readLock();
+        int completionCode;
+        lock.lock();
+        try {
+            session.cancelled = false;
+            completionCode = Main.runCommand(line);
+            if(completionCode == 2) Main.saveChanges(); //Apply changes to file while nobody else can change the library
+        }
+        catch (RuntimeException e) {
+            //One client's failed command shouldn't take down everybody else's connection
+            session.out().println("--Notice-- Sorry, something went wrong running that command: " + e);
+            completionCode = 1;
+        }
+        finally {
+            lock.unlock();
+        }
+        if(completionCode == 2) Main.library.sync(); //Waits for the disk only now, so other clients can save their changes meanwhile and share the same force (see Durability)
+
+        Main.updateDebugFile(completionCode);
+        return completionCode;
+    }
+
+    /**Returns an executor that starts a virtual thread per task if the JVM supports them, or a platform thread otherwise*/
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            //Looked up by name since the program is built for Java 17, which doesn't have virtual threads
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
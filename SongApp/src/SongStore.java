@@ -0,0 +1,59 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**Slot-based storage behind SongLibrary.
+ * A slot either holds a song or is empty, slots are only ever added at the end and are never reused (see SongLibrary for why).
+ * ColumnarSongStore is used by default, ObjectSongStore keeps the original one-Song-object-per-song representation and can be chosen with the songapp.storage=objects system property.
+ * PagedSongStore, chosen with songapp.storage=paged, keeps the songs on disk for libraries too big to hold in memory.
+*/
+public interface SongStore extends Closeable {
+    /**Returns the number of slots, including empty ones */
+    int slotCount();
+
+    /**Adds a new slot at the end holding the song and returns its number*/
+    int append(Song song);
+
+    /**Puts a song in the slot, or empties it if song is null*/
+    void set(int slot, Song song);
+
+    /**Returns true if the slot holds a song */
+    boolean isUsed(int slot);
+
+    /**Returns the name of the song in the slot */
+    String getName(int slot);
+
+    /**Returns the artist of the song in the slot */
+    String getArtist(int slot);
+
+    /**Returns the plays of the song in the slot */
+    int getPlays(int slot);
+
+    /**Returns the song in the slot as a Song, or null if the slot is empty */
+    Song get(int slot);
+
+    /**Returns a copy of the songs that later changes to this store don't touch, so indexes can be built from it without holding the library's lock (see SongLibrary.warmUp()).
+     * By default the copy is an ObjectSongStore sharing this store's songs*/
+    default SongStore copy() {
+        ObjectSongStore copy = new ObjectSongStore(slotCount());
+        for (int slot = 0; slot < slotCount(); slot++) copy.append(get(slot));
+        return copy;
+    }
+
+    /**Lets go of anything the store holds outside the heap, the stores that keep songs in memory have nothing to do*/
+    @Override
+    default void close() throws IOException {
+    }
+
+    /**Creates the store selected by the songapp.storage system property, sized for the given number of songs, for the song file at the path*/
+    static SongStore create(int expectedSongs, Path songPath) throws IOException {
+        if(isPaged()) return new PagedSongStore(songPath.toAbsolutePath().getParent());
+        if("objects".equalsIgnoreCase(System.getProperty("songapp.storage"))) return new ObjectSongStore(expectedSongs);
+        return new ColumnarSongStore(expectedSongs);
+    }
+
+    /**Returns true if the songapp.storage system property selects PagedSongStore*/
+    static boolean isPaged() {
+        return "paged".equalsIgnoreCase(System.getProperty("songapp.storage"));
+    }
+}
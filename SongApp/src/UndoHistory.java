@@ -0,0 +1,115 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**Undo and redo stacks of the changes made to the library.
+ * The history is bounded by an estimate of the memory it keeps alive rather than a fixed number of changes, so many small changes can be undone while a single huge one can't push the program out of memory.
+ * The budget (in bytes) and the maximum number of changes can be set with the songapp.undo.budget and songapp.undo.depth system properties.
+ * As before, the history is only held in memory, so changes from previous instances of the program can't be undone.
+*/
+public class UndoHistory {
+    public static final long DEFAULT_BUDGET_BYTES = 16L * 1024 * 1024;
+    public static final int DEFAULT_MAX_DEPTH = 1000;
+
+    private final Deque<SongChange> undoStack = new ArrayDeque<>();
+    private final Deque<SongChange> redoStack = new ArrayDeque<>();
+    private final long budgetBytes;
+    private final int maxDepth;
+    private long usedBytes = 0;
+
+    /**Sets the limits of the history*/
+    public UndoHistory(long budgetBytes, int maxDepth) {
+        this.budgetBytes = budgetBytes;
+        this.maxDepth = maxDepth;
+    }
+
+    /**Creates a history using the limits from the system properties, or the defaults if they aren't set*/
+    public static UndoHistory fromSystemProperties() {
+        return new UndoHistory(Long.getLong("songapp.undo.budget", DEFAULT_BUDGET_BYTES), Integer.getInteger("songapp.undo.depth", DEFAULT_MAX_DEPTH));
+    }
+
+    /**Adds a change made by a command.
+     * A new change means the undone changes no longer follow on from the current state, so they can't be redone any more.
+     * Returns false if the change on its own is more than the budget (e.g. importing or removing a huge number of songs), in which case it isn't kept, since keeping it would hold every song it touched in memory whatever the budget says.
+     * Nothing before it can be undone then either, as undoing those would skip over it
+    */
+    public boolean record(SongChange change) {
+        if(change.isEmpty()) return true;
+
+        clearStack(redoStack);
+        if(change.getEstimatedBytes() > budgetBytes) {
+            clearStack(undoStack);
+            return false;
+        }
+        undoStack.addLast(change);
+        changeUsedBytes(change.getEstimatedBytes());
+
+        //Forgets the oldest changes until back within the limits, the newest change always fits on its own so it's never the one forgotten
+        while(!undoStack.isEmpty() && (usedBytes > budgetBytes || undoStack.size() > maxDepth)) {
+            changeUsedBytes(-undoStack.removeFirst().getEstimatedBytes());
+        }
+        return true;
+    }
+
+    /**Undoes the most recent change.
+     * Returns false if there was nothing to undo or the change could no longer be undone, see SongLibrary.revert()
+    */
+    public boolean undo(SongLibrary library) {
+        if(undoStack.isEmpty()) return false;
+
+        SongChange change = undoStack.removeLast();
+        if(!library.revert(change)) {
+            changeUsedBytes(-change.getEstimatedBytes());
+            return false;
+        }
+        redoStack.addLast(change);
+        return true;
+    }
+
+    /**Redoes the most recently undone change.
+     * Returns false if there was nothing to redo or the change could no longer be redone.
+    */
+    public boolean redo(SongLibrary library) {
+        if(redoStack.isEmpty()) return false;
+
+        SongChange change = redoStack.removeLast();
+        if(!library.reapply(change)) {
+            changeUsedBytes(-change.getEstimatedBytes());
+            return false;
+        }
+        undoStack.addLast(change);
+        return true;
+    }
+
+    /**Returns true if there is a change that can be undone */
+    public boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    /**Returns true if there is a change that can be redone */
+    public boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    /**Returns the estimated memory kept alive by the history */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**Forgets every change, used when the library is reloaded and the changes no longer apply, and when a server client leaves*/
+    public void clear() {
+        clearStack(undoStack);
+        clearStack(redoStack);
+    }
+
+    /**Empties a stack and takes its changes off the memory estimate*/
+    private void clearStack(Deque<SongChange> stack) {
+        for (SongChange change : stack) changeUsedBytes(-change.getEstimatedBytes());
+        stack.clear();
+    }
+
+    /**Changes the memory estimate, and the total across every session shown by the metrics command*/
+    private void changeUsedBytes(long bytes) {
+        usedBytes += bytes;
+        Metrics.changeUndoHistoryBytes(bytes);
+    }
+}